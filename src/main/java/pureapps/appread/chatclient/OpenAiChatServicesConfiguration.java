@@ -7,6 +7,15 @@ import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClient;
+import pureapps.appread.hedging.HedgedCallExecutor;
+import pureapps.appread.hedging.HedgingChatModel;
+import pureapps.appread.throttling.AdaptiveConcurrencyLimiter;
+import pureapps.appread.throttling.PrioritizedChatModel;
+import pureapps.appread.throttling.RequestPriority;
+
+import java.time.Duration;
 
 @Configuration
 class OpenAiChatServicesConfiguration {
@@ -16,18 +25,30 @@ class OpenAiChatServicesConfiguration {
     @Value("${spring.ai.openai.chat.options.model}")
     private String model;
 
+    @Value("${app.chat.retry.max-retries:3}")
+    private int maxRetries = 3;
+    @Value("${app.chat.retry.initial-backoff:1s}")
+    private Duration initialBackoff = Duration.ofSeconds(1);
+    @Value("${app.chat.retry.max-backoff:30s}")
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
     @Bean
-    ChatClient openAiClient() {
-        return ChatClient.builder(
-                        chatModel())
-                .build();
+    ChatClient openAiClient(OpenAiChatModel chatModel, HedgedCallExecutor chatHedgedCallExecutor,
+                            AdaptiveConcurrencyLimiter chatConcurrencyLimiter) {
+        // The limiter admits the call before any hedge is issued; a hedge is only sent if it gets a free slot of its own
+        HedgingChatModel hedgingChatModel = new HedgingChatModel(chatModel, chatHedgedCallExecutor, () -> {
+            AdaptiveConcurrencyLimiter.Permit permit = chatConcurrencyLimiter.tryAcquire(RequestPriority.current());
+            return permit != null ? permit::close : null;
+        });
+        PrioritizedChatModel.Retry retry = new PrioritizedChatModel.Retry(maxRetries, initialBackoff, maxBackoff);
+        return ChatClient.builder(new PrioritizedChatModel(hedgingChatModel, chatConcurrencyLimiter, retry)).build();
     }
 
     @Bean
-    public OpenAiChatModel chatModel() {
+    public OpenAiChatModel chatModel(OpenAiApi openAiApi) {
         return OpenAiChatModel.builder()
                 .defaultOptions(openAiChatOptions())
-                .openAiApi(openAiApi())
+                .openAiApi(openAiApi)
                 .build();
     }
 
@@ -41,10 +62,17 @@ class OpenAiChatServicesConfiguration {
     }
 
 
+    /**
+     * Uses Boot's {@link RestClient.Builder} so chat calls share the pooled model transport with the embedding client,
+     * and the overload-aware error handler so 429/5xx responses reach the chat limiter; {@link PrioritizedChatModel}
+     * retries them, as Spring AI's retry template only retries transient errors.
+     */
     @Bean
-    public OpenAiApi openAiApi() {
+    public OpenAiApi openAiApi(RestClient.Builder restClientBuilder, ResponseErrorHandler overloadAwareResponseErrorHandler) {
         return OpenAiApi.builder()
                 .apiKey(apiKey)
+                .restClientBuilder(restClientBuilder)
+                .responseErrorHandler(overloadAwareResponseErrorHandler)
                 .build();
     }
 }
@@ -72,6 +72,50 @@ public class DocumentationController {
         }
     }
 
+    /**
+     * Retries embedding the chunks of a project that failed during ingestion.
+     *
+     * @param projectId the project whose failed chunks should be replayed
+     * @return the number of chunks that were embedded and stored
+     */
+    @PostMapping("/{projectId}/failed-embeddings/replay")
+    public ResponseEntity<?> replayFailedEmbeddings(@PathVariable String projectId) {
+        try {
+            int replayed = documentationGenerationService.replayFailedEmbeddings(projectId);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("projectId", projectId);
+            response.put("replayedChunks", replayed);
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("Failed to replay failed embeddings: {}", e.getMessage(), e);
+            return ResponseEntity.badRequest().body("Failed to replay failed embeddings: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes a project. It is no longer searchable once this returns; its data is removed in the background.
+     *
+     * @param projectId the project to delete
+     * @return 202 Accepted, also if the project is already being deleted
+     */
+    @DeleteMapping("/{projectId}")
+    public ResponseEntity<?> deleteProject(@PathVariable String projectId) {
+        try {
+            boolean started = documentationGenerationService.deleteProject(projectId);
+
+            Map<String, String> response = new HashMap<>();
+            response.put("projectId", projectId);
+            response.put("message", started ? "Project deletion started" : "Project deletion already in progress");
+
+            return ResponseEntity.accepted().body(response);
+        } catch (Exception e) {
+            log.error("Failed to delete project: {}", e.getMessage(), e);
+            return ResponseEntity.badRequest().body("Failed to delete project: " + e.getMessage());
+        }
+    }
+
     /**
      * Request object for generating documentation from a GitHub repository
      */
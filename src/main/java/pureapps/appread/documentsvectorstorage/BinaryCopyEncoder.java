@@ -0,0 +1,119 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.postgresql.copy.CopyIn;
+import pureapps.appread.vectorarena.VectorSlot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+/**
+ * Encodes rows in PostgreSQL's binary COPY format and streams them into a {@link CopyIn} through a fixed
+ * buffer, so a load of any size never materializes more than one buffer of rows.
+ */
+class BinaryCopyEncoder {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final int NULL_LENGTH = -1;
+    private static final short END_OF_DATA = -1;
+
+    private final CopyIn copyIn;
+    private final ByteBuffer buffer;
+
+    BinaryCopyEncoder(CopyIn copyIn, int bufferSize) {
+        this.copyIn = copyIn;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        buffer.put(SIGNATURE).putInt(0).putInt(0);
+    }
+
+    void startRow(int fieldCount) throws SQLException {
+        ensureCapacity(Short.BYTES);
+        buffer.putShort((short) fieldCount);
+    }
+
+    void text(String value) throws SQLException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(Integer.BYTES);
+        buffer.putInt(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            // Large values bypass the buffer instead of forcing it to grow
+            flush();
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    void bytea(byte[] value) throws SQLException {
+        ensureCapacity(Integer.BYTES + value.length);
+        buffer.putInt(value.length).put(value);
+    }
+
+    void int4(int value) throws SQLException {
+        ensureCapacity(2 * Integer.BYTES);
+        buffer.putInt(Integer.BYTES).putInt(value);
+    }
+
+    void int8(long value) throws SQLException {
+        ensureCapacity(Integer.BYTES + Long.BYTES);
+        buffer.putInt(Long.BYTES).putLong(value);
+    }
+
+    /**
+     * Writes a vector in pgvector's binary format (the input of its {@code vector_recv}).
+     */
+    void vector(float[] vector) throws SQLException {
+        int length = 2 * Short.BYTES + vector.length * Float.BYTES;
+        ensureCapacity(Integer.BYTES + length);
+        buffer.putInt(length).putShort((short) vector.length).putShort((short) 0);
+        for (float component : vector) {
+            buffer.putFloat(component);
+        }
+    }
+
+    /**
+     * Writes an off-heap vector straight from its slot, without a heap copy.
+     */
+    void vector(VectorSlot slot) throws SQLException {
+        ensureCapacity(Integer.BYTES + slot.pgvectorBinaryLength());
+        buffer.putInt(slot.pgvectorBinaryLength());
+        slot.writePgvectorBinary(buffer);
+    }
+
+    void writeNull() throws SQLException {
+        ensureCapacity(Integer.BYTES);
+        buffer.putInt(NULL_LENGTH);
+    }
+
+    /**
+     * Writes the trailer and completes the COPY.
+     *
+     * @return the number of rows the server loaded
+     */
+    long finish() throws SQLException {
+        ensureCapacity(Short.BYTES);
+        buffer.putShort(END_OF_DATA);
+        flush();
+        return copyIn.endCopy();
+    }
+
+    private void ensureCapacity(int bytes) throws SQLException {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.remaining() < bytes) {
+                throw new IllegalArgumentException("COPY buffer of " + buffer.capacity() + " bytes cannot hold a field of " + bytes + " bytes");
+            }
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (buffer.position() > 0) {
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
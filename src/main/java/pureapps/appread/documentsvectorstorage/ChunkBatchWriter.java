@@ -0,0 +1,134 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.throttling.MicroBatcher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Group commit for chunk writes: the chunks of ingestions that save within the same window, of any project, are
+ * written in one transaction, so concurrent small ingestions share one commit instead of contending with one each.
+ * A group is flushed when its window elapses or once it holds {@code max-rows} chunks.
+ * <p>
+ * A producer's future completes once the transaction holding its chunks has committed. If the shared
+ * transaction fails, each of its writes is repeated in a transaction of its own, so a bad write only fails its
+ * own producer, as it would have without grouping.
+ */
+@Service
+@Slf4j
+class ChunkBatchWriter {
+
+    private final PersistenceService persistenceService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.persistence.group-commit.window:10ms}")
+    private Duration window = Duration.ofMillis(10);
+
+    @Value("${app.persistence.group-commit.max-rows:20000}")
+    private int maxRows = 20000;
+
+    private MicroBatcher<Write, Outcome> batcher;
+
+    ChunkBatchWriter(PersistenceService persistenceService, PlatformTransactionManager transactionManager) {
+        this.persistenceService = persistenceService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * A zero window disables grouping: every write commits on its own, on the caller's thread.
+     */
+    @PostConstruct
+    void startGroupCommit() {
+        if (!window.isZero()) {
+            batcher = new MicroBatcher<>("chunk-write", window, maxRows, write -> write.chunks().size(), this::writeGroup);
+        }
+    }
+
+    @PreDestroy
+    void stopGroupCommit() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Queues the chunks for the next group commit.
+     *
+     * @return a future that completes once the chunks are committed, or exceptionally if they could not be written
+     */
+    CompletableFuture<Void> submit(String projectId, int indexVersion, String model, List<DocumentChunkWithEmbedding> chunks) {
+        Write write = new Write(projectId, indexVersion, model, chunks);
+        if (batcher == null) {
+            return writeAlone(write).toFuture();
+        }
+        return batcher.submit(write).thenCompose(Outcome::toFuture);
+    }
+
+    /**
+     * Writes the chunks and waits for them to be committed.
+     */
+    void write(String projectId, int indexVersion, String model, List<DocumentChunkWithEmbedding> chunks) {
+        try {
+            submit(projectId, indexVersion, model, chunks).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private List<Outcome> writeGroup(List<Write> writes) {
+        if (writes.size() == 1) {
+            return List.of(writeAlone(writes.getFirst()));
+        }
+        // By project, so concurrent groups lock the project rows in the same order; each write inserts its content
+        // in key order. Outcomes stay in submission order.
+        List<Write> byProject = writes.stream().sorted(Comparator.comparing(Write::projectId)).toList();
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    byProject.forEach(write -> persistenceService.saveChunks(write.projectId(), write.indexVersion(), write.model(), write.chunks())));
+            log.debug("Group commit of {} writes with {} chunks", writes.size(), writes.stream().mapToInt(write -> write.chunks().size()).sum());
+            return writes.stream().map(write -> Outcome.SUCCESS).toList();
+        } catch (RuntimeException e) {
+            log.warn("Group commit of {} writes failed, writing them one by one: {}", writes.size(), e.getMessage());
+            List<Outcome> outcomes = new ArrayList<>();
+            for (Write write : writes) {
+                outcomes.add(writeAlone(write));
+            }
+            return outcomes;
+        }
+    }
+
+    private Outcome writeAlone(Write write) {
+        try {
+            persistenceService.saveChunks(write.projectId(), write.indexVersion(), write.model(), write.chunks());
+            return Outcome.SUCCESS;
+        } catch (RuntimeException e) {
+            return new Outcome(e);
+        }
+    }
+
+    private record Write(String projectId, int indexVersion, String model, List<DocumentChunkWithEmbedding> chunks) {
+    }
+
+    private record Outcome(RuntimeException failure) {
+        static final Outcome SUCCESS = new Outcome(null);
+
+        CompletableFuture<Void> toFuture() {
+            return failure == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(failure);
+        }
+    }
+}
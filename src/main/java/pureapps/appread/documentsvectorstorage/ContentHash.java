@@ -0,0 +1,28 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.experimental.UtilityClass;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Address of a chunk's text in the content-addressed {@code chunk_contents} and {@code chunk_embeddings} tables:
+ * the SHA-256 of its UTF-8 bytes, as computed by {@code sha256(convert_to(content, 'UTF8'))} in SQL.
+ */
+@UtilityClass
+class ContentHash {
+
+    byte[] of(String content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    String hex(String content) {
+        return HexFormat.of().formatHex(of(content));
+    }
+}
@@ -1,29 +1,27 @@
 package pureapps.appread.documentsvectorstorage;
 
-import com.pgvector.PGvector;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.hibernate.annotations.JdbcTypeCode;
-import org.hibernate.annotations.Type;
-import org.hibernate.type.SqlTypes;
+import org.hibernate.annotations.Immutable;
 
 import java.time.OffsetDateTime;
 import java.util.UUID;
 
+/**
+ * Read model of a chunk, joined from the project's chunk row, the file path and the shared content by the
+ * {@code document_chunk_details} view. Chunks are written by {@link DocumentChunkWriter}.
+ */
 @Entity
-@Table(name = "document_chunks", indexes = {
-        @Index(name = "document_chunks_project_id_idx", columnList = "project_id"),
-        @Index(name = "document_chunks_file_path_idx", columnList = "file_path")
-})
+@Immutable
+@Table(name = "document_chunk_details")
 @Getter
 @Setter
 @NoArgsConstructor
 class DocumentChunkEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
     @Column(updatable = false, nullable = false)
     private UUID uuid;
 
@@ -45,29 +43,15 @@ class DocumentChunkEntity {
     @Column(name = "file_checksum", nullable = false, length = 64)
     private String fileChecksum;
 
-    @Column(name = "embedding", nullable = false, columnDefinition = "vector(1536)")
-    @JdbcTypeCode(SqlTypes.VARBINARY)
-    private float[] embedding;
-
     @Column(name = "created_at", columnDefinition = "TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP")
     private OffsetDateTime createdAt;
 
-    @PrePersist
-    protected void onCreate() {
-        createdAt = OffsetDateTime.now();
-    }
-
-    public DocumentChunkEntity(String projectId, String filePath, int startLine, int endLine, String content, String fileChecksum, float[] embedding) {
+    public DocumentChunkEntity(String projectId, String filePath, int startLine, int endLine, String content, String fileChecksum) {
         this.projectId = projectId;
         this.filePath = filePath;
         this.startLine = startLine;
         this.endLine = endLine;
         this.content = content;
         this.fileChecksum = fileChecksum;
-        setEmbeddingFromArray(embedding);
-    }
-
-    public void setEmbeddingFromArray(float[] embeddingArray) {
-        this.embedding = embeddingArray;
     }
 }
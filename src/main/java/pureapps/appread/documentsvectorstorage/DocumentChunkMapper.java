@@ -2,12 +2,7 @@
 package pureapps.appread.documentsvectorstorage;
 
 import lombok.experimental.UtilityClass;
-import org.springframework.ai.document.Document;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
-import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
-
-import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Utility class for mapping between different document chunk models.
@@ -16,20 +11,24 @@ import java.util.stream.Collectors;
 class DocumentChunkMapper {
 
     /**
-     * Maps a DocumentChunkEntity to a DocumentChunkWithEmbedding.
+     * Maps a DocumentChunkEntity to the DocumentChunk it was created from.
      *
      * @param entity The source entity
-     * @return A new DocumentChunkWithEmbedding
+     * @return A new DocumentChunk
      */
     public DocumentChunk toDTO(DocumentChunkEntity entity) {
-        DocumentChunk dto = new DocumentChunk();
-        dto.setContent(entity.getContent());
-        dto.setFilePath(entity.getFilePath());
-        dto.setStartLine(entity.getStartLine());
-        dto.setEndLine(entity.getEndLine());
-        dto.setFileChecksum(entity.getFileChecksum());
-        return dto;
+        return new DocumentChunk(entity.getContent(), entity.getFilePath(), entity.getStartLine(), entity.getEndLine(),
+                entity.getFileChecksum());
     }
 
-
+    /**
+     * Maps a dead-lettered chunk back to the DocumentChunk it was created from.
+     *
+     * @param deadLetter The dead-letter entry
+     * @return A new DocumentChunk
+     */
+    public DocumentChunk toDTO(EmbeddingDeadLetterEntity deadLetter) {
+        return new DocumentChunk(deadLetter.getContent(), deadLetter.getFilePath(), deadLetter.getStartLine(), deadLetter.getEndLine(),
+                deadLetter.getFileChecksum());
+    }
 }
@@ -1,7 +1,6 @@
 package pureapps.appread.documentsvectorstorage;
 
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -12,39 +11,25 @@ import java.util.UUID;
 @Repository
 interface DocumentChunkRepository extends JpaRepository<DocumentChunkEntity, UUID> {
 
-    @Modifying
-    int deleteByProjectId(String projectId);
-
-    @Query(value = "SELECT uuid, project_id, file_path, start_line, end_line, content, NULL as embedding, created_at " +
-                   "FROM document_chunks " +
-                   "WHERE (embedding <=> CAST(:queryEmbedding AS vector)) <= :similarityThreshold " +
-                   "AND (:projectId IS NULL OR project_id = :projectId) " +
-                   "ORDER BY embedding <=> CAST(:queryEmbedding AS vector) " +
+    boolean existsByProjectId(String projectId);
+
+    @Query(value = "SELECT DISTINCT c.project_id FROM document_chunks c " +
+                   "LEFT JOIN project_embedding_models m ON m.project_id = c.project_id " +
+                   "WHERE COALESCE(m.model, :sourceModel) <> :targetModel", nativeQuery = true)
+    List<String> findProjectIdsNotEmbeddedWith(@Param("targetModel") String targetModel, @Param("sourceModel") String sourceModel);
+
+    /**
+     * Next chunks of the project, in uuid order after {@code afterUuid}, whose content has no vector from the target
+     * model yet - from this project's migration or any other project containing the same content.
+     */
+    @Query(value = "SELECT uuid, project_id, file_path, start_line, end_line, content, file_checksum, created_at " +
+                   "FROM document_chunk_details c " +
+                   "WHERE c.project_id = :projectId AND c.uuid > :afterUuid " +
+                   "AND NOT EXISTS (SELECT 1 FROM chunk_embeddings e WHERE e.content_hash = c.content_hash AND e.model = :model) " +
+                   "ORDER BY c.uuid " +
                    "LIMIT :limit", nativeQuery = true)
-    List<DocumentChunkEntity> findSimilarChunks(
-            @Param("queryEmbedding") float[] queryEmbedding,
-            @Param("similarityThreshold") float similarityThreshold,
-            @Param("limit") int limit,
-            @Param("projectId") String projectId
-    );
-
-    @Modifying
-    @Query(value = "INSERT INTO document_chunks (uuid, project_id, file_path, start_line, end_line, content, file_checksum, embedding, created_at) " +
-            "VALUES (gen_random_uuid(), :#{#entity.projectId}, :#{#entity.filePath}, :#{#entity.startLine}, :#{#entity.endLine}, " +
-            ":#{#entity.content}, :#{#entity.fileChecksum}, CAST(:#{#entity.embedding} AS vector), CURRENT_TIMESTAMP)", nativeQuery = true)
-    void saveWithVectorCast(@Param("entity") DocumentChunkEntity entity);
-
-    default void saveAllWithVectorCast(List<DocumentChunkEntity> entities) {
-        entities.forEach(this::saveWithVectorCast);
-    }
-
-    @Modifying
-    @Query("DELETE FROM DocumentChunkEntity dc WHERE dc.projectId = :projectId AND dc.filePath = :filePath")
-    int deleteByProjectIdAndFilePath(@Param("projectId") String projectId, @Param("filePath") String filePath);
-
-    @Modifying
-    @Query("DELETE FROM DocumentChunkEntity dc WHERE dc.projectId = :projectId AND dc.fileChecksum = :fileChecksum")
-    int deleteByProjectIdAndFileChecksum(@Param("projectId") String projectId, @Param("fileChecksum") String fileChecksum);
+    List<DocumentChunkEntity> findChunksToMigrate(@Param("projectId") String projectId, @Param("model") String model,
+                                                  @Param("afterUuid") UUID afterUuid, @Param("limit") int limit);
 
     @Query("SELECT dc FROM DocumentChunkEntity dc WHERE dc.projectId = :projectId AND dc.filePath = :filePath")
     List<DocumentChunkEntity> findByProjectIdAndFilePath(@Param("projectId") String projectId, @Param("filePath") String filePath);
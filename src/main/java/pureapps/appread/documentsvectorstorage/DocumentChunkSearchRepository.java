@@ -0,0 +1,167 @@
+package pureapps.appread.documentsvectorstorage;
+
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import pureapps.appread.documentsvectorstorage.dto.ScoredDocumentChunk;
+
+import java.util.List;
+
+/**
+ * Similarity search whose SQL depends on the configured {@link VectorStorageMode} and the query's dimensions.
+ * Only vectors of the same dimensionality are searched, through the partial index built for it on
+ * {@code chunk_embeddings}; file paths and contents are joined to the final hits. A search scoped to a project
+ * joins the vectors to the project's chunks, comparing {@code project_id} by plain equality so only that project's
+ * partition is read. An unscoped search returns one chunk per matching content, from the project that stored it last.
+ * Either way only chunks of each project's live index version are returned, never those of a version being built.
+ * In quantized modes the compact index yields {@code limit * rerankFactor} candidates, which are then
+ * ordered by their exact distance to the query.
+ * <p>
+ * The nearest rows are a plain {@code ORDER BY distance LIMIT} the index can answer; the similarity threshold is
+ * only applied to the hits afterwards, as a distance predicate next to the ordering makes the planner fall back to
+ * an exact scan. Rows the index yields but the model or project filter drops are made up for by an iterative
+ * index scan, instead of returning fewer than {@code limit} hits. Iterative scans need pgvector 0.8; against an
+ * older extension, whose reserved {@code hnsw.}/{@code ivfflat.} prefixes reject the unknown setting, searches run
+ * without them. As a vector may belong to many projects there is
+ * no project-local index: partitioning by project prunes the chunk rows, not the vector index, whose size and
+ * search cost follow all stored content. A search of a small project among large ones pays for this with the rows
+ * it skips.
+ * <p>
+ * Each search runs in its own transaction, which sets the index type's search parameter ({@code ivfflat.probes}
+ * or {@code hnsw.ef_search}) and iterative scan mode locally, so the recall/latency trade-off is fixed per
+ * deployment without leaking into other statements on the pooled connection.
+ * <p>
+ * Results are read with plain JDBC into {@link ScoredDocumentChunk} records: nothing of a read-only search needs a
+ * persistence context.
+ */
+@Repository
+@Slf4j
+@RequiredArgsConstructor
+class DocumentChunkSearchRepository {
+
+    private static final String HIT_COLUMNS =
+            "c.project_id, c.file_path_id, c.start_line, c.end_line, c.content_hash, c.file_checksum";
+    private static final String CANDIDATE_COLUMNS =
+            "project_id, file_path_id, start_line, end_line, content_hash, file_checksum";
+    private static final String LATEST_CHUNK_SQL = "SELECT d.project_id, d.file_path_id, d.start_line, d.end_line, " +
+            "d.content_hash, d.file_checksum FROM document_chunks d " +
+            "JOIN project_index_versions v ON v.project_id = d.project_id AND v.live_version = d.index_version " +
+            "WHERE d.content_hash = e.content_hash ORDER BY d.created_at DESC LIMIT 1";
+    private static final String LIVE_VERSION_SQL =
+            "(SELECT live_version FROM project_index_versions WHERE project_id = :projectId)";
+    // Path and content are only looked up for the final hits
+    private static final String RESULT_SQL =
+            "SELECT hits.project_id, p.file_path, hits.start_line, hits.end_line, t.content, hits.file_checksum, " +
+            "hits.distance FROM (%s) hits " +
+            "JOIN document_file_paths p ON p.id = hits.file_path_id " +
+            "JOIN chunk_contents t ON t.content_hash = hits.content_hash " +
+            "WHERE hits.distance <= :similarityThreshold " +
+            // Iterative scans in relaxed order may return the nearest rows slightly out of order
+            "ORDER BY hits.distance";
+
+    private static final String EXTENSION_VERSION_SQL = "SELECT extversion FROM pg_extension WHERE extname = 'vector'";
+
+    private static final RowMapper<ScoredDocumentChunk> ROW_MAPPER = (rs, rowNum) -> new ScoredDocumentChunk(
+            rs.getString(1), rs.getString(2), rs.getInt(3), rs.getInt(4), rs.getString(5), rs.getString(6), rs.getDouble(7));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final VectorIndexSettings indexSettings;
+
+    @Value("${app.vector.storage.mode:full}")
+    private VectorStorageMode storageMode = VectorStorageMode.FULL;
+
+    @Value("${app.vector.storage.rerank-factor:4}")
+    private int rerankFactor = 4;
+
+    // Looked up on the first search; the extension is only upgraded along with a restart of the application
+    private volatile Boolean iterativeScanSupported;
+
+    /**
+     * Finds the chunks closest to the query embedding by cosine distance, at most {@code similarityThreshold} away.
+     * Only vectors of {@code model} are compared, which must be the model the query was embedded with.
+     */
+    @Transactional(readOnly = true)
+    public List<ScoredDocumentChunk> findSimilarChunks(float[] queryEmbedding, float similarityThreshold, int limit, String projectId, String model) {
+        int indexRows = storageMode.isQuantized() ? limit * rerankFactor : limit;
+        VectorIndexType indexType = indexSettings.typeFor(storageMode);
+        setLocal(indexType.searchParameter(), String.valueOf(indexSettings.searchValue(indexType, indexRows)));
+        String iterativeScan = indexSettings.iterativeScan(indexType);
+        if (iterativeScan != null && iterativeScanSupported()) {
+            setLocal(indexType.iterativeScanParameter(), iterativeScan);
+        }
+
+        // The query vector's size selects the rows (and partial index) of the model it was embedded with
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("queryEmbedding", new PGvector(queryEmbedding))
+                .addValue("similarityThreshold", similarityThreshold)
+                .addValue("limit", limit)
+                .addValue("model", model);
+        if (projectId != null) {
+            parameters.addValue("projectId", projectId);
+        }
+        if (storageMode.isQuantized()) {
+            parameters.addValue("candidates", indexRows);
+        }
+        return jdbcTemplate.query(searchSql(storageMode, queryEmbedding.length, projectId != null), parameters, ROW_MAPPER);
+    }
+
+    private void setLocal(String name, String value) {
+        jdbcTemplate.queryForObject("SELECT set_config(:name, :value, true)",
+                new MapSqlParameterSource("name", name).addValue("value", value), String.class);
+    }
+
+    private boolean iterativeScanSupported() {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            String version = jdbcTemplate.queryForObject(EXTENSION_VERSION_SQL, new MapSqlParameterSource(), String.class);
+            supported = supportsIterativeScan(version);
+            if (!supported) {
+                log.warn("pgvector {} has no iterative index scans, searches may return fewer hits than requested", version);
+            }
+            iterativeScanSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Whether the pgvector version, e.g. {@code 0.7.4}, has iterative index scans, which were added in 0.8.0.
+     */
+    static boolean supportsIterativeScan(String version) {
+        String[] parts = version.split("\\.");
+        int major = Integer.parseInt(parts[0]);
+        int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        return major > 0 || minor >= 8;
+    }
+
+    static String searchSql(VectorStorageMode mode, int dimensions, boolean projectScoped) {
+        // One statement per case, as an "(:projectId IS NULL OR ...)" predicate would keep the planner from pruning partitions
+        String from = projectScoped
+                ? "FROM document_chunks c JOIN chunk_embeddings e ON e.content_hash = c.content_hash AND e.model = :model " +
+                  "WHERE vector_dims(embedding) = " + dimensions + " AND c.project_id = :projectId " +
+                  "AND c.index_version = " + LIVE_VERSION_SQL + " "
+                : "FROM chunk_embeddings e JOIN LATERAL (" + LATEST_CHUNK_SQL + ") c ON true " +
+                  "WHERE vector_dims(embedding) = " + dimensions + " AND e.model = :model ";
+        if (!mode.isQuantized()) {
+            String distance = String.format("(embedding::vector(%1$d)) <=> CAST(:queryEmbedding AS vector(%1$d))", dimensions);
+            return String.format(RESULT_SQL,
+                    "SELECT " + HIT_COLUMNS + ", " + distance + " AS distance " +
+                    from +
+                    "ORDER BY " + distance + " " +
+                    "LIMIT :limit");
+        }
+        return String.format(RESULT_SQL,
+                "SELECT " + CANDIDATE_COLUMNS + ", embedding <=> CAST(:queryEmbedding AS vector) AS distance FROM (" +
+                "SELECT " + HIT_COLUMNS + ", e.embedding " +
+                from +
+                "ORDER BY " + mode.candidateDistance(dimensions) + " " +
+                "LIMIT :candidates) candidates " +
+                "ORDER BY embedding <=> CAST(:queryEmbedding AS vector) " +
+                "LIMIT :limit");
+    }
+}
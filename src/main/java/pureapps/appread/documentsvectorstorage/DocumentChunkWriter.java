@@ -0,0 +1,312 @@
+package pureapps.appread.documentsvectorstorage;
+
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.unit.DataSize;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.vectorarena.VectorSlot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Writes embedded chunks straight from the ingestion pipeline with a binary {@code COPY}, without building
+ * a JPA entity or formatting a vector as text per chunk.
+ * <p>
+ * Text and vectors are content-addressed: they are staged in a temporary table and only inserted into
+ * {@code chunk_contents} and {@code chunk_embeddings} if that content is not stored yet. Every chunk then
+ * becomes a row of the project's {@code document_chunks} partition, in the index version being built, which
+ * references its content by hash and its file path by id; uuid and created_at take their column defaults.
+ * Several loads may share a transaction.
+ */
+@Repository
+@RequiredArgsConstructor
+class DocumentChunkWriter {
+
+    private static final String STAGING_TABLE_SQL = "CREATE TEMP TABLE IF NOT EXISTS chunk_staging " +
+            "(content_hash BYTEA NOT NULL, content TEXT NOT NULL, embedding vector NOT NULL) ON COMMIT DELETE ROWS";
+    private static final String STAGING_TRUNCATE_SQL = "TRUNCATE chunk_staging";
+    static final String STAGING_COPY_SQL = "COPY chunk_staging (content_hash, content, embedding) FROM STDIN (FORMAT BINARY)";
+    // In key order, so concurrent loads of overlapping content wait on each other's new keys instead of deadlocking
+    private static final String CONTENTS_INSERT_SQL = "INSERT INTO chunk_contents (content_hash, content) " +
+            "SELECT content_hash, content FROM chunk_staging ORDER BY content_hash ON CONFLICT DO NOTHING";
+    private static final String EMBEDDINGS_INSERT_SQL = "INSERT INTO chunk_embeddings (content_hash, model, embedding) " +
+            "SELECT content_hash, ?, embedding FROM chunk_staging ORDER BY content_hash ON CONFLICT DO NOTHING";
+    static final String CHUNKS_COPY_SQL = "COPY document_chunks " +
+            "(project_id, file_path_id, start_line, end_line, content_hash, file_checksum, index_version) " +
+            "FROM STDIN (FORMAT BINARY)";
+    // Locks the content and vector rows the chunks refer to, so a purge cannot collect them before the chunks commit
+    private static final String CONTENT_LOCK_SQL = "SELECT encode(t.content_hash, 'hex') FROM chunk_contents t " +
+            "JOIN chunk_embeddings e ON e.content_hash = t.content_hash AND e.model = ? " +
+            "WHERE t.content_hash IN (SELECT decode(unnest(?::text[]), 'hex')) FOR KEY SHARE";
+    private static final int STAGING_FIELD_COUNT = 3;
+    private static final int CHUNK_FIELD_COUNT = 7;
+    private static final String FILE_PATHS_INSERT_SQL = "INSERT INTO document_file_paths (project_id, file_path) " +
+            "SELECT ?, unnest(?::varchar[]) ON CONFLICT DO NOTHING";
+    private static final String FILE_PATHS_SELECT_SQL = "SELECT file_path, id FROM document_file_paths " +
+            "WHERE project_id = ? AND file_path = ANY (?::varchar[]) FOR KEY SHARE";
+    // Paths locked by a write in progress are skipped; their chunks are not visible yet
+    private static final String UNUSED_FILE_PATHS_SQL = "SELECT id FROM document_file_paths p WHERE NOT EXISTS " +
+            "(SELECT 1 FROM document_chunks c WHERE c.project_id = p.project_id AND c.file_path_id = p.id)";
+    private static final String PROJECT_UNUSED_FILE_PATHS_SQL = UNUSED_FILE_PATHS_SQL + " AND p.project_id = ?";
+    private static final String LOCK_SUFFIX = " FOR UPDATE SKIP LOCKED";
+    private static final String UNUSED_FILE_PATHS_DELETE_SQL = "DELETE FROM document_file_paths p WHERE p.id = ANY (?::bigint[]) " +
+            "AND NOT EXISTS (SELECT 1 FROM document_chunks c WHERE c.project_id = p.project_id AND c.file_path_id = p.id)";
+    private static final String UNUSED_CONTENTS_LOCK_SQL = "SELECT encode(t.content_hash, 'hex') FROM chunk_contents t " +
+            "WHERE t.content_hash IN (SELECT decode(unnest(?::text[]), 'hex')) " +
+            "AND NOT EXISTS (SELECT 1 FROM document_chunks c WHERE c.content_hash = t.content_hash)" + LOCK_SUFFIX;
+    private static final String UNUSED_EMBEDDINGS_DELETE_SQL = "DELETE FROM chunk_embeddings e " +
+            "WHERE e.content_hash IN (SELECT decode(unnest(?::text[]), 'hex')) " +
+            "AND NOT EXISTS (SELECT 1 FROM document_chunks c WHERE c.content_hash = e.content_hash)";
+    private static final String UNUSED_CONTENTS_DELETE_SQL = "DELETE FROM chunk_contents t " +
+            "WHERE t.content_hash IN (SELECT decode(unnest(?::text[]), 'hex')) " +
+            "AND NOT EXISTS (SELECT 1 FROM document_chunks c WHERE c.content_hash = t.content_hash)";
+    private static final int FILE_PATH_ATTEMPTS = 3;
+    private static final int CONTENT_ATTEMPTS = 3;
+    private static final String EMBEDDED_CONTENT_SQL = "SELECT encode(content_hash, 'hex') FROM chunk_embeddings " +
+            "WHERE model = ? AND content_hash = ANY (SELECT decode(unnest(?::text[]), 'hex'))";
+    private static final String EMBEDDING_INSERT_SQL = "INSERT INTO chunk_embeddings (content_hash, model, embedding) " +
+            "VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.persistence.copy-buffer-size:1MB}")
+    private DataSize copyBufferSize = DataSize.ofMegabytes(1);
+
+    /**
+     * Loads the chunks on the connection of the caller's transaction. Chunks without an embedding must refer to
+     * content that is already stored with a vector from {@code model}.
+     *
+     * @return the number of chunks written
+     */
+    long write(String projectId, int indexVersion, String model, List<DocumentChunkWithEmbedding> chunks) {
+        Map<String, Long> filePathIds = filePathIds(projectId, chunks);
+        List<byte[]> contentHashes = chunks.stream().map(chunk -> ContentHash.of(chunk.getContent())).toList();
+        Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            if (chunks.stream().anyMatch(DocumentChunkWithEmbedding::hasEmbedding)) {
+                stageNewContent(connection, copyManager, model, chunks, contentHashes);
+            }
+            lockContent(connection, model, chunks, contentHashes);
+            return copy(copyManager, CHUNKS_COPY_SQL, encoder -> {
+                for (int i = 0; i < chunks.size(); i++) {
+                    DocumentChunkWithEmbedding chunk = chunks.get(i);
+                    encodeChunk(encoder, projectId, indexVersion, filePathIds.get(chunk.getFilePath()), contentHashes.get(i), chunk);
+                }
+            });
+        });
+        return rows != null ? rows : 0;
+    }
+
+    private void stageNewContent(Connection connection, CopyManager copyManager, String model,
+                                 List<DocumentChunkWithEmbedding> chunks, List<byte[]> contentHashes) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(STAGING_TABLE_SQL);
+            // A group commit writes several loads in one transaction; each stages only its own content
+            statement.execute(STAGING_TRUNCATE_SQL);
+        }
+        copy(copyManager, STAGING_COPY_SQL, encoder -> {
+            Set<String> staged = new HashSet<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                DocumentChunkWithEmbedding chunk = chunks.get(i);
+                if (chunk.hasEmbedding() && staged.add(HexFormat.of().formatHex(contentHashes.get(i)))) {
+                    encodeStaged(encoder, contentHashes.get(i), chunk);
+                }
+            }
+        });
+        insertStagedContent(connection, model);
+    }
+
+    private void insertStagedContent(Connection connection, String model) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CONTENTS_INSERT_SQL);
+        }
+        try (PreparedStatement statement = connection.prepareStatement(EMBEDDINGS_INSERT_SQL)) {
+            statement.setString(1, model);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Key-share locks the content and vector rows of all chunks until the transaction ends. Content a concurrent
+     * purge collected after the inserts found it stored is inserted again from the staging table; content the
+     * chunks reuse without an embedding of their own cannot be restored, and fails the write.
+     */
+    private void lockContent(Connection connection, String model, List<DocumentChunkWithEmbedding> chunks,
+                             List<byte[]> contentHashes) throws SQLException {
+        Set<String> missing = new HashSet<>();
+        Set<String> restorable = new HashSet<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String hash = HexFormat.of().formatHex(contentHashes.get(i));
+            missing.add(hash);
+            if (chunks.get(i).hasEmbedding()) {
+                restorable.add(hash);
+            }
+        }
+        for (int attempt = 0; attempt < CONTENT_ATTEMPTS && !missing.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                if (!restorable.containsAll(missing)) {
+                    break;
+                }
+                insertStagedContent(connection, model);
+            }
+            try (PreparedStatement statement = connection.prepareStatement(CONTENT_LOCK_SQL)) {
+                statement.setString(1, model);
+                statement.setArray(2, connection.createArrayOf("text", missing.toArray()));
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        missing.remove(rs.getString(1));
+                    }
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException(missing.size() + " stored contents were deleted while chunks referring to them were written");
+        }
+    }
+
+    private long copy(CopyManager copyManager, String sql, RowEncoder rows) throws SQLException {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        try {
+            BinaryCopyEncoder encoder = new BinaryCopyEncoder(copyIn, (int) copyBufferSize.toBytes());
+            rows.encode(encoder);
+            return encoder.finish();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Adds the chunks' file paths to the project's path dictionary and returns the ids of all of them. The path
+     * rows stay key-share locked until the transaction ends, so {@link #deleteUnusedFilePaths} cannot delete them
+     * before the chunks referring to them are committed. A path that it deleted between the insert and the lock
+     * is inserted again.
+     */
+    private Map<String, Long> filePathIds(String projectId, List<DocumentChunkWithEmbedding> chunks) {
+        String[] filePaths = chunks.stream().map(DocumentChunkWithEmbedding::getFilePath).distinct().toArray(String[]::new);
+        Map<String, Long> ids = new HashMap<>();
+        for (int attempt = 0; attempt < FILE_PATH_ATTEMPTS && filePaths.length > 0; attempt++) {
+            jdbcTemplate.update(FILE_PATHS_INSERT_SQL, projectId, filePaths);
+            jdbcTemplate.query(FILE_PATHS_SELECT_SQL, (RowCallbackHandler) rs -> ids.put(rs.getString(1), rs.getLong(2)), projectId, filePaths);
+            filePaths = Arrays.stream(filePaths).filter(filePath -> !ids.containsKey(filePath)).toArray(String[]::new);
+        }
+        if (filePaths.length > 0) {
+            throw new IllegalStateException("File paths of project " + projectId + " were deleted while being written: " + Arrays.toString(filePaths));
+        }
+        return ids;
+    }
+
+    /**
+     * Deletes the path dictionary entries no chunk refers to anymore, of the project or, if null, of all projects.
+     * Candidates are locked first and checked again by the delete, which sees every write committed up to then;
+     * paths a write in progress holds are left to a later run.
+     *
+     * @return the number of paths deleted
+     */
+    int deleteUnusedFilePaths(String projectId) {
+        List<Long> unused = projectId != null
+                ? jdbcTemplate.queryForList(PROJECT_UNUSED_FILE_PATHS_SQL + LOCK_SUFFIX, Long.class, projectId)
+                : jdbcTemplate.queryForList(UNUSED_FILE_PATHS_SQL + LOCK_SUFFIX, Long.class);
+        return unused.isEmpty() ? 0 : jdbcTemplate.update(UNUSED_FILE_PATHS_DELETE_SQL, (Object) unused.toArray(Long[]::new));
+    }
+
+    /**
+     * Deletes the contents and vectors, out of the given hex content hashes, that no chunk refers to anymore.
+     * Like {@link #deleteUnusedFilePaths}, it first locks the unused contents, skipping those a write holds
+     * key-share locked until its chunks commit, and checks them again in the deletes, whose snapshot includes
+     * chunks committed while it waited. A write that locks the content after it is deleted finds it missing and
+     * handles it as {@code lockContent} does.
+     */
+    void deleteUnusedContent(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return;
+        }
+        List<String> unused = jdbcTemplate.queryForList(UNUSED_CONTENTS_LOCK_SQL, String.class,
+                (Object) contentHashes.toArray(String[]::new));
+        if (unused.isEmpty()) {
+            return;
+        }
+        String[] hashes = unused.toArray(String[]::new);
+        jdbcTemplate.update(UNUSED_EMBEDDINGS_DELETE_SQL, (Object) hashes);
+        jdbcTemplate.update(UNUSED_CONTENTS_DELETE_SQL, (Object) hashes);
+    }
+
+    /**
+     * Hex content hashes, out of {@code contentHashes}, of the content that is already stored with a vector from {@code model}.
+     */
+    Set<String> findEmbeddedContent(String model, List<String> contentHashes) {
+        return new HashSet<>(jdbcTemplate.queryForList(EMBEDDED_CONTENT_SQL, String.class, model, contentHashes.toArray(String[]::new)));
+    }
+
+    /**
+     * Stores vectors of a re-embedding migration batch, as one JDBC batch. Content that meanwhile got a vector
+     * from the same model keeps it.
+     */
+    void writeEmbeddings(String model, List<byte[]> contentHashes, List<float[]> embeddings) {
+        jdbcTemplate.batchUpdate(EMBEDDING_INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setBytes(1, contentHashes.get(i));
+                ps.setString(2, model);
+                ps.setObject(3, new PGvector(embeddings.get(i)));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return contentHashes.size();
+            }
+        });
+    }
+
+    static void encodeStaged(BinaryCopyEncoder encoder, byte[] contentHash, DocumentChunkWithEmbedding chunk) throws SQLException {
+        encoder.startRow(STAGING_FIELD_COUNT);
+        encoder.bytea(contentHash);
+        encoder.text(chunk.getContent());
+        Optional<VectorSlot> slot = chunk.getEmbeddingSlot();
+        if (slot.isPresent()) {
+            encoder.vector(slot.get());
+        } else {
+            encoder.vector(chunk.getEmbedding());
+        }
+    }
+
+    static void encodeChunk(BinaryCopyEncoder encoder, String projectId, int indexVersion, long filePathId,
+                            byte[] contentHash, DocumentChunkWithEmbedding chunk) throws SQLException {
+        encoder.startRow(CHUNK_FIELD_COUNT);
+        encoder.text(projectId);
+        encoder.int8(filePathId);
+        encoder.int4(chunk.getStartLine());
+        encoder.int4(chunk.getEndLine());
+        encoder.bytea(contentHash);
+        encoder.text(chunk.getFileChecksum());
+        encoder.int4(indexVersion);
+    }
+
+    @FunctionalInterface
+    private interface RowEncoder {
+        void encode(BinaryCopyEncoder encoder) throws SQLException;
+    }
+}
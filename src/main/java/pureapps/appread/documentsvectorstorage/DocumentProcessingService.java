@@ -144,12 +144,7 @@ class DocumentProcessingService {
                 path, checksum, chunkSize, overlapPercentage, overlapSize);
 
         if (totalLines <= chunkSize) {
-            DocumentChunk chunk = new DocumentChunk();
-            chunk.setContent(content);
-            chunk.setFilePath(path);
-            chunk.setStartLine(1);
-            chunk.setEndLine(totalLines);
-            chunk.setFileChecksum(checksum);
+            DocumentChunk chunk = new DocumentChunk(content, path, 1, totalLines, checksum);
             chunks.add(chunk);
             return chunks;
         }
@@ -166,12 +161,7 @@ class DocumentProcessingService {
                 chunkContent.append(lines[j]).append("\n");
             }
 
-            DocumentChunk chunk = new DocumentChunk();
-            chunk.setContent(chunkContent.toString());
-            chunk.setFilePath(path);
-            chunk.setStartLine(i + 1);
-            chunk.setEndLine(end);
-            chunk.setFileChecksum(checksum);
+            DocumentChunk chunk = new DocumentChunk(chunkContent.toString(), path, i + 1, end, checksum);
 
             chunks.add(chunk);
 
@@ -206,11 +196,7 @@ class DocumentProcessingService {
                 path, chunkSize, overlapPercentage, overlapSize);
 
         if (totalLines <= chunkSize) {
-            DocumentChunk chunk = new DocumentChunk();
-            chunk.setContent(content);
-            chunk.setFilePath(path);
-            chunk.setStartLine(1);
-            chunk.setEndLine(totalLines);
+            DocumentChunk chunk = new DocumentChunk(content, path, 1, totalLines, null);
             chunks.add(chunk);
             return chunks;
         }
@@ -227,11 +213,7 @@ class DocumentProcessingService {
                 chunkContent.append(lines[j]).append("\n");
             }
 
-            DocumentChunk chunk = new DocumentChunk();
-            chunk.setContent(chunkContent.toString());
-            chunk.setFilePath(path);
-            chunk.setStartLine(i + 1);
-            chunk.setEndLine(end);
+            DocumentChunk chunk = new DocumentChunk(chunkContent.toString(), path, i + 1, end, null);
 
             chunks.add(chunk);
 
@@ -1,27 +1,47 @@
 package pureapps.appread.documentsvectorstorage;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.documentsvectorstorage.dto.ScoredDocumentChunk;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 @RequiredArgsConstructor
 public class DocumentVectorStorage {
 
     private final PersistenceService persistenceService;
+    private final ChunkBatchWriter chunkBatchWriter;
     private final DocumentProcessingService documentProcessingService;
     private final EmbeddingService embeddingService;
     private final FileChecksumService fileChecksumService;
+    private final VectorIndexManager vectorIndexManager;
+    private final ProjectPartitionManager partitionManager;
+    private final IndexVersionCollector indexVersionCollector;
+    private final ProjectLifecycleService projectLifecycleService;
 
     @Value("${app.document.search.similarity-threshold:0.7}")
     private float similarityThreshold;
 
 
+    /**
+     * Embeds and persists all chunks of the project, as a new index version that replaces the live one once it is
+     * complete. The returned chunks carry their vectors on the heap, also with the off-heap arena enabled; chunks
+     * whose content was already embedded reuse the stored vector and have none.
+     */
     public List<DocumentChunkWithEmbedding> generateEmbeddingsAndPersist(Path projectPath, String projectId) {
         try {
             List<DocumentChunk> chunks = documentProcessingService.processProjectToChunks(projectPath);
@@ -30,10 +50,16 @@ public class DocumentVectorStorage {
                 return List.of();
             }
 
-            List<DocumentChunkWithEmbedding> chunksWithEmbeddings = embeddingService.generateEmbeddings(chunks);
-            saveDocumentChunks(projectId, chunksWithEmbeddings);
+            projectLifecycleService.registerProject(projectId);
+            String model = persistenceService.resolveEmbeddingModel(projectId);
+            int indexVersion = persistenceService.startIndexVersion(projectId);
+            EmbeddingResult embeddingResult = embedNewContent(model, chunks);
+            List<DocumentChunkWithEmbedding> persisted = saveDocumentChunks(projectId, embeddingResult.getEmbeddedChunks(), true,
+                    embedded -> chunkBatchWriter.write(projectId, indexVersion, model, embedded));
+            persistenceService.saveDeadLetters(projectId, embeddingResult.getFailedChunks());
+            swapIndexVersion(projectId, indexVersion, null);
 
-            return chunksWithEmbeddings;
+            return persisted;
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate embeddings and persist for project: " + projectPath, e);
         }
@@ -41,74 +67,243 @@ public class DocumentVectorStorage {
 
     /**
      * Generate embeddings and persist with checksum-based change detection.
-     * Only processes new or modified files, skips unchanged files.
+     * Only processes new or modified files, skips unchanged files. The chunks are written into a new index version,
+     * which takes over the unchanged files' chunks when it is swapped in; until then searches see the previous
+     * version in full. A file's checksum is only recorded once all of its chunks were persisted, so a file with
+     * chunks in the dead-letter table is rebuilt by the next ingestion instead of being skipped as unchanged.
      */
     public ProcessingResult generateEmbeddingsAndPersistWithChecksumCheck(Path projectPath, String projectId) {
         try {
+            projectLifecycleService.registerProject(projectId);
             ProcessingResult processingResult = documentProcessingService.processProjectToChunksWithChecksumCheck(projectPath, projectId);
 
             if (!processingResult.hasChanges()) {
                 return processingResult;
             }
 
-            // Handle modified files - delete old chunks first
-            for (String modifiedFile : processingResult.getModifiedFiles()) {
-                persistenceService.deleteChunksForFile(projectId, modifiedFile);
-            }
+            List<String> rebuiltFiles = new ArrayList<>(processingResult.getNewFiles());
+            rebuiltFiles.addAll(processingResult.getModifiedFiles());
+            // New and modified files are rebuilt from their current content, including files whose chunks failed before
+            persistenceService.deleteDeadLettersForFiles(projectId, rebuiltFiles);
+            int indexVersion = persistenceService.startIndexVersion(projectId);
 
             // Generate embeddings for new and modified files
+            Set<String> incompleteFiles = Set.of();
             if (!processingResult.getNewChunks().isEmpty()) {
-                List<DocumentChunkWithEmbedding> chunksWithEmbeddings = embeddingService.generateEmbeddings(processingResult.getNewChunks());
-                saveDocumentChunks(projectId, chunksWithEmbeddings);
-
-                // Update file metadata for all processed files
-                updateFileMetadata(projectPath, projectId, processingResult);
+                String model = persistenceService.resolveEmbeddingModel(projectId);
+                EmbeddingResult embeddingResult = embedNewContent(model, processingResult.getNewChunks());
+                saveEmbeddingResult(projectId, indexVersion, model, embeddingResult);
+                incompleteFiles = embeddingResult.getFailedChunks().stream()
+                        .map(failed -> failed.chunk().getFilePath())
+                        .collect(Collectors.toSet());
             }
 
+            swapIndexVersion(projectId, indexVersion, rebuiltFiles);
+
+            // Update file metadata for the processed files whose chunks were all persisted
+            updateFileMetadata(projectPath, projectId, processingResult, incompleteFiles);
+
             return processingResult;
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate embeddings and persist with checksum check for project: " + projectPath, e);
         }
     }
 
-    private void updateFileMetadata(Path projectPath, String projectId, ProcessingResult processingResult) {
+    private void updateFileMetadata(Path projectPath, String projectId, ProcessingResult processingResult, Set<String> incompleteFiles) {
         try {
             // Update metadata for new files
             for (String newFile : processingResult.getNewFiles()) {
+                if (incompleteFiles.contains(newFile)) {
+                    continue;
+                }
                 Path filePath = projectPath.resolve(newFile);
                 fileChecksumService.saveFileMetadata(projectId, newFile, filePath);
             }
 
             // Update metadata for modified files
             for (String modifiedFile : processingResult.getModifiedFiles()) {
+                if (incompleteFiles.contains(modifiedFile)) {
+                    continue;
+                }
                 Path filePath = projectPath.resolve(modifiedFile);
                 fileChecksumService.saveFileMetadata(projectId, modifiedFile, filePath);
             }
+            if (!incompleteFiles.isEmpty()) {
+                log.warn("Checksums of {} files with chunks in the dead-letter table are not recorded, they are rebuilt by the next ingestion", incompleteFiles.size());
+            }
         } catch (Exception e) {
             throw new RuntimeException("Failed to update file metadata", e);
         }
     }
 
     public List<DocumentChunk> getDocumentChunksFromProject(String projectId, String messageQuery, int limit) {
-
-        return getDocumentChunksFromProject(projectId, embeddingService.generateEmbedding(messageQuery), limit);
+        return toDocumentChunks(searchDocumentChunks(projectId, messageQuery, limit));
     }
 
 
     public List<DocumentChunk> getDocumentChunksFromProject(String projectId, float[] queryEmbedding, int limit) {
-        try {
-            List<DocumentChunkEntity> similarEntities = persistenceService.findSimilarChunkEntities(queryEmbedding, similarityThreshold, limit, projectId);
-            return similarEntities.stream()
-                    .map(DocumentChunkMapper::toDTO)
-                    .toList();
+        return toDocumentChunks(searchDocumentChunks(projectId, queryEmbedding, limit));
+    }
+
+    /**
+     * Like {@link #getDocumentChunksFromProject(String, String, int)}, keeping each chunk's distance to the query.
+     */
+    public List<ScoredDocumentChunk> searchDocumentChunks(String projectId, String messageQuery, int limit) {
+        // A project that is being re-embedded is searched with the model of its current vectors until it flips
+        String model = projectId != null ? persistenceService.findEmbeddingModel(projectId) : null;
+        float[] queryEmbedding = model != null
+                ? embeddingService.generateEmbedding(messageQuery, model)
+                : embeddingService.generateEmbedding(messageQuery);
+        return searchDocumentChunks(projectId, queryEmbedding, limit);
+    }
 
+    public List<ScoredDocumentChunk> searchDocumentChunks(String projectId, float[] queryEmbedding, int limit) {
+        if (projectId != null) {
+            projectLifecycleService.recordAccess(projectId);
+        }
+        try {
+            return persistenceService.findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId);
         } catch (Exception e) {
             throw new RuntimeException("Failed to get document chunks for project: " + projectId, e);
+        }
+    }
+
+    private static List<DocumentChunk> toDocumentChunks(List<ScoredDocumentChunk> scoredChunks) {
+        return scoredChunks.stream()
+                .map(ScoredDocumentChunk::toDocumentChunk)
+                .toList();
+    }
+
+    /**
+     * Deletes the project: it is gone from searches when this returns, and its chunks, file metadata and the
+     * content only it contained are deleted in the background, in small batches.
+     *
+     * @return false if the project is already being deleted
+     */
+    public boolean deleteProject(String projectId) {
+        try {
+            return projectLifecycleService.purge(projectId);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete project: " + projectId, e);
+        }
+    }
+
+    /**
+     * Re-embeds chunks that previously failed for the project. Chunks that succeed are added to the live index
+     * version and removed from the dead-letter table; the rest stay there with their attempt count increased.
+     *
+     * @return the number of chunks that were embedded and persisted
+     */
+    public int replayDeadLetters(String projectId) {
+        try {
+            List<EmbeddingDeadLetterEntity> deadLetters = persistenceService.findDeadLetters(projectId);
+            if (deadLetters.isEmpty()) {
+                return 0;
+            }
+
+            Map<DocumentChunk, EmbeddingDeadLetterEntity> deadLettersByChunk = new IdentityHashMap<>();
+            for (EmbeddingDeadLetterEntity deadLetter : deadLetters) {
+                deadLettersByChunk.put(DocumentChunkMapper.toDTO(deadLetter), deadLetter);
+            }
+
+            if (persistenceService.findLiveIndexVersion(projectId) == 0) {
+                log.info("Project {} has no live index version yet, its dead letters are replayed after the next build", projectId);
+                return 0;
+            }
+            String model = persistenceService.resolveEmbeddingModel(projectId);
+            EmbeddingResult embeddingResult = embedNewContent(model, new ArrayList<>(deadLettersByChunk.keySet()));
+            // Written under the pointer lock, so a concurrent swap carries these chunks over rather than leaving them behind
+            saveDocumentChunks(projectId, embeddingResult.getEmbeddedChunks(), false,
+                    embedded -> persistenceService.saveChunksToLiveVersion(projectId, model, embedded));
+
+            List<EmbeddingDeadLetterEntity> stillFailing = new ArrayList<>();
+            for (EmbeddingResult.FailedChunk failed : embeddingResult.getFailedChunks()) {
+                EmbeddingDeadLetterEntity deadLetter = deadLettersByChunk.remove(failed.chunk());
+                deadLetter.recordFailedAttempt(failed.errorMessage());
+                stillFailing.add(deadLetter);
+            }
+            persistenceService.saveDeadLetterAttempts(stillFailing);
+            persistenceService.deleteDeadLetters(new ArrayList<>(deadLettersByChunk.values()));
+
+            return embeddingResult.getEmbeddedChunks().size();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to replay dead letters for project: " + projectId, e);
+        }
+    }
+
+    /**
+     * Embeds only the chunks whose content has no vector from the model yet, in any project; the others
+     * are returned as embedded chunks without a vector, which reuse the stored one.
+     */
+    private EmbeddingResult embedNewContent(String model, List<DocumentChunk> chunks) {
+        Set<String> embeddedContent = persistenceService.findEmbeddedContent(model, chunks);
+        if (embeddedContent.isEmpty()) {
+            return embeddingService.generateEmbeddings(chunks, model);
+        }
+        List<DocumentChunkWithEmbedding> known = new ArrayList<>();
+        List<DocumentChunk> toEmbed = new ArrayList<>();
+        for (DocumentChunk chunk : chunks) {
+            if (embeddedContent.contains(ContentHash.hex(chunk.getContent()))) {
+                known.add(new DocumentChunkWithEmbedding(chunk));
+            } else {
+                toEmbed.add(chunk);
             }
         }
+        log.info("Reusing stored embeddings for {} of {} chunks", known.size(), chunks.size());
+        EmbeddingResult embedded = toEmbed.isEmpty()
+                ? new EmbeddingResult(List.of(), List.of())
+                : embeddingService.generateEmbeddings(toEmbed, model);
+        return EmbeddingResult.merge(List.of(new EmbeddingResult(known, List.of()), embedded));
+    }
+
+    /**
+     * Persists whatever was embedded, even if some chunks failed, and parks the failures for later replay.
+     */
+    private void saveEmbeddingResult(String projectId, int indexVersion, String model, EmbeddingResult embeddingResult) {
+        saveDocumentChunks(projectId, embeddingResult.getEmbeddedChunks(), false,
+                embedded -> chunkBatchWriter.write(projectId, indexVersion, model, embedded));
+        persistenceService.saveDeadLetters(projectId, embeddingResult.getFailedChunks());
+    }
 
-    private void saveDocumentChunks(String projectId, List<DocumentChunkWithEmbedding> chunksWithEmbeddings) {
-        persistenceService.saveChunks(projectId, chunksWithEmbeddings);
+    /**
+     * Makes the built version live, and has the version it replaced - or the build itself, if a newer build was
+     * swapped in first - deleted in the background.
+     */
+    private void swapIndexVersion(String projectId, int indexVersion, Collection<String> rebuiltFiles) {
+        persistenceService.swapIndexVersion(projectId, indexVersion, rebuiltFiles);
+        indexVersionCollector.collectLater(projectId);
+    }
+
+    /**
+     * Writes into the project's own partition, created on its first load, and loads of many new vectors are written
+     * with index maintenance deferred. This returns once the {@code writer} has committed the rows, e.g. with the
+     * next group commit. Off-heap vectors are recycled once their rows are written - or failed to be written, as nothing
+     * retries them - unless {@code keepEmbeddings} asks for copies with them on the heap for the caller.
+     *
+     * @return the chunks as persisted, or their copies with the embeddings on the heap if {@code keepEmbeddings}
+     */
+    private List<DocumentChunkWithEmbedding> saveDocumentChunks(String projectId, List<DocumentChunkWithEmbedding> chunksWithEmbeddings,
+                                                                boolean keepEmbeddings, Consumer<List<DocumentChunkWithEmbedding>> writer) {
+        try {
+            partitionManager.ensurePartitions(projectId);
+            int newVectors = (int) chunksWithEmbeddings.stream().filter(DocumentChunkWithEmbedding::hasEmbedding).count();
+            boolean indexDeferred = vectorIndexManager.beforeBulkLoad(newVectors);
+            try {
+                writer.accept(chunksWithEmbeddings);
+            } catch (RuntimeException e) {
+                // The partitions may have been dropped by another instance since this one created them
+                partitionManager.forgetPartitions(projectId);
+                throw e;
+            } finally {
+                vectorIndexManager.afterBulkLoad(indexDeferred);
+            }
+            return keepEmbeddings
+                    ? chunksWithEmbeddings.stream().map(DocumentChunkWithEmbedding::withEmbeddingOnHeap).toList()
+                    : chunksWithEmbeddings;
+        } finally {
+            // No-op for the chunks whose embeddings were copied onto the heap
+            chunksWithEmbeddings.forEach(DocumentChunkWithEmbedding::releaseEmbedding);
+        }
     }
 
 }
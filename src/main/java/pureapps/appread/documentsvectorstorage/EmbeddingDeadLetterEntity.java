@@ -0,0 +1,81 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * A chunk whose embedding failed permanently. Kept so it can be replayed later
+ * instead of re-embedding the whole repository.
+ */
+@Entity
+@Table(name = "embedding_dead_letters", indexes = {
+        @Index(name = "embedding_dead_letters_project_id_idx", columnList = "project_id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+class EmbeddingDeadLetterEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(updatable = false, nullable = false)
+    private UUID uuid;
+
+    @Column(name = "project_id", nullable = false)
+    private String projectId;
+
+    @Column(name = "file_path", nullable = false, length = 1024)
+    private String filePath;
+
+    @Column(name = "start_line", nullable = false)
+    private int startLine;
+
+    @Column(name = "end_line", nullable = false)
+    private int endLine;
+
+    @Column(name = "content", nullable = false, columnDefinition = "TEXT")
+    private String content;
+
+    @Column(name = "file_checksum", length = 64)
+    private String fileChecksum;
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "created_at", columnDefinition = "TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP")
+    private OffsetDateTime createdAt;
+
+    @Column(name = "last_attempt_at", columnDefinition = "TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP")
+    private OffsetDateTime lastAttemptAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = OffsetDateTime.now();
+        lastAttemptAt = createdAt;
+    }
+
+    public EmbeddingDeadLetterEntity(String projectId, String filePath, int startLine, int endLine, String content, String fileChecksum, String errorMessage) {
+        this.projectId = projectId;
+        this.filePath = filePath;
+        this.startLine = startLine;
+        this.endLine = endLine;
+        this.content = content;
+        this.fileChecksum = fileChecksum;
+        this.errorMessage = errorMessage;
+        this.attempts = 1;
+    }
+
+    public void recordFailedAttempt(String errorMessage) {
+        this.errorMessage = errorMessage;
+        this.attempts++;
+        this.lastAttemptAt = OffsetDateTime.now();
+    }
+}
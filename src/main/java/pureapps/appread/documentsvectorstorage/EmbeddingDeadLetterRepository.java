@@ -0,0 +1,23 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+interface EmbeddingDeadLetterRepository extends JpaRepository<EmbeddingDeadLetterEntity, UUID> {
+
+    List<EmbeddingDeadLetterEntity> findByProjectId(String projectId);
+
+    @Modifying
+    int deleteByProjectId(String projectId);
+
+    @Modifying
+    @Query("DELETE FROM EmbeddingDeadLetterEntity dl WHERE dl.projectId = :projectId AND dl.filePath = :filePath")
+    int deleteByProjectIdAndFilePath(@Param("projectId") String projectId, @Param("filePath") String filePath);
+}
@@ -0,0 +1,77 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Checkpoint of a project's re-embedding with a new model. Chunks are migrated in uuid order,
+ * so {@code lastChunkUuid} is where a restarted migration picks up.
+ */
+@Entity
+@Table(name = "embedding_migrations")
+@Getter
+@Setter
+@NoArgsConstructor
+class EmbeddingMigrationEntity {
+
+    enum Status {
+        RUNNING, INCOMPLETE, COMPLETED
+    }
+
+    static final UUID START = new UUID(0, 0);
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(updatable = false, nullable = false)
+    private UUID uuid;
+
+    @Column(name = "project_id", nullable = false)
+    private String projectId;
+
+    @Column(name = "target_model", nullable = false)
+    private String targetModel;
+
+    @Column(name = "last_chunk_uuid")
+    private UUID lastChunkUuid;
+
+    @Column(name = "migrated_chunks", nullable = false)
+    private int migratedChunks;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 32)
+    private Status status;
+
+    @Column(name = "started_at", columnDefinition = "TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP")
+    private OffsetDateTime startedAt;
+
+    @Column(name = "updated_at", columnDefinition = "TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP")
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        startedAt = OffsetDateTime.now();
+        updatedAt = startedAt;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = OffsetDateTime.now();
+    }
+
+    public EmbeddingMigrationEntity(String projectId, String targetModel) {
+        this.projectId = projectId;
+        this.targetModel = targetModel;
+        this.lastChunkUuid = START;
+        this.status = Status.RUNNING;
+    }
+
+    public void recordBatch(UUID lastChunkUuid, int migrated) {
+        this.lastChunkUuid = lastChunkUuid;
+        this.migratedChunks += migrated;
+    }
+}
@@ -0,0 +1,13 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+interface EmbeddingMigrationRepository extends JpaRepository<EmbeddingMigrationEntity, UUID> {
+
+    Optional<EmbeddingMigrationEntity> findByProjectIdAndTargetModel(String projectId, String targetModel);
+}
@@ -0,0 +1,183 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Re-embeds stored chunks with the configured embedding model in the background, without taking search down.
+ * <p>
+ * For each project still on another model, chunks are embedded in uuid order, at most
+ * {@code max-inputs-per-minute} and in the limiter's bulk lane, with a checkpoint after every batch. Their vectors
+ * are stored next to the previous model's, and content already embedded for another project is skipped. A final
+ * sweep picks up chunks that failed or were added behind the checkpoint. Once every chunk has a new vector,
+ * the project flips to them in one transaction; until then its searches keep using the previous model.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+class EmbeddingMigrationService {
+
+    private final PersistenceService persistenceService;
+    private final EmbeddingService embeddingService;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.embedding.migration.enabled:false}")
+    private boolean enabled;
+
+    @Value("${spring.ai.openai.embedding.options.model:}")
+    private String targetModel = "";
+
+    @Value("${app.embedding.dimensions:1536}")
+    private int dimensions = 1536;
+
+    @Value("${app.embedding.migration.batch-size:64}")
+    private int batchSize = 64;
+
+    @Value("${app.embedding.migration.max-inputs-per-minute:3000}")
+    private int maxInputsPerMinute = 3000;
+
+    private long nextBatchAt = System.nanoTime();
+
+    @EventListener(ApplicationReadyEvent.class)
+    void startIfEnabled() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    /**
+     * Starts migrating all projects in the background, unless a migration is already running.
+     */
+    boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread.ofVirtual().name("embedding-migration").start(() -> {
+            try {
+                migrateAll();
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    void migrateAll() {
+        List<String> projectIds = persistenceService.findProjectsToMigrate(targetModel);
+        log.info("Re-embedding {} projects with model {}", projectIds.size(), targetModel);
+        for (String projectId : projectIds) {
+            try {
+                migrateProject(projectId);
+            } catch (Exception e) {
+                log.error("Error re-embedding project {}: {}", projectId, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return whether the project was flipped to the target model
+     */
+    boolean migrateProject(String projectId) {
+        EmbeddingMigrationEntity migration = persistenceService.startMigration(projectId, targetModel);
+        log.info("Re-embedding project {} with model {} from checkpoint {}", projectId, targetModel, migration.getLastChunkUuid());
+
+        UUID cursor = migration.getLastChunkUuid();
+        boolean sweep = false;
+        int failedInSweep = 0;
+        while (true) {
+            List<DocumentChunkEntity> batch = persistenceService.findChunksToMigrate(migration, cursor, batchSize);
+            if (batch.isEmpty()) {
+                if (sweep) {
+                    break;
+                }
+                sweep = true;
+                cursor = EmbeddingMigrationEntity.START;
+                continue;
+            }
+
+            throttle(batch.size());
+            BatchResult result = embed(batch);
+            cursor = batch.getLast().getUuid();
+            migration = persistenceService.saveMigrationBatch(migration, result.contentHashes(), result.embeddings(), cursor);
+            if (sweep) {
+                failedInSweep += result.failed();
+            }
+        }
+
+        if (failedInSweep > 0) {
+            log.warn("{} chunks of project {} could not be re-embedded, it stays on its current model until the next run",
+                    failedInSweep, projectId);
+            migration.setStatus(EmbeddingMigrationEntity.Status.INCOMPLETE);
+            persistenceService.saveMigration(migration);
+            return false;
+        }
+
+        persistenceService.completeMigration(migration, dimensions);
+        return true;
+    }
+
+    private BatchResult embed(List<DocumentChunkEntity> batch) {
+        List<DocumentChunk> chunks = batch.stream().map(DocumentChunkMapper::toDTO).toList();
+        EmbeddingResult embeddingResult = embeddingService.generateEmbeddings(chunks);
+
+        Set<DocumentChunk> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        embeddingResult.getFailedChunks().forEach(failedChunk -> failed.add(failedChunk.chunk()));
+
+        try {
+            // Embedded chunks come back in input order, minus the failed ones
+            Iterator<DocumentChunkWithEmbedding> embedded = embeddingResult.getEmbeddedChunks().iterator();
+            List<byte[]> contentHashes = new ArrayList<>();
+            List<float[]> embeddings = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                if (failed.contains(chunks.get(i))) {
+                    continue;
+                }
+                float[] embedding = embedded.next().getEmbedding();
+                if (embedding.length != dimensions) {
+                    throw new IllegalStateException("Model " + targetModel + " returned " + embedding.length + " dimensions, expected " + dimensions);
+                }
+                contentHashes.add(ContentHash.of(batch.get(i).getContent()));
+                embeddings.add(embedding);
+            }
+            return new BatchResult(contentHashes, embeddings, failed.size());
+        } finally {
+            embeddingResult.getEmbeddedChunks().forEach(DocumentChunkWithEmbedding::releaseEmbedding);
+        }
+    }
+
+    /**
+     * Spaces batches so the migration stays within its share of the provider quota.
+     */
+    private void throttle(int inputs) {
+        long now = System.nanoTime();
+        long waitNanos = nextBatchAt - now;
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while throttling embedding migration", e);
+            }
+        }
+        nextBatchAt = Math.max(now, nextBatchAt) + inputs * (TimeUnit.MINUTES.toNanos(1) / maxInputsPerMinute);
+    }
+
+    private record BatchResult(List<byte[]> contentHashes, List<float[]> embeddings, int failed) {
+    }
+}
@@ -0,0 +1,37 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of embedding a set of chunks: the chunks that were embedded and the ones that
+ * failed permanently after retries, so a single bad chunk does not discard the whole run.
+ */
+@Getter
+@AllArgsConstructor
+class EmbeddingResult {
+    private final List<DocumentChunkWithEmbedding> embeddedChunks;
+    private final List<FailedChunk> failedChunks;
+
+    public boolean hasFailures() {
+        return !failedChunks.isEmpty();
+    }
+
+    static EmbeddingResult merge(List<EmbeddingResult> results) {
+        List<DocumentChunkWithEmbedding> embedded = new ArrayList<>();
+        List<FailedChunk> failed = new ArrayList<>();
+        for (EmbeddingResult result : results) {
+            embedded.addAll(result.getEmbeddedChunks());
+            failed.addAll(result.getFailedChunks());
+        }
+        return new EmbeddingResult(embedded, failed);
+    }
+
+    record FailedChunk(DocumentChunk chunk, String errorMessage) {
+    }
+}
@@ -1,56 +1,148 @@
 package pureapps.appread.documentsvectorstorage;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.Embedding;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.hedging.HedgedCallExecutor;
+import pureapps.appread.throttling.AdaptiveConcurrencyLimiter;
+import pureapps.appread.throttling.AdaptiveConcurrencyLimiter.Priority;
+import pureapps.appread.throttling.MicroBatcher;
+import pureapps.appread.throttling.ModelOverloadedException;
+import pureapps.appread.throttling.RequestPriority;
+import pureapps.appread.vectorarena.VectorArena;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 class EmbeddingService {
     private final EmbeddingModel embeddingModel;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(
-            Math.max(2, Runtime.getRuntime().availableProcessors() - 1)
-    );
+    private final AdaptiveConcurrencyLimiter embeddingConcurrencyLimiter;
+    private final HedgedCallExecutor embeddingHedgedCallExecutor;
+    private final VectorArena embeddingArena;
+    // Concurrency is bounded by the adaptive limiter, so waiting tasks only park cheap virtual threads.
+    private final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
 
-    List<DocumentChunkWithEmbedding> generateEmbeddings(List<DocumentChunk> chunks) {
-        log.info("Generating embeddings for {} chunks using {}", chunks.size(), embeddingModel.getClass().getSimpleName());
+    @Value("${app.embedding.retry.max-retries:5}")
+    private int maxRetries;
 
-        List<CompletableFuture<DocumentChunkWithEmbedding>> futures = chunks.stream()
-                .map(chunk -> CompletableFuture.supplyAsync(() -> generateEmbedding(chunk), executorService))
-                .toList();
+    @Value("${app.embedding.retry.initial-backoff:500ms}")
+    private Duration initialBackoff = Duration.ofMillis(500);
+
+    @Value("${app.embedding.retry.max-backoff:30s}")
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
+    @Value("${spring.ai.openai.embedding.options.model:}")
+    private String embeddingModelName = "";
+
+    @Value("${app.embedding.dimensions:1536}")
+    private int dimensions = 1536;
+
+    @Value("${app.embedding.request-dimensions:false}")
+    private boolean requestDimensions;
+
+    @Value("${app.embedding.query-batching.window:5ms}")
+    private Duration queryBatchWindow = Duration.ofMillis(5);
+
+    @Value("${app.embedding.query-batching.max-batch-size:64}")
+    private int queryMaxBatchSize = 64;
+
+    @Value("${app.embedding.arena.enabled:false}")
+    private boolean useArena;
+
+    private MicroBatcher<String, float[]> queryBatcher;
 
-        List<DocumentChunkWithEmbedding> results = futures.stream()
-                .map(CompletableFuture::join)
-                .collect(Collectors.toList());
+    /**
+     * Query embeddings arriving within the batching window share one model call; a zero window disables batching.
+     */
+    @PostConstruct
+    void startQueryBatching() {
+        if (!queryBatchWindow.isZero()) {
+            queryBatcher = new MicroBatcher<>("query-embedding", queryBatchWindow, queryMaxBatchSize, this::embedQueries);
+        }
+    }
 
-        log.info("Successfully generated embeddings for {} chunks.", results.size());
-        return results;
+    @PreDestroy
+    void stopQueryBatching() {
+        if (queryBatcher != null) {
+            queryBatcher.close();
+        }
     }
 
-    DocumentChunkWithEmbedding generateEmbedding(DocumentChunk chunk) {
+    /**
+     * Embeds chunks in batches whose size and concurrency follow the adaptive limiter, in its bulk lane.
+     * The batch size is read at dispatch time, so it tracks the limiter while the ingestion runs.
+     * Failures are isolated: transient errors are retried per batch, a batch rejected by the provider is
+     * split until the offending chunks are found, and only chunks that still fail are reported as failed.
+     * Embedded chunks are returned in input order. With the arena enabled their vectors are held off-heap, and the
+     * caller must release them ({@link DocumentChunkWithEmbedding#releaseEmbedding()}) once they are persisted.
+     */
+    EmbeddingResult generateEmbeddings(List<DocumentChunk> chunks) {
+        return generateEmbeddings(chunks, null);
+    }
+
+    /**
+     * Like {@link #generateEmbeddings(List)}, with the given model, e.g. the previous model of a project that has not
+     * been migrated yet. A null model, or the configured one, embeds with the configured model.
+     */
+    EmbeddingResult generateEmbeddings(List<DocumentChunk> chunks, String model) {
+        String requestModel = model == null || model.equals(embeddingModelName) ? null : model;
+        log.info("Generating embeddings for {} chunks using {}{}", chunks.size(), embeddingModel.getClass().getSimpleName(),
+                requestModel != null ? " (" + requestModel + ")" : "");
+
+        List<CompletableFuture<EmbeddingResult>> futures = new ArrayList<>();
+        EmbeddingResult result;
         try {
-            float[] embeddingFloatArray = embeddingModel.embed(chunk.getContent());
+            int offset = 0;
+            while (offset < chunks.size()) {
+                AdaptiveConcurrencyLimiter.Permit permit = embeddingConcurrencyLimiter.acquire(Priority.BULK);
+                int batchSize = Math.min(Math.max(1, embeddingConcurrencyLimiter.getBatchSize()), chunks.size() - offset);
+                List<DocumentChunk> batch = chunks.subList(offset, offset + batchSize);
+                futures.add(CompletableFuture.supplyAsync(() -> embedBatch(batch, requestModel, permit), executorService));
+                offset += batchSize;
+            }
 
-            DocumentChunkWithEmbedding result = new DocumentChunkWithEmbedding();
-            result.setContent(chunk.getContent());
-            result.setFilePath(chunk.getFilePath());
-            result.setStartLine(chunk.getStartLine());
-            result.setEndLine(chunk.getEndLine());
-            result.setFileChecksum(chunk.getFileChecksum());
-            result.setEmbedding(embeddingFloatArray);
+            result = EmbeddingResult.merge(futures.stream()
+                    .map(CompletableFuture::join)
+                    .toList());
+        } catch (RuntimeException | Error e) {
+            // Nobody receives the batches that did (or will) complete, so their vectors go back to the arena here
+            futures.forEach(future -> future.thenAccept(EmbeddingService::releaseEmbeddings));
+            throw e;
+        }
 
-            log.debug("Generated embedding for chunk: {} (lines {}-{})", chunk.getFilePath(), chunk.getStartLine(), chunk.getEndLine());
-            return result;
+        if (result.hasFailures()) {
+            log.warn("Generated embeddings for {} chunks in {} batches, {} chunks failed permanently.",
+                    result.getEmbeddedChunks().size(), futures.size(), result.getFailedChunks().size());
+        } else {
+            log.info("Successfully generated embeddings for {} chunks in {} batches.", result.getEmbeddedChunks().size(), futures.size());
+        }
+        return result;
+    }
+
+    DocumentChunkWithEmbedding generateEmbedding(DocumentChunk chunk) {
+        try {
+            float[] embedding = callModel(List.of(chunk.getContent()), null, embeddingConcurrencyLimiter.acquire(Priority.BULK)).getFirst();
+            return withEmbedding(chunk, embedding);
 
         } catch (Exception e) {
             log.error("Error generating embedding for chunk: {} (lines {}-{}): {}",
@@ -61,9 +153,17 @@ class EmbeddingService {
         }
     }
 
+    /**
+     * Embeds a search query in the lane of the calling thread - interactive unless called from background work -
+     * so that user searches are not queued behind running ingestions.
+     */
     float[] generateEmbedding(String query) {
         try {
-            return embeddingModel.embed(query);
+            Priority priority = RequestPriority.current();
+            if (queryBatcher != null && priority == Priority.INTERACTIVE) {
+                return queryBatcher.submit(query).join();
+            }
+            return callModel(List.of(query), null, embeddingConcurrencyLimiter.acquire(priority)).getFirst();
 
         } catch (Exception e) {
             log.error("Error generating embedding for query: {}",
@@ -72,4 +172,181 @@ class EmbeddingService {
 
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Embeds a search query with the given model, e.g. the previous model for a project that is still being
+     * re-embedded. Queries for the configured model take the regular (batched) path.
+     */
+    float[] generateEmbedding(String query, String model) {
+        if (model == null || model.equals(embeddingModelName)) {
+            return generateEmbedding(query);
+        }
+        try {
+            return callModel(List.of(query), model, embeddingConcurrencyLimiter.acquire(RequestPriority.current())).getFirst();
+
+        } catch (Exception e) {
+            log.error("Error generating embedding with model {} for query: {}", model, query);
+            throw new RuntimeException("Failed to generate embedding for query: " + query, e);
+
+        }
+    }
+
+    /**
+     * Embeds one micro-batch of queries; identical queries in the batch are sent to the model once.
+     */
+    private List<float[]> embedQueries(List<String> queries) {
+        Map<String, float[]> embeddingsByQuery = new LinkedHashMap<>();
+        queries.forEach(query -> embeddingsByQuery.put(query, null));
+        List<String> distinctQueries = new ArrayList<>(embeddingsByQuery.keySet());
+
+        List<float[]> embeddings = callModel(distinctQueries, null, embeddingConcurrencyLimiter.acquire(Priority.INTERACTIVE));
+        for (int i = 0; i < distinctQueries.size(); i++) {
+            embeddingsByQuery.put(distinctQueries.get(i), embeddings.get(i));
+        }
+        return queries.stream().map(embeddingsByQuery::get).toList();
+    }
+
+    private EmbeddingResult embedBatch(List<DocumentChunk> batch, String model, AdaptiveConcurrencyLimiter.Permit permit) {
+        List<DocumentChunkWithEmbedding> results = new ArrayList<>(batch.size());
+        try {
+            List<float[]> embeddings = callModel(batch.stream().map(DocumentChunk::getContent).toList(), model, permit);
+
+            for (int i = 0; i < batch.size(); i++) {
+                results.add(withEmbedding(batch.get(i), embeddings.get(i)));
+            }
+
+            log.debug("Generated embeddings for batch of {} chunks starting at: {} (lines {}-{})",
+                    batch.size(), batch.getFirst().getFilePath(), batch.getFirst().getStartLine(), batch.getFirst().getEndLine());
+            return new EmbeddingResult(results, List.of());
+
+        } catch (RuntimeException e) {
+            results.forEach(DocumentChunkWithEmbedding::releaseEmbedding);
+            DocumentChunk first = batch.getFirst();
+            if (batch.size() > 1 && !isRetryable(e)) {
+                // The provider rejected the request itself (e.g. one oversized input): bisect so that only the offending chunks fail
+                log.warn("Batch of {} chunks starting at: {} was rejected ({}), splitting it", batch.size(), first.getFilePath(), e.getMessage());
+                int middle = batch.size() / 2;
+                EmbeddingResult left = embedBatch(batch.subList(0, middle), model, embeddingConcurrencyLimiter.acquire(Priority.BULK));
+                EmbeddingResult right = embedBatch(batch.subList(middle, batch.size()), model, embeddingConcurrencyLimiter.acquire(Priority.BULK));
+                return EmbeddingResult.merge(List.of(left, right));
+            }
+
+            log.error("Error generating embeddings for batch of {} chunks starting at: {} (lines {}-{}): {}",
+                    batch.size(), first.getFilePath(), first.getStartLine(), first.getEndLine(), e.getMessage());
+            return new EmbeddingResult(List.of(), batch.stream()
+                    .map(chunk -> new EmbeddingResult.FailedChunk(chunk, e.getMessage()))
+                    .toList());
+        }
+    }
+
+    /**
+     * Calls the model while holding the given permit. Overload responses feed the limiter, other transient
+     * failures are retried after a jittered exponential backoff; non-transient failures are rethrown at once.
+     */
+    private List<float[]> callModel(List<String> inputs, String model, AdaptiveConcurrencyLimiter.Permit permit) {
+        int attempt = 0;
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                try {
+                    Priority priority = permit.getPriority();
+                    List<float[]> embeddings = embeddingHedgedCallExecutor.call(latencyClass(inputs.size()),
+                            () -> embed(inputs, model), () -> hedgeSlot(priority));
+                    embeddingConcurrencyLimiter.onSuccess(Duration.ofNanos(System.nanoTime() - start), inputs.size());
+                    return embeddings;
+                } catch (RuntimeException e) {
+                    boolean overloaded = e instanceof ModelOverloadedException;
+                    if (overloaded) {
+                        embeddingConcurrencyLimiter.onOverload(((ModelOverloadedException) e).getRetryAfter().orElse(null));
+                    } else {
+                        embeddingConcurrencyLimiter.onError();
+                    }
+                    if (!isRetryable(e) || ++attempt > maxRetries) {
+                        throw e;
+                    }
+                    log.warn("Embedding call for {} inputs failed ({}), retrying (attempt {}/{})",
+                            inputs.size(), e.getMessage(), attempt, maxRetries);
+                    permit.close();
+                    // With a Retry-After hint the limiter already holds calls back for the right amount of time
+                    if (!overloaded || ((ModelOverloadedException) e).getRetryAfter().isEmpty()) {
+                        sleep(backoff(attempt));
+                    }
+                    permit = embeddingConcurrencyLimiter.acquire(permit.getPriority());
+                }
+            }
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * A hedge is an extra request in flight, so it needs a limiter slot of its own; when the limiter is saturated
+     * the call is not hedged.
+     */
+    private Runnable hedgeSlot(Priority priority) {
+        AdaptiveConcurrencyLimiter.Permit hedgePermit = embeddingConcurrencyLimiter.tryAcquire(priority);
+        return hedgePermit != null ? hedgePermit::close : null;
+    }
+
+    /**
+     * Embeds with the configured model, or with another model of the same provider if one is given.
+     * The configured model is asked for {@code app.embedding.dimensions}-sized vectors when it supports shortened
+     * embeddings; other models return their native size.
+     */
+    private List<float[]> embed(List<String> inputs, String model) {
+        if (model == null && !requestDimensions) {
+            return embeddingModel.embed(inputs);
+        }
+        EmbeddingOptionsBuilder options = EmbeddingOptionsBuilder.builder();
+        if (model != null) {
+            options.withModel(model);
+        } else {
+            options.withDimensions(dimensions);
+        }
+        EmbeddingRequest request = new EmbeddingRequest(inputs, options.build());
+        return embeddingModel.call(request).getResults().stream()
+                .map(Embedding::getOutput)
+                .toList();
+    }
+
+    /**
+     * Latency grows with the number of inputs, so hedging thresholds are tracked per power-of-two batch size.
+     */
+    private static String latencyClass(int inputs) {
+        return "embed-" + Integer.highestOneBit(Math.max(1, inputs));
+    }
+
+    /**
+     * Full-jitter exponential backoff: a random delay between zero and {@code initialBackoff * 2^(attempt-1)},
+     * capped at {@code maxBackoff}, so that retries of batches that failed together do not arrive together.
+     */
+    Duration backoff(int attempt) {
+        long ceiling = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private static boolean isRetryable(RuntimeException e) {
+        return !(e instanceof NonTransientAiException || e instanceof IllegalArgumentException);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+
+    private static void releaseEmbeddings(EmbeddingResult result) {
+        result.getEmbeddedChunks().forEach(DocumentChunkWithEmbedding::releaseEmbedding);
+    }
+
+    private DocumentChunkWithEmbedding withEmbedding(DocumentChunk chunk, float[] embedding) {
+        // Vectors of another size (e.g. from a misconfigured model) stay on the heap and are rejected on persist
+        if (useArena && embedding.length == embeddingArena.getDimensions()) {
+            return new DocumentChunkWithEmbedding(chunk, embeddingArena.store(embedding));
+        }
+        return new DocumentChunkWithEmbedding(chunk, embedding);
+    }
+}
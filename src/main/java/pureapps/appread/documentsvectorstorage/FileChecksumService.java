@@ -3,6 +3,7 @@ package pureapps.appread.documentsvectorstorage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -21,6 +22,7 @@ import java.util.Optional;
 class FileChecksumService {
 
     private final DocumentFileRepository documentFileRepository;
+    private final ProjectPartitionManager partitionManager;
 
     /**
      * Calculate SHA-256 checksum for a file
@@ -81,8 +83,10 @@ class FileChecksumService {
     }
 
     /**
-     * Get existing file checksum
+     * Get existing file checksum. May be read from a replica, so a file saved a moment ago can still be missing;
+     * {@link #checkFileStatus}, whose answer decides what is re-embedded, always reads the primary.
      */
+    @Transactional(readOnly = true)
     public Optional<String> getFileChecksum(String projectId, String filePath) {
         return documentFileRepository.findByProjectIdAndFilePath(projectId, filePath)
                 .map(DocumentFileEntity::getChecksum);
@@ -96,9 +100,11 @@ class FileChecksumService {
     }
 
     /**
-     * Delete all file metadata for a project
+     * Delete all file metadata for a project by dropping its partition
      */
+    @Transactional
     public void deleteAllFileMetadata(String projectId) {
+        partitionManager.dropPartition(ProjectPartitionManager.FILES_TABLE, projectId);
         documentFileRepository.deleteByProjectId(projectId);
     }
 
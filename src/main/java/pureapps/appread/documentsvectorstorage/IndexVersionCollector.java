@@ -0,0 +1,79 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the chunks of swapped out index versions in the background, one project right after its swap, and all
+ * projects every {@code app.index.versions.gc-interval} for versions whose collection was missed, e.g. on a restart,
+ * or of builds that a newer build replaced. Searches never read those rows, so nothing waits for their deletion.
+ * Rows are deleted in batches of {@code app.index.versions.gc-batch-size}, one transaction each, pausing in between,
+ * along with the contents and vectors no other row refers to.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+class IndexVersionCollector {
+
+    private final PersistenceService persistenceService;
+
+    @Value("${app.index.versions.gc-interval:10m}")
+    private Duration interval = Duration.ofMinutes(10);
+
+    @Value("${app.index.versions.gc-batch-size:5000}")
+    private int batchSize = 5000;
+
+    @Value("${app.index.versions.gc-batch-pause:100ms}")
+    private Duration batchPause = Duration.ofMillis(100);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "index-version-gc");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    void start() {
+        scheduler.scheduleWithFixedDelay(() -> collect(null), interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Queues the deletion of the project's swapped out versions.
+     */
+    void collectLater(String projectId) {
+        scheduler.execute(() -> collect(projectId));
+    }
+
+    void collect(String projectId) {
+        try {
+            long deleted = 0;
+            int batch;
+            while ((batch = persistenceService.deleteSupersededIndexVersions(projectId, batchSize)) == batchSize) {
+                deleted += batch;
+                Thread.sleep(batchPause);
+            }
+            deleted += batch;
+            if (deleted > 0) {
+                log.info("Deleted {} chunks of swapped out index versions{}", deleted, projectId != null ? " of project " + projectId : "");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Error deleting swapped out index versions{}: {}", projectId != null ? " of project " + projectId : "", e.getMessage(), e);
+        }
+    }
+}
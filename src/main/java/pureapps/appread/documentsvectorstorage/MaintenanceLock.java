@@ -0,0 +1,99 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * The session advisory lock through which all instances coordinate work on the shared tables and indexes:
+ * {@link TableMaintenanceScheduler} runs and vector index builds hold it exclusively, loads written without the
+ * vector index ({@link VectorIndexManager#beforeBulkLoad(int)}) hold it shared. Neither waits for the other; whoever
+ * finds the lock taken skips its work.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+class MaintenanceLock {
+
+    // "appread" in ASCII, shared by every instance
+    static final long ADVISORY_LOCK_KEY = 0x61707072656164L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * A shared hold on the lock, which keeps its own connection until closed.
+     */
+    static final class SharedHold implements AutoCloseable {
+
+        private final Connection connection;
+
+        private SharedHold(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() {
+            try (Connection held = connection;
+                 PreparedStatement statement = held.prepareStatement("SELECT pg_advisory_unlock_shared(?)")) {
+                statement.setLong(1, ADVISORY_LOCK_KEY);
+                statement.execute();
+            } catch (SQLException e) {
+                // Closing the connection ends the session, which releases the lock anyway
+                log.error("Error releasing the shared maintenance lock: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code task} with a template bound to one session that holds the lock exclusively, so that session level
+     * statements and the lock share a connection.
+     *
+     * @return whether the task ran; not if another session holds the lock
+     */
+    boolean runExclusive(Consumer<JdbcTemplate> task) {
+        Boolean ran = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            JdbcTemplate session = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            if (!Boolean.TRUE.equals(session.queryForObject("SELECT pg_try_advisory_lock(?)", Boolean.class, ADVISORY_LOCK_KEY))) {
+                return false;
+            }
+            try {
+                task.accept(session);
+            } finally {
+                session.queryForObject("SELECT pg_advisory_unlock(?)", Boolean.class, ADVISORY_LOCK_KEY);
+            }
+            return true;
+        });
+        return Boolean.TRUE.equals(ran);
+    }
+
+    /**
+     * Takes the lock shared on a connection of its own, kept out of any transaction of the caller.
+     *
+     * @return the hold to close once done, or null if the lock is held exclusively
+     */
+    SharedHold tryShared() throws SQLException {
+        Connection connection = jdbcTemplate.getDataSource().getConnection();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock_shared(?)")) {
+            statement.setLong(1, ADVISORY_LOCK_KEY);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next() && rs.getBoolean(1)) {
+                    return new SharedHold(connection);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        connection.close();
+        return null;
+    }
+}
@@ -2,11 +2,19 @@ package pureapps.appread.documentsvectorstorage;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.documentsvectorstorage.dto.ScoredDocumentChunk;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -16,9 +24,30 @@ import java.util.stream.Collectors;
 class PersistenceService {
 
     private final DocumentChunkRepository chunkRepository;
+    private final DocumentChunkWriter chunkWriter;
+    private final DocumentChunkSearchRepository searchRepository;
+    private final EmbeddingDeadLetterRepository deadLetterRepository;
+    private final ProjectEmbeddingModelRepository projectEmbeddingModelRepository;
+    private final EmbeddingMigrationRepository embeddingMigrationRepository;
+    private final ProjectPartitionManager partitionManager;
+    private final ProjectIndexVersionRepository indexVersionRepository;
+    private final ProjectLifecycleRepository lifecycleRepository;
 
+    @Value("${app.embedding.dimensions:1536}")
+    private int dimensions = 1536;
+
+    @Value("${spring.ai.openai.embedding.options.model:}")
+    private String embeddingModelName = "";
+
+    @Value("${app.embedding.migration.source-model:${spring.ai.openai.embedding.options.model:}}")
+    private String migrationSourceModel = "";
+
+    /**
+     * Stores the chunks, with their vectors recorded as embedded by {@code model}: the model the project had when
+     * they were embedded, see {@link #resolveEmbeddingModel(String)}.
+     */
     @Transactional
-    void saveChunks(String projectId, List<DocumentChunkWithEmbedding> chunksWithEmbeddings) {
+    void saveChunks(String projectId, int indexVersion, String model, List<DocumentChunkWithEmbedding> chunksWithEmbeddings) {
         if (chunksWithEmbeddings == null || chunksWithEmbeddings.isEmpty()) {
             log.warn("No chunks provided to save.");
             return;
@@ -26,21 +55,16 @@ class PersistenceService {
 
         log.info("Saving {} document chunks with embeddings to the database", chunksWithEmbeddings.size());
 
-        try {
-            List<DocumentChunkEntity> entities = chunksWithEmbeddings.stream()
-                    .map(chunk -> new DocumentChunkEntity(
-                            projectId,
-                            chunk.getFilePath(),
-                            chunk.getStartLine(),
-                            chunk.getEndLine(),
-                            chunk.getContent(),
-                            chunk.getFileChecksum(),
-                            chunk.getEmbedding()
-                    ))
-                    .collect(Collectors.toList());
+        if (!lifecycleRepository.lockActive(projectId)) {
+            throw new IllegalStateException("Project " + projectId + " is being purged, its chunks are not saved");
+        }
 
-            chunkRepository.saveAllWithVectorCast(entities);
-            log.info("Successfully saved {} document chunks to the database.", entities.size());
+        try {
+            int expectedDimensions = expectedDimensions(projectId, model);
+            chunksWithEmbeddings.stream().filter(DocumentChunkWithEmbedding::hasEmbedding)
+                    .forEach(chunk -> validateDimensions(chunk, expectedDimensions));
+            long saved = chunkWriter.write(projectId, indexVersion, model, chunksWithEmbeddings);
+            log.info("Successfully saved {} document chunks to the database.", saved);
 
         } catch (Exception e) {
             log.error("Error saving document chunks to database: {}", e.getMessage(), e);
@@ -48,52 +72,358 @@ class PersistenceService {
         }
     }
 
+    /**
+     * Adds chunks to the project's live version, holding its pointer row lock until they are committed: a swap
+     * waiting for it then carries them over into the new version, and one that got it first has them written into
+     * that version. Nothing is written while the project has no live version.
+     */
+    @Transactional
+    void saveChunksToLiveVersion(String projectId, String model, List<DocumentChunkWithEmbedding> chunksWithEmbeddings) {
+        int live = indexVersionRepository.lockLive(projectId);
+        if (live == 0) {
+            throw new IllegalStateException("Project " + projectId + " has no live index version to add chunks to");
+        }
+        saveChunks(projectId, live, model, chunksWithEmbeddings);
+    }
+
+    /**
+     * Starts a new index version of the project. Its chunks are invisible to searches until it is swapped in.
+     */
+    @Transactional
+    int startIndexVersion(String projectId) {
+        int version = indexVersionRepository.allocate(projectId);
+        // Checked under the pointer row lock the allocation took, which a purge takes before marking the project
+        if (lifecycleRepository.isPurging(projectId)) {
+            throw new IllegalStateException("Project " + projectId + " is being purged, no index version is built");
+        }
+        log.info("Building index version {} of project {}", version, projectId);
+        return version;
+    }
 
+    int findLiveIndexVersion(String projectId) {
+        return indexVersionRepository.findLive(projectId);
+    }
+
+    /**
+     * Makes a built version the one searches read. The live version's chunks of files the build did not rebuild
+     * are carried over in the same transaction; a full rebuild ({@code rebuiltFiles} null) carries nothing over.
+     * A build that a newer one has already replaced is not swapped in.
+     *
+     * @return whether the version is live now
+     */
     @Transactional
-    void deleteChunksForRepository(String projectId) {
-        log.info("Deleting all document chunks for project: {}", projectId);
+    boolean swapIndexVersion(String projectId, int version, Collection<String> rebuiltFiles) {
         try {
-            int deletedCount = chunkRepository.deleteByProjectId(projectId);
-            log.info("Deleted {} chunks for project: {}", deletedCount, projectId);
+            int live = indexVersionRepository.lockLive(projectId);
+            if (lifecycleRepository.isPurging(projectId)) {
+                log.warn("Index version {} of project {} is not swapped in, the project is being purged", version, projectId);
+                return false;
+            }
+            if (live >= version) {
+                log.warn("Index version {} of project {} is not swapped in, version {} is newer", version, projectId, live);
+                return false;
+            }
+            int carriedOver = live > 0 && rebuiltFiles != null
+                    ? indexVersionRepository.carryOver(projectId, live, version, rebuiltFiles)
+                    : 0;
+            indexVersionRepository.swap(projectId, version);
+            log.info("Swapped in index version {} of project {} ({} chunks carried over from version {})", version, projectId, carriedOver, live);
+            return true;
         } catch (Exception e) {
-            log.error("Error deleting chunks for project {}: {}", projectId, e.getMessage(), e);
-            throw new RuntimeException("Failed to delete chunks for project: " + projectId, e);
+            log.error("Error swapping in index version {} of project {}: {}", version, projectId, e.getMessage(), e);
+            throw new RuntimeException("Failed to swap index version for project: " + projectId, e);
         }
     }
 
-    List<DocumentChunkEntity> findSimilarChunkEntities(float[] queryEmbedding, float similarityThreshold, int limit, String projectId) {
-        log.debug("Finding {} similar chunk entities with a similarity threshold of {} for project {}", limit, similarityThreshold, projectId);
+    /**
+     * Deletes a batch of chunks of index versions that were swapped out, of the project or, if null, of all
+     * projects, and the contents and vectors only they referred to. The last batch also deletes the file paths of
+     * files that are gone with them.
+     *
+     * @return the number of chunks deleted, less than {@code batchSize} once there are none left
+     */
+    @Transactional
+    int deleteSupersededIndexVersions(String projectId, int batchSize) {
+        List<String> contentHashes = new ArrayList<>();
+        int deleted = indexVersionRepository.deleteSuperseded(projectId, batchSize, contentHashes);
+        chunkWriter.deleteUnusedContent(contentHashes);
+        if (deleted < batchSize) {
+            chunkWriter.deleteUnusedFilePaths(projectId);
+        }
+        return deleted;
+    }
+
+    /**
+     * Rejects embeddings that do not match the model's dimensionality, e.g. from a model that was switched
+     * without updating {@code app.embedding.dimensions}; they would be invisible to searches.
+     */
+    private void validateDimensions(DocumentChunkWithEmbedding chunk, int expectedDimensions) {
+        if (chunk.getEmbeddingDimensions() != expectedDimensions) {
+            throw new IllegalArgumentException(String.format("Embedding for %s (lines %d-%d) has %d dimensions, expected %d",
+                    chunk.getFilePath(), chunk.getStartLine(), chunk.getEndLine(), chunk.getEmbeddingDimensions(), expectedDimensions));
+        }
+    }
+
+    /**
+     * The configured model returns {@code app.embedding.dimensions}-sized vectors; a project's previous model
+     * returns the size recorded with it.
+     */
+    private int expectedDimensions(String projectId, String model) {
+        if (model.equals(embeddingModelName)) {
+            return dimensions;
+        }
+        return projectEmbeddingModelRepository.findById(projectId)
+                .filter(projectModel -> projectModel.getModel().equals(model))
+                .map(ProjectEmbeddingModelEntity::getDimensions)
+                .orElse(dimensions);
+    }
+
+    /**
+     * The model to embed and store the project's new chunks with. A new project is registered with the configured
+     * model. Existing projects keep the model they have until a migration flips them, so that chunks added by
+     * incremental ingestions and dead-letter replays are searched with the same vectors as the rest of the project.
+     * Chunks embedded just before a flip are stored under the previous model, and the next migration run picks
+     * them up.
+     */
+    @Transactional
+    String resolveEmbeddingModel(String projectId) {
+        if (!projectEmbeddingModelRepository.existsById(projectId) && !chunkRepository.existsByProjectId(projectId)) {
+            projectEmbeddingModelRepository.save(new ProjectEmbeddingModelEntity(projectId, embeddingModelName, dimensions));
+            return embeddingModelName;
+        }
+        return findEmbeddingModel(projectId);
+    }
+
+    /**
+     * The model whose vectors the project is searched with. Projects stored before models were tracked
+     * report the migration source model.
+     */
+    @Transactional(readOnly = true)
+    String findEmbeddingModel(String projectId) {
+        return projectEmbeddingModelRepository.findById(projectId)
+                .map(ProjectEmbeddingModelEntity::getModel)
+                .orElse(migrationSourceModel);
+    }
+
+    /**
+     * The chunks whose content is already stored with a vector from the model, in this or any other
+     * project, and need not be embedded again.
+     */
+    Set<String> findEmbeddedContent(String model, List<DocumentChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return Set.of();
+        }
+        List<String> contentHashes = chunks.stream().map(chunk -> ContentHash.hex(chunk.getContent())).distinct().toList();
+        return chunkWriter.findEmbeddedContent(model, contentHashes);
+    }
+
+    /**
+     * Adds the project if it is new, and records an access to it. A project being purged cannot be ingested until
+     * its purge is finished.
+     */
+    @Transactional
+    void registerProject(String projectId) {
+        if (!lifecycleRepository.register(projectId)) {
+            throw new IllegalStateException("Project " + projectId + " is being purged, ingest it again once the purge is finished");
+        }
+    }
+
+    @Transactional
+    void recordProjectAccesses(Map<String, Instant> accesses) {
+        lifecycleRepository.recordAccesses(accesses);
+    }
+
+    /**
+     * Projects to purge: those whose purge did not finish, and those not accessed since {@code accessedBefore}.
+     */
+    List<String> findProjectsToPurge(Instant accessedBefore) {
+        return lifecycleRepository.findToPurge(accessedBefore);
+    }
+
+    /**
+     * Takes the project out of searches at once and marks it for purging, so an interrupted purge is resumed.
+     * Swaps of the project are serialized with this by its pointer row lock, and writes by its project row lock;
+     * once this commits, every later one of them finds the project purging.
+     */
+    @Transactional
+    void startPurge(String projectId) {
+        indexVersionRepository.lockLive(projectId);
+        lifecycleRepository.markPurging(projectId);
+        indexVersionRepository.hide(projectId);
+    }
+
+    /**
+     * Deletes the next batch of the project's rows. Chunks go first: content and vectors only the project refers
+     * to can only be told apart from shared ones while its chunks exist. File metadata and file paths follow.
+     *
+     * @return the number of rows deleted, 0 once nothing but the project's bookkeeping is left
+     */
+    @Transactional
+    int purgeBatch(String projectId, int batchSize) {
         try {
-            List<DocumentChunkEntity> similarEntities = chunkRepository.findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId);
-            log.info("Found {} similar chunk entities for project {}", similarEntities.size(), projectId);
-            return similarEntities;
+            List<String> contentHashes = new ArrayList<>();
+            int deleted = lifecycleRepository.deleteChunks(projectId, batchSize, contentHashes);
+            chunkWriter.deleteUnusedContent(contentHashes);
+            if (deleted == 0) {
+                deleted = lifecycleRepository.deleteFiles(projectId, batchSize);
+            }
+            if (deleted == 0) {
+                deleted = lifecycleRepository.deleteFilePaths(projectId, batchSize);
+            }
+            return deleted;
         } catch (Exception e) {
-            log.error("Error finding similar chunk entities for project {}: {}", projectId, e.getMessage(), e);
+            log.error("Error purging project {}: {}", projectId, e.getMessage(), e);
+            throw new RuntimeException("Failed to purge project: " + projectId, e);
+        }
+    }
+
+    /**
+     * Drops the now empty partitions of a purged project. Not transactional: each detach holds a lock on the parent
+     * table, and with it every project's searches, only for as long as it runs.
+     */
+    void dropPartitions(String projectId) {
+        try {
+            partitionManager.dropPartition(ProjectPartitionManager.CHUNKS_TABLE, projectId);
+            partitionManager.dropPartition(ProjectPartitionManager.FILES_TABLE, projectId);
+        } catch (Exception e) {
+            log.error("Error dropping partitions of project {}: {}", projectId, e.getMessage(), e);
+            throw new RuntimeException("Failed to drop partitions of project: " + projectId, e);
+        }
+    }
+
+    /**
+     * Removes what is left of a purged project once its partitions are gone: dead letters and bookkeeping rows.
+     */
+    @Transactional
+    void finishPurge(String projectId) {
+        try {
+            deadLetterRepository.deleteByProjectId(projectId);
+            projectEmbeddingModelRepository.deleteById(projectId);
+            indexVersionRepository.delete(projectId);
+            lifecycleRepository.delete(projectId);
+        } catch (Exception e) {
+            log.error("Error finishing purge of project {}: {}", projectId, e.getMessage(), e);
+            throw new RuntimeException("Failed to finish purge of project: " + projectId, e);
+        }
+    }
+
+    List<ScoredDocumentChunk> findSimilarChunks(float[] queryEmbedding, float similarityThreshold, int limit, String projectId) {
+        log.debug("Finding {} similar chunks with a similarity threshold of {} for project {}", limit, similarityThreshold, projectId);
+        try {
+            // Without a project, all projects are searched with the vectors of the configured model
+            String model = projectId != null ? findEmbeddingModel(projectId) : embeddingModelName;
+            List<ScoredDocumentChunk> similarChunks = searchRepository.findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId, model);
+            log.info("Found {} similar chunks for project {}", similarChunks.size(), projectId);
+            return similarChunks;
+        } catch (Exception e) {
+            log.error("Error finding similar chunks for project {}: {}", projectId, e.getMessage(), e);
             return List.of();
         }
     }
 
+    /**
+     * Drops the dead letters of files that are being rebuilt; the rebuild embeds their current content.
+     */
+    @Transactional
+    void deleteDeadLettersForFiles(String projectId, Collection<String> filePaths) {
+        for (String filePath : filePaths) {
+            deadLetterRepository.deleteByProjectIdAndFilePath(projectId, filePath);
+        }
+    }
+
+    @Transactional
+    void saveDeadLetters(String projectId, List<EmbeddingResult.FailedChunk> failedChunks) {
+        if (failedChunks == null || failedChunks.isEmpty()) {
+            return;
+        }
+
+        log.warn("Saving {} chunks that failed embedding to the dead-letter table for project: {}", failedChunks.size(), projectId);
+        try {
+            List<EmbeddingDeadLetterEntity> entities = failedChunks.stream()
+                    .map(failed -> new EmbeddingDeadLetterEntity(
+                            projectId,
+                            failed.chunk().getFilePath(),
+                            failed.chunk().getStartLine(),
+                            failed.chunk().getEndLine(),
+                            failed.chunk().getContent(),
+                            failed.chunk().getFileChecksum(),
+                            failed.errorMessage()
+                    ))
+                    .collect(Collectors.toList());
+
+            deadLetterRepository.saveAll(entities);
+        } catch (Exception e) {
+            log.error("Error saving dead letters for project {}: {}", projectId, e.getMessage(), e);
+            throw new RuntimeException("Failed to save dead letters for project: " + projectId, e);
+        }
+    }
+
+    List<EmbeddingDeadLetterEntity> findDeadLetters(String projectId) {
+        return deadLetterRepository.findByProjectId(projectId);
+    }
+
+    @Transactional
+    void deleteDeadLetters(List<EmbeddingDeadLetterEntity> deadLetters) {
+        deadLetterRepository.deleteAll(deadLetters);
+    }
+
     @Transactional
-    void deleteChunksForFile(String projectId, String filePath) {
-        log.info("Deleting chunks for file: {} in project: {}", filePath, projectId);
+    void saveDeadLetterAttempts(List<EmbeddingDeadLetterEntity> deadLetters) {
+        deadLetterRepository.saveAll(deadLetters);
+    }
+
+    List<String> findProjectsToMigrate(String targetModel) {
+        return chunkRepository.findProjectIdsNotEmbeddedWith(targetModel, migrationSourceModel);
+    }
+
+    @Transactional
+    EmbeddingMigrationEntity startMigration(String projectId, String targetModel) {
+        EmbeddingMigrationEntity migration = embeddingMigrationRepository.findByProjectIdAndTargetModel(projectId, targetModel)
+                .orElseGet(() -> new EmbeddingMigrationEntity(projectId, targetModel));
+        migration.setStatus(EmbeddingMigrationEntity.Status.RUNNING);
+        return embeddingMigrationRepository.save(migration);
+    }
+
+    List<DocumentChunkEntity> findChunksToMigrate(EmbeddingMigrationEntity migration, UUID afterUuid, int limit) {
+        return chunkRepository.findChunksToMigrate(migration.getProjectId(), migration.getTargetModel(), afterUuid, limit);
+    }
+
+    /**
+     * Stores a batch of target-model vectors of the chunks' content together with the checkpoint, so a restart
+     * neither loses nor repeats the batch. Searches keep using the project's current model until it is switched.
+     */
+    @Transactional
+    EmbeddingMigrationEntity saveMigrationBatch(EmbeddingMigrationEntity migration, List<byte[]> contentHashes, List<float[]> embeddings, UUID lastChunkUuid) {
         try {
-            int deletedCount = chunkRepository.deleteByProjectIdAndFilePath(projectId, filePath);
-            log.info("Deleted {} chunks for file: {} in project: {}", deletedCount, filePath, projectId);
+            chunkWriter.writeEmbeddings(migration.getTargetModel(), contentHashes, embeddings);
+            migration.recordBatch(lastChunkUuid, contentHashes.size());
+            return embeddingMigrationRepository.save(migration);
         } catch (Exception e) {
-            log.error("Error deleting chunks for file {} in project {}: {}", filePath, projectId, e.getMessage(), e);
-            throw new RuntimeException("Failed to delete chunks for file: " + filePath, e);
+            log.error("Error saving migrated embeddings for project {}: {}", migration.getProjectId(), e.getMessage(), e);
+            throw new RuntimeException("Failed to save migrated embeddings for project: " + migration.getProjectId(), e);
         }
     }
 
+    /**
+     * Switches the project to the target model: its content has vectors from both models by now, and searches and
+     * queries use the target model's as soon as this commits.
+     */
     @Transactional
-    void deleteChunksByChecksum(String projectId, String fileChecksum) {
-        log.info("Deleting chunks with checksum: {} in project: {}", fileChecksum, projectId);
+    void completeMigration(EmbeddingMigrationEntity migration, int targetDimensions) {
+        String projectId = migration.getProjectId();
         try {
-            int deletedCount = chunkRepository.deleteByProjectIdAndFileChecksum(projectId, fileChecksum);
-            log.info("Deleted {} chunks with checksum: {} in project: {}", deletedCount, fileChecksum, projectId);
+            projectEmbeddingModelRepository.save(new ProjectEmbeddingModelEntity(projectId, migration.getTargetModel(), targetDimensions));
+            migration.setStatus(EmbeddingMigrationEntity.Status.COMPLETED);
+            embeddingMigrationRepository.save(migration);
+            log.info("Project {} switched to embedding model {}", projectId, migration.getTargetModel());
         } catch (Exception e) {
-            log.error("Error deleting chunks with checksum {} in project {}: {}", fileChecksum, projectId, e.getMessage(), e);
-            throw new RuntimeException("Failed to delete chunks with checksum: " + fileChecksum, e);
+            log.error("Error switching project {} to embedding model {}: {}", projectId, migration.getTargetModel(), e.getMessage(), e);
+            throw new RuntimeException("Failed to switch embedding model for project: " + projectId, e);
         }
     }
+
+    @Transactional
+    void saveMigration(EmbeddingMigrationEntity migration) {
+        embeddingMigrationRepository.save(migration);
+    }
 }
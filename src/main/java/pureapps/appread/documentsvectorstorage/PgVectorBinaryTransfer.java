@@ -0,0 +1,83 @@
+package pureapps.appread.documentsvectorstorage;
+
+import com.pgvector.PGvector;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.postgresql.PGConnection;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Oid;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Registers pgvector's {@code vector} type on every physical connection and enables binary transfer for it,
+ * so bound and fetched vectors use pgvector's send/recv format. pgjdbc only knows the OIDs of built-in types,
+ * and the OID of {@code vector} differs per database, so this cannot be done with connection properties.
+ * <p>
+ * Fetched vectors arrive in binary once a statement is server-prepared (after {@code prepareThreshold} uses).
+ * <p>
+ * Data source beans are proxied rather than wrapped: a class-based proxy keeps the bean's type and its
+ * {@code close()}, so pools are still injected by type and closed with the context.
+ */
+@Component
+@Slf4j
+class PgVectorBinaryTransfer implements BeanPostProcessor {
+
+    private final Set<PGConnection> registered = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        // A lazy proxy's connections come from data sources that are registered themselves; registering its
+        // connections would fetch them before a transaction can mark them read-only
+        if (bean instanceof DataSource && !(bean instanceof LazyConnectionDataSourceProxy)) {
+            ProxyFactory proxyFactory = new ProxyFactory(bean);
+            // A final class can only be proxied through its interfaces, which still include AutoCloseable for a pool
+            proxyFactory.setProxyTargetClass(!Modifier.isFinal(bean.getClass().getModifiers()));
+            proxyFactory.addAdvice(new RegisteringInterceptor());
+            return proxyFactory.getProxy(bean.getClass().getClassLoader());
+        }
+        return bean;
+    }
+
+    void register(Connection connection) throws SQLException {
+        if (!connection.isWrapperFor(PGConnection.class)) {
+            return;
+        }
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        if (!registered.add(pgConnection)) {
+            return;
+        }
+        PGvector.addVectorType(connection);
+        BaseConnection baseConnection = (BaseConnection) pgConnection;
+        int oid = baseConnection.getTypeInfo().getPGType("vector");
+        if (oid == Oid.UNSPECIFIED) {
+            log.warn("The vector type is not installed; vectors are transferred as text");
+            return;
+        }
+        baseConnection.getQueryExecutor().addBinarySendOid(oid);
+        baseConnection.getQueryExecutor().addBinaryReceiveOid(oid);
+    }
+
+    private class RegisteringInterceptor implements MethodInterceptor {
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Object result = invocation.proceed();
+            if (result instanceof Connection connection && invocation.getMethod().getName().equals("getConnection")) {
+                register(connection);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * The embedding model (and its dimensionality) that produced the vectors a project is searched with.
+ */
+@Entity
+@Table(name = "project_embedding_models")
+@Getter
+@Setter
+@NoArgsConstructor
+class ProjectEmbeddingModelEntity {
+
+    @Id
+    @Column(name = "project_id", nullable = false, updatable = false)
+    private String projectId;
+
+    @Column(name = "model", nullable = false)
+    private String model;
+
+    @Column(name = "dimensions", nullable = false)
+    private int dimensions;
+
+    @Column(name = "updated_at", columnDefinition = "TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP")
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = OffsetDateTime.now();
+    }
+
+    public ProjectEmbeddingModelEntity(String projectId, String model, int dimensions) {
+        this.projectId = projectId;
+        this.model = model;
+        this.dimensions = dimensions;
+    }
+}
@@ -0,0 +1,8 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+interface ProjectEmbeddingModelRepository extends JpaRepository<ProjectEmbeddingModelEntity, String> {
+}
@@ -0,0 +1,115 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The {@code project_index_versions} pointer rows, and the chunk rows they select. A project's chunks are written
+ * into a new version while searches keep reading the live one; swapping the pointer makes the new version live
+ * for every search that starts after the swapping transaction commits.
+ */
+@Repository
+@RequiredArgsConstructor
+class ProjectIndexVersionRepository {
+
+    // A new project starts with live version 0, so nothing of its first build is visible before the swap
+    private static final String ALLOCATE_SQL = "INSERT INTO project_index_versions (project_id, live_version, next_version) " +
+            "VALUES (?, 0, 1) ON CONFLICT (project_id) " +
+            "DO UPDATE SET next_version = project_index_versions.next_version + 1 RETURNING next_version";
+    private static final String LIVE_SQL = "SELECT live_version FROM project_index_versions WHERE project_id = ?";
+    private static final String LIVE_FOR_UPDATE_SQL = LIVE_SQL + " FOR UPDATE";
+    private static final String CARRY_OVER_SQL = "INSERT INTO document_chunks " +
+            "(project_id, file_path_id, start_line, end_line, content_hash, file_checksum, index_version) " +
+            "SELECT project_id, file_path_id, start_line, end_line, content_hash, file_checksum, ? FROM document_chunks " +
+            "WHERE project_id = ? AND index_version = ? AND file_path_id NOT IN " +
+            "(SELECT id FROM document_file_paths WHERE project_id = ? AND file_path = ANY (?::varchar[]))";
+    private static final String SWAP_SQL = "UPDATE project_index_versions SET live_version = ?, swapped_at = now() " +
+            "WHERE project_id = ?";
+    // Content hashes of the deleted rows with their row count, to collect the content no row refers to anymore
+    private static final String SUPERSEDED_BATCH_SQL = "WITH batch AS (DELETE FROM document_chunks WHERE (uuid, project_id) IN " +
+            "(SELECT c.uuid, c.project_id FROM document_chunks c JOIN project_index_versions v ON v.project_id = c.project_id " +
+            "WHERE c.index_version < v.live_version LIMIT ?) RETURNING content_hash) " +
+            "SELECT encode(content_hash, 'hex'), count(*) FROM batch GROUP BY content_hash";
+    private static final String PROJECT_SUPERSEDED_BATCH_SQL = "WITH batch AS (DELETE FROM document_chunks WHERE project_id = ? " +
+            "AND uuid IN (SELECT c.uuid FROM document_chunks c JOIN project_index_versions v ON v.project_id = c.project_id " +
+            "WHERE c.project_id = ? AND c.index_version < v.live_version LIMIT ?) RETURNING content_hash) " +
+            "SELECT encode(content_hash, 'hex'), count(*) FROM batch GROUP BY content_hash";
+    private static final String HIDE_SQL = "UPDATE project_index_versions SET live_version = 0 WHERE project_id = ?";
+    private static final String DELETE_SQL = "DELETE FROM project_index_versions WHERE project_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Reserves a new version number of the project, above every version built before.
+     */
+    int allocate(String projectId) {
+        return jdbcTemplate.queryForObject(ALLOCATE_SQL, Integer.class, projectId);
+    }
+
+    /**
+     * The version searches read, 0 while the project has none yet.
+     */
+    int findLive(String projectId) {
+        List<Integer> live = jdbcTemplate.queryForList(LIVE_SQL, Integer.class, projectId);
+        return live.isEmpty() ? 0 : live.getFirst();
+    }
+
+    /**
+     * Locks the project's pointer row until the end of the transaction, so swaps of the project are serialized.
+     *
+     * @return the live version, 0 if the project has no pointer row
+     */
+    int lockLive(String projectId) {
+        List<Integer> live = jdbcTemplate.queryForList(LIVE_FOR_UPDATE_SQL, Integer.class, projectId);
+        return live.isEmpty() ? 0 : live.getFirst();
+    }
+
+    /**
+     * Copies the rows of the {@code fromVersion} into {@code toVersion}, except those of the given files.
+     *
+     * @return the number of rows copied
+     */
+    int carryOver(String projectId, int fromVersion, int toVersion, Collection<String> exceptFiles) {
+        return jdbcTemplate.update(CARRY_OVER_SQL, toVersion, projectId, fromVersion, projectId, exceptFiles.toArray(String[]::new));
+    }
+
+    void swap(String projectId, int version) {
+        jdbcTemplate.update(SWAP_SQL, version, projectId);
+    }
+
+    /**
+     * Deletes a batch of rows of versions older than the live one, of the project or, if null, of all projects.
+     * The hex content hashes of the deleted rows are added to {@code contentHashes}.
+     *
+     * @return the number of rows deleted
+     */
+    int deleteSuperseded(String projectId, int batchSize, Collection<String> contentHashes) {
+        long[] deleted = {0};
+        RowCallbackHandler collect = rs -> {
+            contentHashes.add(rs.getString(1));
+            deleted[0] += rs.getLong(2);
+        };
+        if (projectId != null) {
+            jdbcTemplate.query(PROJECT_SUPERSEDED_BATCH_SQL, collect, projectId, projectId, batchSize);
+        } else {
+            jdbcTemplate.query(SUPERSEDED_BATCH_SQL, collect, batchSize);
+        }
+        return (int) deleted[0];
+    }
+
+    /**
+     * Points the project at no version, which takes all of its chunks out of searches.
+     */
+    void hide(String projectId) {
+        jdbcTemplate.update(HIDE_SQL, projectId);
+    }
+
+    void delete(String projectId) {
+        jdbcTemplate.update(DELETE_SQL, projectId);
+    }
+}
@@ -0,0 +1,118 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code projects} rows, and the batched deletes that purge a project. Each batch deletes at most
+ * {@code batchSize} rows, so a purge never holds many row locks or writes a burst of WAL in one transaction.
+ */
+@Repository
+@RequiredArgsConstructor
+class ProjectLifecycleRepository {
+
+    // Returns no row for a project being purged, which is left as it is
+    private static final String REGISTER_SQL = "INSERT INTO projects (project_id) VALUES (?) " +
+            "ON CONFLICT (project_id) DO UPDATE SET last_accessed_at = now() WHERE projects.status = 'ACTIVE' " +
+            "RETURNING project_id";
+    private static final String STATUS_SQL = "SELECT status FROM projects WHERE project_id = ?";
+    private static final String STATUS_FOR_SHARE_SQL = STATUS_SQL + " FOR SHARE";
+    private static final String ACCESS_SQL = "UPDATE projects SET last_accessed_at = GREATEST(last_accessed_at, ?) " +
+            "WHERE project_id = ? AND status = 'ACTIVE'";
+    private static final String MARK_PURGING_SQL = "INSERT INTO projects (project_id, status) VALUES (?, 'PURGING') " +
+            "ON CONFLICT (project_id) DO UPDATE SET status = 'PURGING'";
+    private static final String TO_PURGE_SQL = "SELECT project_id FROM projects " +
+            "WHERE status = 'PURGING' OR (status = 'ACTIVE' AND last_accessed_at < ?)";
+    private static final String DELETE_SQL = "DELETE FROM projects WHERE project_id = ?";
+    // Content hashes of the deleted rows with their row count, to collect the content no row refers to anymore
+    private static final String CHUNKS_BATCH_SQL = "WITH batch AS (DELETE FROM document_chunks WHERE project_id = ? " +
+            "AND uuid IN (SELECT uuid FROM document_chunks WHERE project_id = ? LIMIT ?) RETURNING content_hash) " +
+            "SELECT encode(content_hash, 'hex'), count(*) FROM batch GROUP BY content_hash";
+    private static final String FILES_BATCH_SQL = "DELETE FROM document_files WHERE project_id = ? " +
+            "AND uuid IN (SELECT uuid FROM document_files WHERE project_id = ? LIMIT ?)";
+    private static final String FILE_PATHS_BATCH_SQL = "DELETE FROM document_file_paths WHERE project_id = ? " +
+            "AND id IN (SELECT id FROM document_file_paths WHERE project_id = ? LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Adds the project, or records an access to it if it exists.
+     *
+     * @return false if the project is being purged
+     */
+    boolean register(String projectId) {
+        return !jdbcTemplate.queryForList(REGISTER_SQL, String.class, projectId).isEmpty();
+    }
+
+    boolean isPurging(String projectId) {
+        return "PURGING".equals(status(STATUS_SQL, projectId));
+    }
+
+    /**
+     * Share-locks the project's row until the end of the transaction, so a purge cannot start before the
+     * transaction's writes to the project are committed.
+     *
+     * @return false if the project is being purged
+     */
+    boolean lockActive(String projectId) {
+        return !"PURGING".equals(status(STATUS_FOR_SHARE_SQL, projectId));
+    }
+
+    private String status(String sql, String projectId) {
+        List<String> status = jdbcTemplate.queryForList(sql, String.class, projectId);
+        return status.isEmpty() ? null : status.getFirst();
+    }
+
+    void recordAccesses(Map<String, Instant> accesses) {
+        List<Object[]> rows = new ArrayList<>();
+        accesses.forEach((projectId, accessedAt) -> rows.add(new Object[]{Timestamp.from(accessedAt), projectId}));
+        jdbcTemplate.batchUpdate(ACCESS_SQL, rows);
+    }
+
+    void markPurging(String projectId) {
+        jdbcTemplate.update(MARK_PURGING_SQL, projectId);
+    }
+
+    /**
+     * Projects whose purge was started, and active projects last accessed before {@code accessedBefore}.
+     */
+    List<String> findToPurge(Instant accessedBefore) {
+        return jdbcTemplate.queryForList(TO_PURGE_SQL, String.class, Timestamp.from(accessedBefore));
+    }
+
+    void delete(String projectId) {
+        jdbcTemplate.update(DELETE_SQL, projectId);
+    }
+
+    /**
+     * Deletes a batch of the project's chunks. The hex content hashes of the deleted chunks are added to
+     * {@code contentHashes}, whose content may not be referred to anymore.
+     *
+     * @return the number of chunks deleted, 0 once there are none left
+     */
+    int deleteChunks(String projectId, int batchSize, Collection<String> contentHashes) {
+        long[] deleted = {0};
+        jdbcTemplate.query(CHUNKS_BATCH_SQL, (RowCallbackHandler) rs -> {
+            contentHashes.add(rs.getString(1));
+            deleted[0] += rs.getLong(2);
+        }, projectId, projectId, batchSize);
+        return (int) deleted[0];
+    }
+
+    int deleteFiles(String projectId, int batchSize) {
+        return jdbcTemplate.update(FILES_BATCH_SQL, projectId, projectId, batchSize);
+    }
+
+    int deleteFilePaths(String projectId, int batchSize) {
+        return jdbcTemplate.update(FILE_PATHS_BATCH_SQL, projectId, projectId, batchSize);
+    }
+}
@@ -0,0 +1,162 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps storage bounded: projects are purged on request, or once they have not been ingested or searched for
+ * {@code app.projects.retention}. A purge takes the project out of searches at once and then deletes its rows in
+ * batches of {@code app.projects.purge.batch-size}, one transaction each with a pause in between, on a background
+ * thread. Every {@code app.projects.gc-interval} a sweep starts the purge of expired projects and resumes purges a
+ * restart interrupted.
+ * <p>
+ * Searches record their access in memory only; the accesses are written in one batch every
+ * {@code app.projects.access-flush-interval}, so reads cause no writes of their own.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+class ProjectLifecycleService {
+
+    private final PersistenceService persistenceService;
+
+    @Value("${app.projects.retention:30d}")
+    private Duration retention = Duration.ofDays(30);
+
+    @Value("${app.projects.gc-interval:1h}")
+    private Duration gcInterval = Duration.ofHours(1);
+
+    @Value("${app.projects.access-flush-interval:1m}")
+    private Duration accessFlushInterval = Duration.ofMinutes(1);
+
+    @Value("${app.projects.purge.batch-size:5000}")
+    private int batchSize = 5000;
+
+    @Value("${app.projects.purge.batch-pause:100ms}")
+    private Duration batchPause = Duration.ofMillis(100);
+
+    private final Map<String, Instant> pendingAccesses = new ConcurrentHashMap<>();
+    private final Set<String> purging = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "project-lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::flushAccesses, accessFlushInterval.toMillis(), accessFlushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::collectExpiredProjects, gcInterval.toMillis(), gcInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+        flushAccesses();
+    }
+
+    /**
+     * Adds the project before its first ingestion, or records the access of a re-ingestion.
+     */
+    void registerProject(String projectId) {
+        persistenceService.registerProject(projectId);
+    }
+
+    void recordAccess(String projectId) {
+        pendingAccesses.put(projectId, Instant.now());
+    }
+
+    /**
+     * Takes the project out of searches and deletes it in the background.
+     *
+     * @return false if the project is already being purged
+     */
+    boolean purge(String projectId) {
+        if (!purging.add(projectId)) {
+            return false;
+        }
+        try {
+            persistenceService.startPurge(projectId);
+        } catch (RuntimeException e) {
+            purging.remove(projectId);
+            throw e;
+        }
+        pendingAccesses.remove(projectId);
+        Thread.ofVirtual().name("project-purge").start(() -> {
+            try {
+                purgeBatches(projectId);
+            } finally {
+                purging.remove(projectId);
+            }
+        });
+        return true;
+    }
+
+    void purgeBatches(String projectId) {
+        try {
+            long deleted = 0;
+            int batch;
+            while ((batch = persistenceService.purgeBatch(projectId, batchSize)) > 0) {
+                deleted += batch;
+                Thread.sleep(batchPause);
+            }
+            persistenceService.dropPartitions(projectId);
+            persistenceService.finishPurge(projectId);
+            log.info("Purged project {} ({} rows deleted)", projectId, deleted);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Purge of project {} interrupted, it resumes with the next sweep", projectId);
+        } catch (Exception e) {
+            log.error("Error purging project {}, it resumes with the next sweep: {}", projectId, e.getMessage(), e);
+        }
+    }
+
+    void collectExpiredProjects() {
+        try {
+            // Accesses not flushed yet must not let a project in use look expired
+            flushAccesses();
+            Instant accessedBefore = retention.isZero() ? Instant.EPOCH : Instant.now().minus(retention);
+            for (String projectId : persistenceService.findProjectsToPurge(accessedBefore)) {
+                if (purge(projectId)) {
+                    log.info("Purging project {}, not accessed for {} or purge interrupted", projectId, retention);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error collecting expired projects: {}", e.getMessage(), e);
+        }
+    }
+
+    void flushAccesses() {
+        if (pendingAccesses.isEmpty()) {
+            return;
+        }
+        Map<String, Instant> accesses = new HashMap<>();
+        for (String projectId : pendingAccesses.keySet()) {
+            Instant accessedAt = pendingAccesses.remove(projectId);
+            if (accessedAt != null) {
+                accesses.put(projectId, accessedAt);
+            }
+        }
+        try {
+            persistenceService.recordProjectAccesses(accesses);
+        } catch (Exception e) {
+            // Kept for the next flush, unless a newer access replaced them meanwhile
+            accesses.forEach(pendingAccesses::putIfAbsent);
+            log.warn("Could not record accesses of {} projects: {}", accesses.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates and drops the per-project partitions of {@code document_chunks} and {@code document_files} (see {@code 08-partition-by-project.sql}). Partitions are named after a hash of the project id, which may
+ * contain characters that are not valid in identifiers.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+class ProjectPartitionManager {
+
+    static final String CHUNKS_TABLE = "document_chunks";
+    static final String FILES_TABLE = "document_files";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Set<String> partitionedProjects = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.partitions.detach.lock-timeout:2s}")
+    private Duration detachLockTimeout = Duration.ofSeconds(2);
+
+    @Value("${app.partitions.detach.max-attempts:10}")
+    private int detachMaxAttempts = 10;
+
+    static String partitionName(String table, String projectId) {
+        try {
+            byte[] hash = MessageDigest.getInstance("MD5").digest(projectId.getBytes(StandardCharsets.UTF_8));
+            return table + "_p_" + HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 algorithm not available", e);
+        }
+    }
+
+    /**
+     * Creates the project's partitions unless they exist. Must run outside of the write transaction, as adding a
+     * partition locks the parent table until commit. If they cannot be created, the project's rows go to the
+     * default partitions. Created partitions are remembered by this instance until {@link #forgetPartitions} or
+     * {@link #dropPartition}.
+     */
+    void ensurePartitions(String projectId) {
+        if (partitionedProjects.contains(projectId)) {
+            return;
+        }
+        try {
+            for (String table : List.of(CHUNKS_TABLE, FILES_TABLE)) {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(table, projectId)
+                                     + " PARTITION OF " + table + " FOR VALUES IN (" + literal(projectId) + ")");
+            }
+        } catch (DataAccessException e) {
+            // e.g. the default partition already holds rows of the project; they stay there and remain searchable
+            log.warn("Could not create partitions for project {}, writing to the default partition: {}", projectId, e.getMessage());
+            return;
+        }
+        partitionedProjects.add(projectId);
+    }
+
+    /**
+     * Has the next {@link #ensurePartitions} check the project's partitions again, e.g. after a write failed because
+     * another instance dropped them.
+     */
+    void forgetPartitions(String projectId) {
+        partitionedProjects.remove(projectId);
+    }
+
+    /**
+     * Detaches and drops the project's partition of {@code table}, which takes the place of deleting its rows.
+     * Rows referencing the partition must be deleted first. Must run outside of a transaction: detaching locks the
+     * parent table, and with it the searches of every project, until commit.
+     * <p>
+     * Without a default partition the detach runs {@code CONCURRENTLY}. PostgreSQL does not allow that next to a
+     * default partition, so then the detach runs on its own with a short {@code lock_timeout}, and is retried
+     * rather than queueing searches behind it while it waits for the lock.
+     *
+     * @return whether the project had a partition; if not, its rows are in the default partition
+     */
+    boolean dropPartition(String table, String projectId) {
+        String partition = partitionName(table, projectId);
+        partitionedProjects.remove(projectId);
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition);
+        if (!Boolean.TRUE.equals(exists)) {
+            return false;
+        }
+        if (hasDefaultPartition(table)) {
+            detachWithLockTimeout(table, partition);
+        } else {
+            jdbcTemplate.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition + " CONCURRENTLY");
+        }
+        jdbcTemplate.execute("DROP TABLE " + partition);
+        log.info("Dropped partition {} of project {}", partition, projectId);
+        return true;
+    }
+
+    private boolean hasDefaultPartition(String table) {
+        Boolean hasDefault = jdbcTemplate.queryForObject(
+                "SELECT partdefid <> 0 FROM pg_partitioned_table WHERE partrelid = ?::regclass", Boolean.class, table);
+        return Boolean.TRUE.equals(hasDefault);
+    }
+
+    private void detachWithLockTimeout(String table, String partition) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET lock_timeout = " + detachLockTimeout.toMillis());
+                        try {
+                            statement.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+                        } finally {
+                            statement.execute("RESET lock_timeout");
+                        }
+                    }
+                    return null;
+                });
+                return;
+            } catch (CannotAcquireLockException e) {
+                if (attempt >= detachMaxAttempts) {
+                    throw e;
+                }
+                log.debug("Detaching {} timed out waiting for its lock, retrying (attempt {}/{})", partition, attempt, detachMaxAttempts);
+                try {
+                    Thread.sleep(detachLockTimeout.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,271 @@
+package pureapps.appread.documentsvectorstorage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the tables churned by re-ingestion and purges lean: every {@code app.maintenance.check-interval} within one
+ * of the {@code app.maintenance.windows}, the dead tuple ratio and row count drift of each table and partition are
+ * read from {@code pg_stat_user_tables}, and
+ * <ul>
+ *     <li>a table with a dead tuple ratio above {@code app.maintenance.vacuum.dead-ratio} is vacuumed and analyzed,
+ *     one whose rows changed by more than {@code app.maintenance.analyze.modified-ratio} since its last analyze is
+ *     analyzed;</li>
+ *     <li>an index grown to {@code app.maintenance.reindex.growth-ratio} times its size when it was built is
+ *     reindexed concurrently;</li>
+ *     <li>the ivfflat vector index is retrained by {@link VectorIndexManager#rebuildIndex(JdbcTemplate)} once rows amounting to
+ *     {@code app.maintenance.retrain.churn-ratio} of its table were inserted or deleted since it was built, as its
+ *     lists no longer fit the vectors.</li>
+ * </ul>
+ * Tables and modifications below {@code app.maintenance.min-tuples} are left to autovacuum.
+ * A run holds the {@link MaintenanceLock} exclusively, so of several instances only one maintains the database at a
+ * time, and none while a load is written without the vector index. Sizes and churn as of each index's last build
+ * are kept in {@code index_maintenance_baselines}.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+class TableMaintenanceScheduler {
+
+    private static final String TABLE_FILTER = "(relname IN ('chunk_embeddings', 'chunk_contents', 'document_file_paths', " +
+            "'project_index_versions', 'projects') OR relname LIKE 'document\\_chunks\\_%' OR relname LIKE 'document\\_files\\_%')";
+    private static final String TABLE_STATS_SQL = "SELECT relname, n_live_tup, n_dead_tup, n_mod_since_analyze, " +
+            "n_tup_ins + n_tup_del FROM pg_stat_user_tables WHERE schemaname = ANY (current_schemas(false)) AND " + TABLE_FILTER;
+    private static final String INDEX_STATS_SQL = "SELECT s.indexrelname, s.relname, s.indexrelid::bigint, " +
+            "pg_relation_size(s.indexrelid) FROM pg_stat_user_indexes s JOIN pg_index i ON i.indexrelid = s.indexrelid " +
+            "WHERE i.indisvalid AND s.schemaname = ANY (current_schemas(false)) AND " + TABLE_FILTER.replace("relname", "s.relname");
+    private static final String INDEX_SQL = "SELECT c.oid::bigint, pg_relation_size(c.oid) FROM pg_class c " +
+            "WHERE c.relname = ? AND c.relkind = 'i' AND pg_table_is_visible(c.oid)";
+    private static final String BASELINES_SQL = "SELECT index_name, index_oid, size_bytes, churn FROM index_maintenance_baselines";
+    private static final String SAVE_BASELINE_SQL = "INSERT INTO index_maintenance_baselines " +
+            "(index_name, index_oid, size_bytes, churn, built_at) VALUES (?, ?, ?, ?, now()) ON CONFLICT (index_name) " +
+            "DO UPDATE SET index_oid = EXCLUDED.index_oid, size_bytes = EXCLUDED.size_bytes, churn = EXCLUDED.churn, built_at = now()";
+    private static final String DELETE_DROPPED_BASELINES_SQL = "DELETE FROM index_maintenance_baselines b WHERE NOT EXISTS " +
+            "(SELECT 1 FROM pg_class c WHERE c.relname = b.index_name AND c.relkind = 'i' AND pg_table_is_visible(c.oid))";
+
+    private final MaintenanceLock maintenanceLock;
+    private final VectorIndexManager vectorIndexManager;
+    private final VectorIndexSettings indexSettings;
+
+    @Value("${app.maintenance.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.maintenance.check-interval:15m}")
+    private Duration checkInterval = Duration.ofMinutes(15);
+
+    @Value("${app.maintenance.windows:}")
+    private List<String> windows = List.of();
+
+    @Value("${app.maintenance.zone:}")
+    private String zone = "";
+
+    @Value("${app.maintenance.min-tuples:1000}")
+    private long minTuples = 1000;
+
+    @Value("${app.maintenance.vacuum.dead-ratio:0.2}")
+    private double vacuumDeadRatio = 0.2;
+
+    @Value("${app.maintenance.analyze.modified-ratio:0.1}")
+    private double analyzeModifiedRatio = 0.1;
+
+    @Value("${app.maintenance.reindex.growth-ratio:2.0}")
+    private double reindexGrowthRatio = 2.0;
+
+    @Value("${app.maintenance.reindex.min-size:8MB}")
+    private DataSize reindexMinSize = DataSize.ofMegabytes(8);
+
+    @Value("${app.maintenance.retrain.churn-ratio:0.5}")
+    private double retrainChurnRatio = 0.5;
+
+    @Value("${app.vector.storage.mode:full}")
+    private VectorStorageMode storageMode = VectorStorageMode.FULL;
+
+    private Clock clock = Clock.systemDefaultZone();
+    private List<MaintenanceWindow> maintenanceWindows = List.of();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "table-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    record TableStats(String name, long liveTuples, long deadTuples, long modifiedSinceAnalyze, long churn) {
+    }
+
+    record IndexStats(String name, String table, long oid, long sizeBytes) {
+    }
+
+    record Baseline(long oid, long sizeBytes, long churn) {
+    }
+
+    /**
+     * A daily time range, which wraps around midnight if it ends before it starts.
+     */
+    record MaintenanceWindow(LocalTime start, LocalTime end) {
+
+        /**
+         * Parses a range such as {@code 01:00-05:30}.
+         */
+        static MaintenanceWindow parse(String window) {
+            String[] bounds = window.trim().split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("Maintenance window must look like 01:00-05:00, was: " + window);
+            }
+            return new MaintenanceWindow(LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim()));
+        }
+
+        boolean contains(LocalTime time) {
+            return start.isBefore(end)
+                    ? !time.isBefore(start) && time.isBefore(end)
+                    : !time.isBefore(start) || time.isBefore(end);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        maintenanceWindows = windows.stream().filter(window -> !window.isBlank()).map(MaintenanceWindow::parse).toList();
+        if (!zone.isBlank()) {
+            clock = Clock.system(ZoneId.of(zone));
+        }
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::maintain, checkInterval.toMillis(), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Whether maintenance may run now; always if no window is configured.
+     */
+    boolean inWindow() {
+        LocalTime now = LocalTime.now(clock);
+        return maintenanceWindows.isEmpty() || maintenanceWindows.stream().anyMatch(window -> window.contains(now));
+    }
+
+    void maintain() {
+        if (!inWindow()) {
+            return;
+        }
+        try {
+            if (!maintenanceLock.runExclusive(this::maintain)) {
+                log.debug("Table maintenance is running on another instance, or a load is deferring the vector index");
+                return;
+            }
+            // Index builds of any instance that found the lock taken during the run
+            vectorIndexManager.requestMaintenance();
+        } catch (Exception e) {
+            log.error("Error maintaining tables: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * One maintenance run, on a session holding the maintenance lock.
+     */
+    void maintain(JdbcTemplate session) {
+        Map<String, TableStats> tables = new HashMap<>();
+        session.query(TABLE_STATS_SQL, rs -> {
+            TableStats stats = new TableStats(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5));
+            tables.put(stats.name(), stats);
+        });
+        for (TableStats table : tables.values()) {
+            if (!inWindow()) {
+                log.info("Maintenance window closed, remaining tables are maintained in the next one");
+                return;
+            }
+            if (needsVacuum(table)) {
+                log.info("Vacuuming {}: {} dead of {} tuples", table.name(), table.deadTuples(), table.liveTuples() + table.deadTuples());
+                session.execute("VACUUM (ANALYZE) \"" + table.name() + "\"");
+            } else if (needsAnalyze(table)) {
+                log.info("Analyzing {}: {} of {} rows modified", table.name(), table.modifiedSinceAnalyze(), table.liveTuples());
+                session.execute("ANALYZE \"" + table.name() + "\"");
+            }
+        }
+
+        session.update(DELETE_DROPPED_BASELINES_SQL);
+        Map<String, Baseline> baselines = new HashMap<>();
+        session.query(BASELINES_SQL, rs -> {
+            baselines.put(rs.getString(1), new Baseline(rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+        });
+        List<IndexStats> indexes = session.query(INDEX_STATS_SQL,
+                (rs, rowNum) -> new IndexStats(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4)));
+        String vectorIndex = vectorIndexManager.managedIndexName();
+        boolean ivfflat = indexSettings.typeFor(storageMode) == VectorIndexType.IVFFLAT;
+        for (IndexStats index : indexes) {
+            TableStats table = tables.get(index.table());
+            if (table == null) {
+                continue;
+            }
+            Baseline baseline = baselines.get(index.name());
+            // No baseline yet, the index was rebuilt elsewhere, or the statistics were reset
+            if (baseline == null || baseline.oid() != index.oid() || baseline.churn() > table.churn()) {
+                saveBaseline(session, index.name(), table.churn());
+                continue;
+            }
+            if (!inWindow()) {
+                log.info("Maintenance window closed, remaining indexes are maintained in the next one");
+                return;
+            }
+            boolean retrain = ivfflat && index.name().equals(vectorIndex) && needsRetrain(table, baseline);
+            if (retrain || needsReindex(index, baseline)) {
+                rebuild(session, index, index.name().equals(vectorIndex), table.churn(), baseline);
+            }
+        }
+    }
+
+    private void rebuild(JdbcTemplate session, IndexStats index, boolean vectorIndex, long churn, Baseline baseline) {
+        log.info("Rebuilding index {}: {} bytes, {} when built, {} rows changed since", index.name(), index.sizeBytes(),
+                baseline.sizeBytes(), churn - baseline.churn());
+        if (vectorIndex) {
+            // Builds and swaps in the index on this session, with lists fit to the current rows
+            if (!vectorIndexManager.rebuildIndex(session)) {
+                return;
+            }
+        } else {
+            session.execute("REINDEX INDEX CONCURRENTLY \"" + index.name() + "\"");
+        }
+        saveBaseline(session, index.name(), churn);
+    }
+
+    private void saveBaseline(JdbcTemplate session, String indexName, long churn) {
+        List<long[]> index = session.query(INDEX_SQL, (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)}, indexName);
+        if (!index.isEmpty()) {
+            session.update(SAVE_BASELINE_SQL, indexName, index.getFirst()[0], index.getFirst()[1], churn);
+        }
+    }
+
+    boolean needsVacuum(TableStats table) {
+        long tuples = table.liveTuples() + table.deadTuples();
+        return table.deadTuples() >= minTuples && table.deadTuples() > vacuumDeadRatio * tuples;
+    }
+
+    boolean needsAnalyze(TableStats table) {
+        return table.modifiedSinceAnalyze() >= minTuples && table.modifiedSinceAnalyze() > analyzeModifiedRatio * table.liveTuples();
+    }
+
+    boolean needsReindex(IndexStats index, Baseline baseline) {
+        return index.sizeBytes() >= reindexMinSize.toBytes() && index.sizeBytes() >= reindexGrowthRatio * baseline.sizeBytes();
+    }
+
+    boolean needsRetrain(TableStats table, Baseline baseline) {
+        return table.churn() - baseline.churn() >= retrainChurnRatio * Math.max(table.liveTuples(), 1);
+    }
+}
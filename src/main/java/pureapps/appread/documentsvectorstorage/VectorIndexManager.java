@@ -0,0 +1,317 @@
+package pureapps.appread.documentsvectorstorage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Owns the lifecycle of the ANN index over {@code chunk_embeddings} for the configured storage mode, index type and
+ * embedding dimensions. The vectors of all projects share it, as identical content is only embedded once.
+ * <ul>
+ *     <li>The index is created if it is missing, so switching any of these settings does not leave searches
+ *     without one; the index of the other type for the same mode and dimensions is then dropped, so the planner
+ *     cannot pick the one that was switched away from.</li>
+ *     <li>Loads that at least double the indexed rows are written without the index, which is rebuilt afterwards:
+ *     bulk inserts into a live ANN index are far slower than one build over the loaded rows. As every project's
+ *     searches scan exactly while the shared index is gone, this is only done while the whole index is small
+ *     ({@code app.vector.index.defer.max-indexed-rows}).</li>
+ *     <li>ivfflat lists are derived from the number of rows, and the index is rebuilt once the data has outgrown
+ *     (or shrunk away from) them; an ivfflat index is never built over an empty table, whose centroids
+ *     would be trained on nothing.</li>
+ * </ul>
+ * Builds run {@code CONCURRENTLY} on a background thread, so neither searches nor writes are blocked, and only while
+ * holding the {@link MaintenanceLock} exclusively. Deferred loads hold it shared, so no instance builds or swaps the
+ * index while any instance writes without it, and no instance drops it while another builds it.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+class VectorIndexManager {
+
+    private static final Pattern LISTS_OPTION = Pattern.compile("lists=(\\d+)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorIndexSettings indexSettings;
+    private final MaintenanceLock maintenanceLock;
+    // Guards the deferral count and hold; never held across a build
+    private final ReentrantLock deferralLock = new ReentrantLock();
+    private int deferredLoads;
+    private MaintenanceLock.SharedHold deferral;
+    private final AtomicBoolean maintenanceRunning = new AtomicBoolean();
+    private final AtomicBoolean maintenanceRequested = new AtomicBoolean();
+    private Executor maintenanceExecutor = task -> Thread.ofVirtual().name("vector-index-maintenance").start(task);
+
+    @Value("${app.vector.index.manage:true}")
+    private boolean manageIndexes = true;
+
+    @Value("${app.vector.storage.mode:full}")
+    private VectorStorageMode storageMode = VectorStorageMode.FULL;
+
+    @Value("${app.embedding.dimensions:1536}")
+    private int dimensions = 1536;
+
+    @Value("${app.vector.index.defer.min-rows:10000}")
+    private int deferMinRows = 10000;
+
+    @Value("${app.vector.index.defer.max-indexed-rows:50000}")
+    private long deferMaxIndexedRows = 50000;
+
+    @Value("${app.vector.index.ivfflat.rebuild-ratio:2.0}")
+    private double rebuildRatio = 2.0;
+
+    @Value("${app.vector.index.swap-lock-timeout:2s}")
+    private Duration swapLockTimeout = Duration.ofSeconds(2);
+
+    @EventListener(ApplicationReadyEvent.class)
+    void ensureIndexes() {
+        requestMaintenance();
+    }
+
+    /**
+     * Drops the index before a load of {@code rows} rows if the load would at least double the indexed rows.
+     * Searches of all projects meanwhile scan the table exactly, so the index is only dropped while it covers at most
+     * {@code deferMaxIndexedRows} rows fleet-wide; loads into a larger index maintain it as they go, as do loads
+     * while the index is being built or the tables maintained.
+     *
+     * @return whether the index was deferred; must be passed to {@link #afterBulkLoad(boolean)}
+     */
+    boolean beforeBulkLoad(int rows) {
+        if (!manageIndexes || rows < deferMinRows) {
+            return false;
+        }
+        deferralLock.lock();
+        try {
+            if (deferredLoads == 0) {
+                long indexedRows = indexedRows(jdbcTemplate, storageMode, dimensions);
+                if (rows < indexedRows || indexedRows > deferMaxIndexedRows) {
+                    return false;
+                }
+                deferral = maintenanceLock.tryShared();
+                if (deferral == null) {
+                    log.debug("Not deferring the vector index for a load of {} chunks while it is being maintained", rows);
+                    return false;
+                }
+            }
+            for (VectorIndexType type : VectorIndexType.values()) {
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + storageMode.indexName(dimensions, type));
+            }
+            deferredLoads++;
+            log.info("Deferring vector index maintenance during a load of {} chunks", rows);
+            return true;
+        } catch (Exception e) {
+            log.error("Error deferring vector index for a bulk load: {}", e.getMessage(), e);
+            releaseDeferral();
+            return false;
+        } finally {
+            deferralLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds a deferred index once the last deferred load is done, and retunes the index after other loads.
+     */
+    void afterBulkLoad(boolean deferred) {
+        if (deferred) {
+            deferralLock.lock();
+            try {
+                if (--deferredLoads > 0) {
+                    return;
+                }
+                releaseDeferral();
+            } finally {
+                deferralLock.unlock();
+            }
+        }
+        requestMaintenance();
+    }
+
+    private void releaseDeferral() {
+        if (deferredLoads == 0 && deferral != null) {
+            deferral.close();
+            deferral = null;
+        }
+    }
+
+    /**
+     * Runs {@link #maintainIndex} in the background; requests arriving while it runs are coalesced into one more run.
+     */
+    void requestMaintenance() {
+        if (!manageIndexes) {
+            return;
+        }
+        maintenanceRequested.set(true);
+        if (maintenanceRunning.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(this::runMaintenance);
+        }
+    }
+
+    private void runMaintenance() {
+        try {
+            while (maintenanceRequested.getAndSet(false)) {
+                maintainIndex(storageMode, dimensions);
+            }
+        } finally {
+            maintenanceRunning.set(false);
+            if (maintenanceRequested.get()) {
+                requestMaintenance();
+            }
+        }
+    }
+
+    /**
+     * Maintains the index unless the maintenance lock is taken. A deferring instance requests maintenance after its
+     * last load, and a table maintenance run after it is done, so the skipped work is picked up there.
+     */
+    void maintainIndex(VectorStorageMode mode, int dimensions) {
+        try {
+            if (!maintenanceLock.runExclusive(session -> maintainIndex(session, mode, dimensions))) {
+                log.debug("Vector index maintenance skipped while a load defers the index or the tables are maintained");
+            }
+        } catch (Exception e) {
+            // Searches still work without the index, only slower; the next load retries
+            log.error("Error maintaining vector index for {} {}: {}", mode, dimensions, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the index if missing, or replaces it if its ivfflat lists no longer fit, on a session holding the
+     * maintenance lock.
+     */
+    void maintainIndex(JdbcTemplate session, VectorStorageMode mode, int dimensions) {
+        VectorIndexType type = indexSettings.typeFor(mode);
+        String indexName = mode.indexName(dimensions, type);
+        long rows = indexedRows(session, mode, dimensions);
+        if (!indexExists(session, indexName)) {
+            if (type == VectorIndexType.IVFFLAT && rows == 0) {
+                log.debug("Not building {} before rows exist, as ivfflat lists are trained on the indexed rows", indexName);
+                return;
+            }
+            build(session, indexName, mode.indexDefinition(dimensions, type, indexSettings.storageParameters(type, rows)));
+        } else if (type == VectorIndexType.IVFFLAT && listsOutgrown(session, indexName, rows)) {
+            replace(session, indexName, mode.indexDefinition(dimensions, type, indexSettings.storageParameters(type, rows)));
+        }
+        for (VectorIndexType other : VectorIndexType.values()) {
+            if (other != type) {
+                session.execute("DROP INDEX CONCURRENTLY IF EXISTS " + mode.indexName(dimensions, other));
+            }
+        }
+    }
+
+    /**
+     * The index searches use with the current settings.
+     */
+    String managedIndexName() {
+        return storageMode.indexName(dimensions, indexSettings.typeFor(storageMode));
+    }
+
+    /**
+     * Builds the index anew next to the existing one and swaps it in, which compacts it and retrains ivfflat lists
+     * on the current rows. Searches keep using the existing index until the swap. Runs on {@code session}, which
+     * must hold the maintenance lock, so no load is deferring the index meanwhile.
+     *
+     * @return whether the index was rebuilt; not if the index does not exist
+     */
+    boolean rebuildIndex(JdbcTemplate session) {
+        if (!manageIndexes) {
+            return false;
+        }
+        VectorIndexType type = indexSettings.typeFor(storageMode);
+        String indexName = storageMode.indexName(dimensions, type);
+        if (!indexExists(session, indexName)) {
+            return false;
+        }
+        long rows = indexedRows(session, storageMode, dimensions);
+        replace(session, indexName, storageMode.indexDefinition(dimensions, type, indexSettings.storageParameters(type, rows)));
+        return true;
+    }
+
+    /**
+     * Builds the new index concurrently under a temporary name, then drops the old one and renames the new one in a
+     * single transaction, so searches always find one of them. The drop waits for searches using the old index
+     * with a short {@code lock_timeout}, rather than queueing all later searches behind it; if it times out, the new
+     * index is dropped again and the old one kept until the next rebuild.
+     */
+    private void replace(JdbcTemplate session, String indexName, String definition) {
+        String rebuildName = indexName + "_rebuild";
+        build(session, rebuildName, definition);
+        try {
+            session.execute((ConnectionCallback<Void>) connection -> {
+                connection.setAutoCommit(false);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LOCAL lock_timeout = " + swapLockTimeout.toMillis());
+                    statement.execute("DROP INDEX IF EXISTS " + indexName);
+                    statement.execute("ALTER INDEX " + rebuildName + " RENAME TO " + indexName);
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            session.execute("DROP INDEX CONCURRENTLY IF EXISTS " + rebuildName);
+            throw e;
+        }
+    }
+
+    private void build(JdbcTemplate session, String indexName, String definition) {
+        long start = System.nanoTime();
+        log.info("Building vector index {} {}", indexName, definition);
+        // A failed concurrent build leaves an invalid index behind, which IF NOT EXISTS would keep
+        session.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        session.execute("CREATE INDEX CONCURRENTLY " + indexName + " " + definition);
+        log.info("Built vector index {} in {} ms", indexName, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private boolean listsOutgrown(JdbcTemplate session, String indexName, long rows) {
+        List<String> options = session.queryForList(
+                "SELECT array_to_string(reloptions, ',') FROM pg_class WHERE relname = ?", String.class, indexName);
+        Matcher matcher = LISTS_OPTION.matcher(options.isEmpty() || options.getFirst() == null ? "" : options.getFirst());
+        if (!matcher.find()) {
+            return false;
+        }
+        int lists = Integer.parseInt(matcher.group(1));
+        int target = indexSettings.lists(rows);
+        return target >= lists * rebuildRatio || target * rebuildRatio <= lists;
+    }
+
+    /**
+     * Rows covered by the index: the index's own estimate if it exists (kept current by autovacuum), an exact count
+     * otherwise.
+     */
+    private long indexedRows(JdbcTemplate session, VectorStorageMode mode, int dimensions) {
+        String indexName = mode.indexName(dimensions, indexSettings.typeFor(mode));
+        List<Float> estimate = session.queryForList(
+                "SELECT reltuples FROM pg_class WHERE relname = ?", Float.class, indexName);
+        if (!estimate.isEmpty() && estimate.getFirst() != null && estimate.getFirst() >= 0) {
+            return estimate.getFirst().longValue();
+        }
+        Long count = session.queryForObject(
+                "SELECT count(*) FROM chunk_embeddings WHERE vector_dims(embedding) = " + dimensions, Long.class);
+        return count != null ? count : 0;
+    }
+
+    private boolean indexExists(JdbcTemplate session, String indexName) {
+        Boolean exists = session.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+                "WHERE c.relname = ? AND i.indisvalid)", Boolean.class, indexName);
+        return Boolean.TRUE.equals(exists);
+    }
+}
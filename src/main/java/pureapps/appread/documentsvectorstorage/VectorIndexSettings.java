@@ -0,0 +1,83 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Index type and build parameters of the ANN indexes, and the per-query search parameter applied to each search.
+ */
+@Component
+class VectorIndexSettings {
+
+    @Value("${app.vector.index.type:}")
+    private String type = "";
+
+    @Value("${app.vector.index.ivfflat.lists:0}")
+    private int lists;
+
+    @Value("${app.vector.index.hnsw.m:16}")
+    private int m = 16;
+
+    @Value("${app.vector.index.hnsw.ef-construction:64}")
+    private int efConstruction = 64;
+
+    @Value("${app.vector.search.ivfflat.probes:10}")
+    private int probes = 10;
+
+    @Value("${app.vector.search.hnsw.ef-search:40}")
+    private int efSearch = 40;
+
+    @Value("${app.vector.search.iterative-scan:relaxed_order}")
+    private String iterativeScan = "relaxed_order";
+
+    /**
+     * The configured index type, or the mode's default if none is configured.
+     */
+    VectorIndexType typeFor(VectorStorageMode mode) {
+        return type.isBlank() ? mode.defaultIndexType() : VectorIndexType.valueOf(type.trim().toUpperCase());
+    }
+
+    /**
+     * Build parameters for an index over {@code rows} rows.
+     */
+    String storageParameters(VectorIndexType indexType, long rows) {
+        return switch (indexType) {
+            case IVFFLAT -> "lists = " + lists(rows);
+            case HNSW -> "m = " + m + ", ef_construction = " + efConstruction;
+        };
+    }
+
+    /**
+     * The configured number of ivfflat lists, or if none is configured pgvector's recommendation for the data
+     * size: rows / 1000 up to a million rows, sqrt(rows) beyond.
+     */
+    int lists(long rows) {
+        if (lists > 0) {
+            return lists;
+        }
+        return (int) Math.max(1, rows <= 1_000_000 ? rows / 1000 : Math.sqrt(rows));
+    }
+
+    /**
+     * Value of the index type's search parameter for a query that needs {@code rows} rows from the index.
+     * An HNSW scan returns at most ef_search rows, so it is raised to the number of rows needed.
+     */
+    int searchValue(VectorIndexType indexType, int rows) {
+        return switch (indexType) {
+            case IVFFLAT -> probes;
+            case HNSW -> Math.max(efSearch, rows);
+        };
+    }
+
+    /**
+     * Value of the index type's iterative scan setting, or null if iterative scans are turned off. ivfflat only
+     * supports {@code relaxed_order}.
+     */
+    String iterativeScan(VectorIndexType indexType) {
+        String mode = iterativeScan.trim().toLowerCase();
+        if (mode.isEmpty() || mode.equals("off")) {
+            return null;
+        }
+        return indexType == VectorIndexType.IVFFLAT ? "relaxed_order" : mode;
+    }
+}
@@ -0,0 +1,30 @@
+package pureapps.appread.documentsvectorstorage;
+
+/**
+ * pgvector ANN index access methods, each with the session setting that trades recall for latency at query time,
+ * and the one that lets a filtered scan continue past its first batch of rows (pgvector 0.8+).
+ */
+enum VectorIndexType {
+
+    /** Inverted lists over k-means centroids; cheap to build, but the centroids are trained on the rows present at build time. */
+    IVFFLAT("ivfflat.probes", "ivfflat.iterative_scan"),
+
+    /** Layered proximity graph; no training step, better recall/latency trade-off, slower to build and larger. */
+    HNSW("hnsw.ef_search", "hnsw.iterative_scan");
+
+    private final String searchParameter;
+    private final String iterativeScanParameter;
+
+    VectorIndexType(String searchParameter, String iterativeScanParameter) {
+        this.searchParameter = searchParameter;
+        this.iterativeScanParameter = iterativeScanParameter;
+    }
+
+    String searchParameter() {
+        return searchParameter;
+    }
+
+    String iterativeScanParameter() {
+        return iterativeScanParameter;
+    }
+}
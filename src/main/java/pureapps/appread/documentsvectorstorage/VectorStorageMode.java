@@ -0,0 +1,60 @@
+package pureapps.appread.documentsvectorstorage;
+
+/**
+ * How the ANN index stores embeddings. Quantized modes index a compact form of the embedding for candidate
+ * generation; the candidates are re-ranked against the full-precision {@code embedding} column.
+ */
+enum VectorStorageMode {
+
+    /** Index over the float32 vectors themselves. */
+    FULL(null,
+            "(embedding::vector(%1$d)) vector_cosine_ops", VectorIndexType.IVFFLAT),
+
+    /** Index over half-precision vectors: half the index size, recall is practically unchanged. */
+    HALFVEC("(embedding::halfvec(%1$d)) <=> CAST(:queryEmbedding AS halfvec(%1$d))",
+            "(embedding::halfvec(%1$d)) halfvec_cosine_ops", VectorIndexType.HNSW),
+
+    /** Index over one bit per dimension (Hamming distance): 32x smaller, needs re-ranking of more candidates. */
+    BINARY("(binary_quantize(embedding)::bit(%1$d)) <~> binary_quantize(CAST(:queryEmbedding AS vector(%1$d)))",
+            "(binary_quantize(embedding)::bit(%1$d)) bit_hamming_ops", VectorIndexType.HNSW);
+
+    private final String candidateDistance;
+    private final String indexExpression;
+    private final VectorIndexType defaultIndexType;
+
+    VectorStorageMode(String candidateDistance, String indexExpression, VectorIndexType defaultIndexType) {
+        this.candidateDistance = candidateDistance;
+        this.indexExpression = indexExpression;
+        this.defaultIndexType = defaultIndexType;
+    }
+
+    VectorIndexType defaultIndexType() {
+        return defaultIndexType;
+    }
+
+    boolean isQuantized() {
+        return candidateDistance != null;
+    }
+
+    /**
+     * The distance expression ordering candidates; it must match the expression of the quantized index to use it.
+     */
+    String candidateDistance(int dimensions) {
+        return String.format(candidateDistance, dimensions);
+    }
+
+    /**
+     * Partial index over the {@code chunk_embeddings} rows of one dimensionality; the embedding column itself is
+     * dimensionless, so vectors of several models can coexist, each with its own index.
+     */
+    String indexDefinition(int dimensions, VectorIndexType type, String storageParameters) {
+        return "ON chunk_embeddings USING "
+               + type.name().toLowerCase() + " (" + String.format(indexExpression, dimensions) + ")"
+               + " WITH (" + storageParameters + ")"
+               + " WHERE vector_dims(embedding) = " + dimensions;
+    }
+
+    String indexName(int dimensions, VectorIndexType type) {
+        return "chunk_embeddings_" + name().toLowerCase() + "_" + type.name().toLowerCase() + "_" + dimensions + "_idx";
+    }
+}
@@ -1,16 +1,17 @@
 package pureapps.appread.documentsvectorstorage.dto;
 
-import lombok.Getter;
-import lombok.Setter;
+import lombok.Value;
 
-@Setter
-@Getter
+/**
+ * A line range of a source file, as cut by the chunker. Immutable, as its content is hashed and embedded as is.
+ */
+@Value
 public class DocumentChunk {
 
-    private String content;
-    private String filePath;
-    private int startLine;
-    private int endLine;
-    private String fileChecksum;
+    String content;
+    String filePath;
+    int startLine;
+    int endLine;
+    String fileChecksum;
 
 }
@@ -1,15 +1,97 @@
 package pureapps.appread.documentsvectorstorage.dto;
 
 import lombok.Getter;
-import lombok.Setter;
-
-@Getter
-@Setter
-public class DocumentChunkWithEmbedding {
-    private String content;
-    private String filePath;
-    private int startLine;
-    private int endLine;
-    private String fileChecksum;
-    private float[] embedding;
-}
\ No newline at end of file
+import lombok.experimental.Delegate;
+import pureapps.appread.vectorarena.VectorSlot;
+
+import java.util.Optional;
+
+/**
+ * A chunk with its embedding attached. The chunk itself is not copied: the same {@link DocumentChunk}
+ * instance produced by the chunker is carried through embedding and persistence.
+ * <p>
+ * The embedding is attached on construction, as a heap array or an off-heap slot, and cannot be replaced; the
+ * array is not copied, so it must not be modified once attached. Only releasing an off-heap slot detaches it.
+ */
+public final class DocumentChunkWithEmbedding {
+
+    @Getter
+    @Delegate(types = DocumentChunk.class)
+    private final DocumentChunk chunk;
+    private final float[] embedding;
+    private volatile VectorSlot embeddingSlot;
+
+    /**
+     * A chunk whose content is already stored with an embedding, which it reuses.
+     */
+    public DocumentChunkWithEmbedding(DocumentChunk chunk) {
+        this(chunk, null, null);
+    }
+
+    public DocumentChunkWithEmbedding(DocumentChunk chunk, float[] embedding) {
+        this(chunk, embedding, null);
+    }
+
+    public DocumentChunkWithEmbedding(DocumentChunk chunk, VectorSlot embeddingSlot) {
+        this(chunk, null, embeddingSlot);
+    }
+
+    private DocumentChunkWithEmbedding(DocumentChunk chunk, float[] embedding, VectorSlot embeddingSlot) {
+        this.chunk = chunk;
+        this.embedding = embedding;
+        this.embeddingSlot = embeddingSlot;
+    }
+
+    /**
+     * The embedding as a heap array; copied out of the off-heap slot if the chunk holds one.
+     */
+    public float[] getEmbedding() {
+        VectorSlot slot = embeddingSlot;
+        return slot != null ? slot.toArray() : embedding;
+    }
+
+    public Optional<VectorSlot> getEmbeddingSlot() {
+        return Optional.ofNullable(embeddingSlot);
+    }
+
+    /**
+     * A chunk without an embedding refers to content that is already stored with one.
+     */
+    public boolean hasEmbedding() {
+        return embeddingSlot != null || embedding != null;
+    }
+
+    public int getEmbeddingDimensions() {
+        VectorSlot slot = embeddingSlot;
+        if (slot != null) {
+            return slot.dimensions();
+        }
+        return embedding != null ? embedding.length : 0;
+    }
+
+    /**
+     * Returns an off-heap embedding to its arena once it has been persisted; the chunk has no embedding afterwards,
+     * so it cannot read the slot once the arena hands it out again.
+     */
+    public void releaseEmbedding() {
+        VectorSlot slot = embeddingSlot;
+        if (slot != null) {
+            embeddingSlot = null;
+            slot.close();
+        }
+    }
+
+    /**
+     * For chunks that outlive the ingestion that embedded them: a copy of this chunk with its off-heap embedding
+     * on the heap, whose slot is returned to the arena. A chunk without a slot is returned as is.
+     */
+    public DocumentChunkWithEmbedding withEmbeddingOnHeap() {
+        VectorSlot slot = embeddingSlot;
+        if (slot == null) {
+            return this;
+        }
+        DocumentChunkWithEmbedding onHeap = new DocumentChunkWithEmbedding(chunk, slot.toArray());
+        releaseEmbedding();
+        return onHeap;
+    }
+}
@@ -0,0 +1,19 @@
+package pureapps.appread.documentsvectorstorage.dto;
+
+/**
+ * A chunk found by a similarity search, with its cosine distance to the query.
+ */
+public record ScoredDocumentChunk(String projectId, String filePath, int startLine, int endLine, String content,
+                                  String fileChecksum, double distance) {
+
+    /**
+     * Cosine similarity to the query, 1 for the same direction.
+     */
+    public double similarity() {
+        return 1 - distance;
+    }
+
+    public DocumentChunk toDocumentChunk() {
+        return new DocumentChunk(content, filePath, startLine, endLine, fileChecksum);
+    }
+}
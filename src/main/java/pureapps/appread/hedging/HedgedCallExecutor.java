@@ -0,0 +1,207 @@
+package pureapps.appread.hedging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Issues a duplicate ("hedged") request when a call is slower than the configured percentile of recent
+ * latencies for the same operation, and returns whichever response arrives first.
+ * <p>
+ * Hedges are paid for from a token bucket that every call refills by {@code budgetRatio}, so the
+ * extra request rate stays under that fraction of the primary rate even when the provider is slow
+ * across the board. A caller behind a concurrency limiter also passes a slot for the hedge; without a free slot no
+ * hedge is sent. The losing call is not aborted on the wire, its result is simply discarded, so the slot is only
+ * given back once both calls completed: the caller gives back its own slot when the winner returns, and the hedge's
+ * slot then stands for whichever call is still in flight, so the limiter keeps counting it.
+ */
+@Slf4j
+public class HedgedCallExecutor {
+
+    public record Settings(boolean enabled, double percentile, Duration minDelay, double budgetRatio,
+                           int maxBurst, int windowSize, int minSamples) {
+    }
+
+    private static final Runnable NO_SLOT_NEEDED = () -> {
+    };
+
+    private final String name;
+    private final Settings settings;
+    private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+    private final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private final Object budgetLock = new Object();
+    private double budget;
+
+    private Counter hedgeCounter;
+    private Counter hedgeWinCounter;
+
+    public HedgedCallExecutor(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+    }
+
+    public static HedgedCallExecutor disabled(String name) {
+        return new HedgedCallExecutor(name, new Settings(false, 0.95, Duration.ZERO, 0, 0, 1, 0));
+    }
+
+    public HedgedCallExecutor bindTo(MeterRegistry registry) {
+        hedgeCounter = Counter.builder("appread.model.hedges").tag("client", name)
+                .description("Duplicate requests issued for slow calls").register(registry);
+        hedgeWinCounter = Counter.builder("appread.model.hedge-wins").tag("client", name)
+                .description("Hedged requests that answered before the original").register(registry);
+        return this;
+    }
+
+    /**
+     * Runs the call, hedging it if it is slow.
+     *
+     * @param operation groups calls with comparable latency (e.g. by request size); each group has its own threshold
+     * @param call      the idempotent call to run
+     */
+    public <T> T call(String operation, Supplier<T> call) {
+        return call(operation, call, () -> NO_SLOT_NEEDED);
+    }
+
+    /**
+     * Runs the call, hedging it if it is slow and {@code hedgeSlot} grants a slot for the hedge.
+     *
+     * @param hedgeSlot takes a slot for the hedge and returns the action that gives it back, or returns null if
+     *                  no slot is free; called on the calling thread. The slot is given back once both the call
+     *                  and its hedge completed, so it covers the loser until it is done
+     */
+    public <T> T call(String operation, Supplier<T> call, Supplier<Runnable> hedgeSlot) {
+        if (!settings.enabled()) {
+            return call.get();
+        }
+
+        LatencyTracker tracker = trackers.computeIfAbsent(operation, key -> new LatencyTracker(settings.windowSize()));
+        refillBudget();
+
+        CompletableFuture<T> primary = CompletableFuture.supplyAsync(timed(call, tracker), executorService);
+        long delayNanos = hedgeDelayNanos(tracker);
+        if (delayNanos < 0) {
+            return await(primary);
+        }
+
+        try {
+            return primary.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (!tryConsumeBudget()) {
+                return await(primary);
+            }
+            Runnable releaseSlot = hedgeSlot.get();
+            if (releaseSlot == null) {
+                refundBudget();
+                log.debug("{} call for {} exceeded {} ms, no capacity to hedge it", name, operation, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                return await(primary);
+            }
+            log.debug("{} call for {} exceeded {} ms, issuing hedged request", name, operation, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+            increment(hedgeCounter);
+            CompletableFuture<T> hedge = CompletableFuture.supplyAsync(timed(call, tracker), executorService);
+            CompletableFuture.allOf(primary, hedge).whenComplete((result, failure) -> releaseSlot.run());
+            return await(firstSuccessful(primary, hedge));
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name + " call", e);
+        }
+    }
+
+    private long hedgeDelayNanos(LatencyTracker tracker) {
+        if (tracker.sampleCount() < settings.minSamples()) {
+            return -1;
+        }
+        return Math.max(settings.minDelay().toNanos(), tracker.percentile(settings.percentile()));
+    }
+
+    private <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> primary, CompletableFuture<T> hedge) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        primary.whenComplete((result, failure) -> {
+            if (failure == null) {
+                winner.complete(result);
+            } else if (!firstFailure.compareAndSet(null, failure)) {
+                winner.completeExceptionally(failure);
+            }
+        });
+        hedge.whenComplete((result, failure) -> {
+            if (failure == null) {
+                if (winner.complete(result)) {
+                    increment(hedgeWinCounter);
+                }
+            } else if (!firstFailure.compareAndSet(null, failure)) {
+                winner.completeExceptionally(firstFailure.get());
+            }
+        });
+        return winner;
+    }
+
+    private static <T> Supplier<T> timed(Supplier<T> call, LatencyTracker tracker) {
+        return () -> {
+            long start = System.nanoTime();
+            T result = call.get();
+            tracker.record(System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    private void refillBudget() {
+        synchronized (budgetLock) {
+            budget = Math.min(settings.maxBurst(), budget + settings.budgetRatio());
+        }
+    }
+
+    private boolean tryConsumeBudget() {
+        synchronized (budgetLock) {
+            if (budget >= 1) {
+                budget -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void refundBudget() {
+        synchronized (budgetLock) {
+            budget = Math.min(settings.maxBurst(), budget + 1);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(failure);
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package pureapps.appread.hedging;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.function.Supplier;
+
+/**
+ * Chat model decorator that hedges blocking calls. Streaming calls are passed through unchanged,
+ * since a stream that has started emitting cannot be raced against a duplicate.
+ */
+@RequiredArgsConstructor
+public class HedgingChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final HedgedCallExecutor hedgedCallExecutor;
+    // Takes a slot of the caller's limiter for each hedge; see HedgedCallExecutor#call(String, Supplier, Supplier)
+    private final Supplier<Runnable> hedgeSlot;
+
+    public HedgingChatModel(ChatModel delegate, HedgedCallExecutor hedgedCallExecutor) {
+        this(delegate, hedgedCallExecutor, () -> () -> {
+        });
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return hedgedCallExecutor.call("chat", () -> delegate.call(prompt), hedgeSlot);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(prompt);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
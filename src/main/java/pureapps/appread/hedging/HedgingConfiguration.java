@@ -0,0 +1,45 @@
+package pureapps.appread.hedging;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+class HedgingConfiguration {
+
+    @Bean
+    HedgedCallExecutor embeddingHedgedCallExecutor(
+            @Value("${app.hedging.embedding.enabled:false}") boolean enabled,
+            @Value("${app.hedging.embedding.percentile:0.95}") double percentile,
+            @Value("${app.hedging.embedding.min-delay:50ms}") Duration minDelay,
+            @Value("${app.hedging.embedding.budget-ratio:0.05}") double budgetRatio,
+            @Value("${app.hedging.embedding.max-burst:10}") int maxBurst,
+            @Value("${app.hedging.embedding.window-size:1000}") int windowSize,
+            @Value("${app.hedging.embedding.min-samples:20}") int minSamples,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        HedgedCallExecutor executor = new HedgedCallExecutor("embedding", new HedgedCallExecutor.Settings(
+                enabled, percentile, minDelay, budgetRatio, maxBurst, windowSize, minSamples));
+        meterRegistry.ifAvailable(executor::bindTo);
+        return executor;
+    }
+
+    @Bean
+    HedgedCallExecutor chatHedgedCallExecutor(
+            @Value("${app.hedging.chat.enabled:false}") boolean enabled,
+            @Value("${app.hedging.chat.percentile:0.95}") double percentile,
+            @Value("${app.hedging.chat.min-delay:500ms}") Duration minDelay,
+            @Value("${app.hedging.chat.budget-ratio:0.05}") double budgetRatio,
+            @Value("${app.hedging.chat.max-burst:5}") int maxBurst,
+            @Value("${app.hedging.chat.window-size:500}") int windowSize,
+            @Value("${app.hedging.chat.min-samples:20}") int minSamples,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        HedgedCallExecutor executor = new HedgedCallExecutor("chat", new HedgedCallExecutor.Settings(
+                enabled, percentile, minDelay, budgetRatio, maxBurst, windowSize, minSamples));
+        meterRegistry.ifAvailable(executor::bindTo);
+        return executor;
+    }
+}
@@ -0,0 +1,51 @@
+package pureapps.appread.hedging;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window over the most recent call latencies, used to derive the hedging threshold.
+ * The percentile is recomputed only every few samples since sorting the window on every call
+ * would be wasted work for a value that moves slowly.
+ */
+class LatencyTracker {
+
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private final long[] samples;
+    private int next;
+    private int size;
+    private int recordedSinceCompute;
+    private long[] sorted = new long[0];
+
+    LatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        recordedSinceCompute++;
+    }
+
+    synchronized int sampleCount() {
+        return size;
+    }
+
+    /**
+     * @param percentile value between 0 and 1
+     * @return the latency at the given percentile, or -1 if nothing was recorded yet
+     */
+    synchronized long percentile(double percentile) {
+        if (size == 0) {
+            return -1;
+        }
+        if (recordedSinceCompute >= RECOMPUTE_EVERY || sorted.length != size) {
+            sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            recordedSinceCompute = 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
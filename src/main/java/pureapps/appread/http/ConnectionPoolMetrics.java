@@ -0,0 +1,61 @@
+package pureapps.appread.http;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes pool-wide connection gauges and, for every endpoint the pool has connected to, the
+ * number of leased, available and pending connections under {@code appread.http.pool.*}.
+ * Routes are discovered after each request, since the pool only knows them once used.
+ */
+@RequiredArgsConstructor
+class ConnectionPoolMetrics implements ClientHttpRequestInterceptor {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final MeterRegistry registry;
+    private final Set<HttpRoute> registeredRoutes = ConcurrentHashMap.newKeySet();
+
+    void bind() {
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "model").bindTo(registry);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        try {
+            return execution.execute(request, body);
+        } finally {
+            for (HttpRoute route : connectionManager.getRoutes()) {
+                if (registeredRoutes.add(route)) {
+                    registerRoute(route);
+                }
+            }
+        }
+    }
+
+    private void registerRoute(HttpRoute route) {
+        String endpoint = route.getTargetHost().toURI();
+        gauge("appread.http.pool.leased", endpoint, route, manager -> manager.getStats(route).getLeased());
+        gauge("appread.http.pool.available", endpoint, route, manager -> manager.getStats(route).getAvailable());
+        gauge("appread.http.pool.pending", endpoint, route, manager -> manager.getStats(route).getPending());
+    }
+
+    private void gauge(String name, String endpoint, HttpRoute route, ToDoubleFunction<PoolingHttpClientConnectionManager> value) {
+        Gauge.builder(name, connectionManager, value)
+                .tag("endpoint", endpoint)
+                .tag("secure", String.valueOf(route.isSecure()))
+                .register(registry);
+    }
+}
@@ -0,0 +1,129 @@
+package pureapps.appread.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * HTTP transport shared by the model clients (chat and embedding), applied to every {@code RestClient.Builder}
+ * Spring Boot hands out.
+ * <p>
+ * By default calls go through one bounded Apache HttpClient pool with keep-alive, per-endpoint limits and
+ * transparent gzip response decoding, so connections and TLS sessions are reused under load.
+ * With {@code app.model.http.version=HTTP_2} the JDK client is used instead; it multiplexes calls over a single
+ * connection per endpoint, at the cost of the pool limits and pool metrics.
+ */
+@Configuration
+@Slf4j
+class ModelHttpClientConfiguration {
+
+    @Value("${app.model.http.version:HTTP_1_1}")
+    private HttpClient.Version httpVersion;
+
+    @Value("${app.model.http.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${app.model.http.read-timeout:60s}")
+    private Duration readTimeout;
+
+    @Value("${app.model.http.gzip-requests.enabled:false}")
+    private boolean gzipRequests;
+
+    @Value("${app.model.http.gzip-requests.min-size:8192}")
+    private int gzipMinSize;
+
+    @Bean(destroyMethod = "close")
+    PoolingHttpClientConnectionManager modelConnectionManager(
+            @Value("${app.model.http.pool.max-total:64}") int maxTotal,
+            @Value("${app.model.http.pool.max-per-endpoint:32}") int maxPerEndpoint,
+            @Value("${app.model.http.pool.time-to-live:5m}") Duration timeToLive,
+            @Value("${app.model.http.pool.validate-after-inactivity:10s}") Duration validateAfterInactivity) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerEndpoint)
+                // LIFO keeps a small set of connections warm instead of spreading calls over idle (expiring) ones
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .setValidateAfterInactivity(TimeValue.of(validateAfterInactivity))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    CloseableHttpClient modelHttpClient(
+            PoolingHttpClientConnectionManager modelConnectionManager,
+            @Value("${app.model.http.pool.acquire-timeout:10s}") Duration acquireTimeout,
+            @Value("${app.model.http.pool.max-idle-time:1m}") Duration maxIdleTime) {
+        return HttpClients.custom()
+                .setConnectionManager(modelConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(acquireTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(maxIdleTime))
+                // Retries are owned by EmbeddingService and the limiters, not the transport
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    @Bean
+    RestClientCustomizer modelHttpClientCustomizer(CloseableHttpClient modelHttpClient,
+                                                   PoolingHttpClientConnectionManager modelConnectionManager,
+                                                   ObjectProvider<MeterRegistry> meterRegistry) {
+        ClientHttpRequestFactory requestFactory = requestFactory(modelHttpClient);
+        MeterRegistry registry = httpVersion == HttpClient.Version.HTTP_2 ? null : meterRegistry.getIfAvailable();
+        ConnectionPoolMetrics poolMetrics = registry != null ? new ConnectionPoolMetrics(modelConnectionManager, registry) : null;
+        if (poolMetrics != null) {
+            poolMetrics.bind();
+        }
+        log.info("Model HTTP transport: {}, connect timeout {}, read timeout {}, gzip requests {}",
+                httpVersion, connectTimeout, readTimeout, gzipRequests);
+
+        return builder -> {
+            builder.requestFactory(requestFactory);
+            if (gzipRequests) {
+                builder.requestInterceptor(new GzipRequestInterceptor(gzipMinSize));
+            }
+            if (poolMetrics != null) {
+                builder.requestInterceptor(poolMetrics);
+            }
+        };
+    }
+
+    private ClientHttpRequestFactory requestFactory(CloseableHttpClient modelHttpClient) {
+        if (httpVersion == HttpClient.Version.HTTP_2) {
+            JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(connectTimeout)
+                    .build());
+            requestFactory.setReadTimeout(readTimeout);
+            return requestFactory;
+        }
+        return new HttpComponentsClientHttpRequestFactory(modelHttpClient);
+    }
+}
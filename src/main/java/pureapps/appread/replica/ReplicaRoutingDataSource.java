@@ -0,0 +1,149 @@
+package pureapps.appread.replica;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out connections of the replica pools, round robin over the replicas whose replication lag is within
+ * {@code maxLag}, and of the primary if there is none. Lag is measured in the background; a replica that cannot
+ * be reached is skipped until a later check succeeds.
+ */
+@Slf4j
+class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    /**
+     * Seconds since the last replayed transaction, or 0 if everything received has been replayed: an idle primary
+     * commits nothing, which would otherwise look like growing lag. Null if the replica cannot tell.
+     */
+    static final String LAG_SQL = "SELECT CASE " +
+            "WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END";
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final Duration maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replica-lag-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Duration maxLag) {
+        this.primary = primary;
+        this.maxLag = maxLag;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+    }
+
+    /**
+     * Checks every replica once, so they are used from the first read, and then every {@code checkInterval}.
+     */
+    ReplicaRoutingDataSource start(Duration checkInterval) {
+        checkLag();
+        scheduler.scheduleWithFixedDelay(this::checkLag, checkInterval.toMillis(), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    ReplicaRoutingDataSource bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            Gauge.builder("appread.datasource.replica.lag", replica, r -> r.lagSeconds)
+                    .tag("replica", replica.name).baseUnit("seconds")
+                    .description("Replication lag of the replica, NaN while it cannot be reached").register(registry);
+        }
+        return this;
+    }
+
+    void checkLag() {
+        for (Replica replica : replicas) {
+            double lagSeconds;
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(LAG_SQL)) {
+                rs.next();
+                lagSeconds = rs.getDouble(1);
+                if (rs.wasNull()) {
+                    lagSeconds = Double.POSITIVE_INFINITY;
+                }
+            } catch (Exception e) {
+                log.debug("Lag check of replica {} failed: {}", replica.name, e.getMessage());
+                lagSeconds = Double.NaN;
+            }
+            replica.update(lagSeconds, lagSeconds <= maxLag.toMillis() / 1000.0);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+            if (!replica.usable) {
+                continue;
+            }
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.update(Double.NaN, false);
+                log.warn("Replica {} is unavailable, reading elsewhere until it recovers: {}", replica.name, e.getMessage());
+            }
+        }
+        return primary.getConnection();
+    }
+
+    /**
+     * Connections for other credentials than those of the replica pools come from the primary.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    public boolean isClosed() {
+        return scheduler.isShutdown();
+    }
+
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdownNow();
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile double lagSeconds = Double.NaN;
+        private volatile boolean usable;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        void update(double lagSeconds, boolean usable) {
+            if (this.usable != usable) {
+                log.info("Replica {} is {} for reads (lag {} s)", name, usable ? "used" : "no longer used", lagSeconds);
+            }
+            this.lagSeconds = lagSeconds;
+            this.usable = usable;
+        }
+    }
+}
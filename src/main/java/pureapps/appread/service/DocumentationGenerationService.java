@@ -9,6 +9,7 @@ import pureapps.appread.documentsvectorstorage.DocumentVectorStorage;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.dto.FileNode;
 import pureapps.appread.mermaid.MermaidService;
+import pureapps.appread.throttling.RequestPriority;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -107,6 +108,42 @@ public class DocumentationGenerationService {
         }
     }
 
+    /**
+     * Retries embedding the chunks of a project that failed during ingestion.
+     *
+     * @param projectId Project ID returned by generateDocumentation
+     * @return Number of chunks that were embedded and stored
+     */
+    public int replayFailedEmbeddings(String projectId) {
+        log.info("Replaying failed embeddings for project: {}", projectId);
+
+        try {
+            int replayed = documentVectorStorage.replayDeadLetters(projectId);
+            log.info("Replayed {} failed embeddings for project: {}", replayed, projectId);
+            return replayed;
+        } catch (Exception e) {
+            log.error("Failed to replay failed embeddings for project: {}", projectId, e);
+            throw new RuntimeException("Failed to replay failed embeddings for project: " + projectId, e);
+        }
+    }
+
+    /**
+     * Deletes the stored chunks of a project in the background.
+     *
+     * @param projectId Project ID returned by generateDocumentation
+     * @return false if the project is already being deleted
+     */
+    public boolean deleteProject(String projectId) {
+        log.info("Deleting project: {}", projectId);
+
+        try {
+            return documentVectorStorage.deleteProject(projectId);
+        } catch (Exception e) {
+            log.error("Failed to delete project: {}", projectId, e);
+            throw new RuntimeException("Failed to delete project: " + projectId, e);
+        }
+    }
+
     /**
      * Generates documentation for a local repository path.
      * This method analyzes the project using LLM and creates documentation inside the project path.
@@ -115,6 +152,11 @@ public class DocumentationGenerationService {
      * @return Path to the generated documentation
      */
     public Path generateDocumentationForLocalRepo(Path localRepoPath) {
+        // Generation is background work: its model calls must not compete with interactive queries
+        return RequestPriority.bulk(() -> generateLocalRepoDocumentation(localRepoPath));
+    }
+
+    private Path generateLocalRepoDocumentation(Path localRepoPath) {
         log.info("Generating documentation for local repository: {}", localRepoPath);
 
         try {
@@ -0,0 +1,325 @@
+package pureapps.appread.throttling;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) limiter for calls to a remote model API.
+ * <p>
+ * Both the number of concurrent calls and the number of inputs per call grow additively - roughly
+ * one step per "round" of {@code limit} successful calls - while latency stays under the target and
+ * the error rate is healthy. On an overload signal (429/5xx) both are cut multiplicatively and new
+ * calls are held back until the provider's Retry-After has elapsed.
+ * <p>
+ * Calls are admitted through two lanes sharing the same limit. A fraction of the slots is reserved for
+ * {@link Priority#INTERACTIVE} calls, and waiting interactive calls are served before any bulk call,
+ * so bulk work only gets the capacity interactive traffic leaves over.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double ERROR_RATE_SMOOTHING = 0.1;
+    private static final long THROUGHPUT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    public enum Priority {
+        INTERACTIVE, BULK
+    }
+
+    public record Settings(int initialLimit, int minLimit, int maxLimit,
+                           int initialBatchSize, int minBatchSize, int maxBatchSize, int batchSizeStep,
+                           Duration targetLatency, double backoffRatio, double maxErrorRate,
+                           double interactiveReserve) {
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityAvailable = lock.newCondition();
+
+    private double limit;
+    private double batchSize;
+    private int inFlight;
+    private final int[] inFlightByLane = new int[Priority.values().length];
+    private int interactiveWaiting;
+    private double errorRate;
+    private Instant blockedUntil = Instant.EPOCH;
+    private Instant lastDecrease = Instant.EPOCH;
+
+    private long windowStartNanos = System.nanoTime();
+    private long windowItems;
+    private double throughput;
+
+    private Timer latencyTimer;
+    private Counter overloadCounter;
+
+    public AdaptiveConcurrencyLimiter(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.limit = clamp(settings.initialLimit(), settings.minLimit(), settings.maxLimit());
+        this.batchSize = clamp(settings.initialBatchSize(), settings.minBatchSize(), settings.maxBatchSize());
+    }
+
+    /**
+     * Publishes current limits and observed throughput under {@code appread.model.*}, tagged with the limiter name.
+     */
+    public AdaptiveConcurrencyLimiter bindTo(MeterRegistry registry) {
+        Gauge.builder("appread.model.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("client", name).description("Current adaptive concurrency limit").register(registry);
+        Gauge.builder("appread.model.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("client", name).description("Calls currently in flight").register(registry);
+        for (Priority priority : Priority.values()) {
+            Gauge.builder("appread.model.concurrency.lane.in-flight", this, limiter -> limiter.getInFlight(priority))
+                    .tag("client", name).tag("lane", priority.name().toLowerCase())
+                    .description("Calls currently in flight per priority lane").register(registry);
+        }
+        Gauge.builder("appread.model.batch-size", this, AdaptiveConcurrencyLimiter::getBatchSize)
+                .tag("client", name).description("Current adaptive batch size").register(registry);
+        Gauge.builder("appread.model.throughput", this, AdaptiveConcurrencyLimiter::getThroughput)
+                .tag("client", name).baseUnit("items/s").description("Observed items processed per second").register(registry);
+        Gauge.builder("appread.model.error-rate", this, AdaptiveConcurrencyLimiter::getErrorRate)
+                .tag("client", name).description("Smoothed error rate of model calls").register(registry);
+        latencyTimer = Timer.builder("appread.model.call.latency").tag("client", name).register(registry);
+        overloadCounter = Counter.builder("appread.model.overloads").tag("client", name).register(registry);
+        return this;
+    }
+
+    /**
+     * Blocks until a call of the given priority may be issued, i.e. no Retry-After pause is active and
+     * the in-flight count is under the current limit - or, for bulk calls, under the limit minus the
+     * interactive reserve with no interactive call waiting.
+     */
+    public Permit acquire(Priority priority) {
+        lock.lock();
+        boolean waiting = false;
+        try {
+            while (true) {
+                Instant now = Instant.now();
+                if (blockedUntil.isAfter(now)) {
+                    waiting = markWaiting(priority, waiting);
+                    capacityAvailable.awaitNanos(Duration.between(now, blockedUntil).toNanos());
+                } else if (!hasCapacity(priority)) {
+                    waiting = markWaiting(priority, waiting);
+                    capacityAvailable.await();
+                } else {
+                    inFlight++;
+                    inFlightByLane[priority.ordinal()]++;
+                    return new Permit(priority);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name + " capacity", e);
+        } finally {
+            if (waiting) {
+                interactiveWaiting--;
+                capacityAvailable.signalAll();
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot only if one is free right now, for extra calls that are worth making only on spare capacity,
+     * such as hedged duplicates of a call already in flight.
+     *
+     * @return the permit, or null if a call of this priority would have to wait
+     */
+    public Permit tryAcquire(Priority priority) {
+        lock.lock();
+        try {
+            if (blockedUntil.isAfter(Instant.now()) || !hasCapacity(priority)) {
+                return null;
+            }
+            inFlight++;
+            inFlightByLane[priority.ordinal()]++;
+            return new Permit(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasCapacity(Priority priority) {
+        if (priority == Priority.INTERACTIVE) {
+            return inFlight < (int) limit;
+        }
+        // Bulk always keeps at least one slot, so ingestion cannot starve completely at the minimum limit
+        int reserved = Math.min((int) limit - 1, (int) Math.ceil(limit * settings.interactiveReserve()));
+        return interactiveWaiting == 0 && inFlight < (int) limit - Math.max(0, reserved);
+    }
+
+    private boolean markWaiting(Priority priority, boolean waiting) {
+        if (priority == Priority.INTERACTIVE && !waiting) {
+            interactiveWaiting++;
+            return true;
+        }
+        return waiting;
+    }
+
+    public void onSuccess(Duration latency, int items) {
+        if (latencyTimer != null) {
+            latencyTimer.record(latency);
+        }
+        lock.lock();
+        try {
+            errorRate *= (1 - ERROR_RATE_SMOOTHING);
+            recordThroughput(items);
+            if (latency.compareTo(settings.targetLatency()) <= 0 && errorRate <= settings.maxErrorRate()) {
+                limit = Math.min(settings.maxLimit(), limit + 1.0 / limit);
+                batchSize = Math.min(settings.maxBatchSize(), batchSize + (double) settings.batchSizeStep() / limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Multiplicatively decreases limits (at most once per target latency, so a burst of 429s from
+     * calls issued at the same time counts as one congestion event) and pauses new calls for the
+     * Retry-After duration, or for the target latency if the provider gave no hint.
+     */
+    public void onOverload(Duration retryAfter) {
+        if (overloadCounter != null) {
+            overloadCounter.increment();
+        }
+        lock.lock();
+        try {
+            Instant now = Instant.now();
+            errorRate = errorRate * (1 - ERROR_RATE_SMOOTHING) + ERROR_RATE_SMOOTHING;
+            if (!now.isBefore(lastDecrease.plus(settings.targetLatency()))) {
+                limit = Math.max(settings.minLimit(), limit * settings.backoffRatio());
+                batchSize = Math.max(settings.minBatchSize(), batchSize * settings.backoffRatio());
+                lastDecrease = now;
+                log.warn("{} overloaded, reducing concurrency limit to {} and batch size to {}", name, (int) limit, (int) batchSize);
+            }
+            Instant resumeAt = now.plus(retryAfter != null ? retryAfter : settings.targetLatency());
+            if (resumeAt.isAfter(blockedUntil)) {
+                blockedUntil = resumeAt;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onError() {
+        lock.lock();
+        try {
+            errorRate = errorRate * (1 - ERROR_RATE_SMOOTHING) + ERROR_RATE_SMOOTHING;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getBatchSize() {
+        lock.lock();
+        try {
+            return (int) batchSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight(Priority priority) {
+        lock.lock();
+        try {
+            return inFlightByLane[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getErrorRate() {
+        lock.lock();
+        try {
+            return errorRate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getThroughput() {
+        lock.lock();
+        try {
+            return System.nanoTime() - windowStartNanos > 2 * THROUGHPUT_WINDOW_NANOS ? 0 : throughput;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordThroughput(int items) {
+        long now = System.nanoTime();
+        windowItems += items;
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+            throughput = windowItems / (elapsed / 1_000_000_000.0);
+            windowItems = 0;
+            windowStartNanos = now;
+        }
+    }
+
+    private void release(Priority priority) {
+        lock.lock();
+        try {
+            inFlight--;
+            inFlightByLane[priority.ordinal()]--;
+            capacityAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static double clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * A slot held by one in-flight call. Closing it (once) returns the slot to the limiter.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final Priority priority;
+        private boolean released;
+
+        private Permit(Priority priority) {
+            this.priority = priority;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(priority);
+            }
+        }
+    }
+}
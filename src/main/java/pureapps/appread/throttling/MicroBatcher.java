@@ -0,0 +1,155 @@
+package pureapps.appread.throttling;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Collects single requests that arrive within a short window and hands them to the batch function as one call.
+ * A batch is flushed when the window that started with its first request elapses, or as soon as it reaches
+ * the maximum size. The batch function must return one result per input, in input order.
+ * <p>
+ * The size of a batch is its number of requests, or the sum of their weights if a weigher is given; a request
+ * that takes the batch past the maximum is still part of it.
+ */
+@Slf4j
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    private final String name;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final ToIntFunction<I> weigher;
+    private final Function<List<I>, List<O>> batchFunction;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executorService;
+
+    private List<Pending<I, O>> pending = new ArrayList<>();
+    private long pendingSize;
+    // Incremented whenever a batch is drained, so a window timer that fires late never flushes the next batch
+    private long batchNumber;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public MicroBatcher(String name, Duration window, int maxBatchSize, Function<List<I>, List<O>> batchFunction) {
+        this(name, window, maxBatchSize, input -> 1, batchFunction);
+    }
+
+    public MicroBatcher(String name, Duration window, int maxBatchSize, ToIntFunction<I> weigher,
+                        Function<List<I>, List<O>> batchFunction) {
+        this(name, window, maxBatchSize, weigher, batchFunction,
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, name + "-micro-batcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }),
+                Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * With the scheduler that times the windows and the executor that runs the batch function given, e.g. to
+     * drive the windows by hand in tests.
+     */
+    MicroBatcher(String name, Duration window, int maxBatchSize, ToIntFunction<I> weigher,
+                 Function<List<I>, List<O>> batchFunction, ScheduledExecutorService scheduler, ExecutorService executorService) {
+        this.name = name;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.weigher = weigher;
+        this.batchFunction = batchFunction;
+        this.scheduler = scheduler;
+        this.executorService = executorService;
+    }
+
+    public CompletableFuture<O> submit(I input) {
+        CompletableFuture<O> result = new CompletableFuture<>();
+        List<Pending<I, O>> ready = null;
+        synchronized (this) {
+            pending.add(new Pending<>(input, result));
+            pendingSize += weigher.applyAsInt(input);
+            if (pendingSize >= maxBatchSize) {
+                ready = drain();
+            } else if (pending.size() == 1) {
+                long batch = batchNumber;
+                scheduledFlush = scheduler.schedule(() -> flushExpired(batch), window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (ready != null) {
+            dispatch(ready);
+        }
+        return result;
+    }
+
+    /**
+     * Flushes the batch whose window elapsed, unless it was flushed by size meanwhile: cancelling the timer does not
+     * stop one that already fired and waits for the lock.
+     */
+    private void flushExpired(long batch) {
+        List<Pending<I, O>> ready;
+        synchronized (this) {
+            if (batch != batchNumber) {
+                return;
+            }
+            ready = drain();
+        }
+        dispatch(ready);
+    }
+
+    private void flush() {
+        List<Pending<I, O>> ready;
+        synchronized (this) {
+            ready = drain();
+        }
+        dispatch(ready);
+    }
+
+    private List<Pending<I, O>> drain() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        batchNumber++;
+        List<Pending<I, O>> ready = pending;
+        pending = new ArrayList<>();
+        pendingSize = 0;
+        return ready;
+    }
+
+    private void dispatch(List<Pending<I, O>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        executorService.execute(() -> {
+            try {
+                List<O> results = batchFunction.apply(batch.stream().map(Pending::input).toList());
+                if (results.size() != batch.size()) {
+                    throw new IllegalStateException(name + " batch returned " + results.size() + " results for " + batch.size() + " inputs");
+                }
+                log.debug("{} flushed batch of {} requests", name, batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).result().complete(results.get(i));
+                }
+            } catch (Throwable e) {
+                batch.forEach(request -> request.result().completeExceptionally(e));
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdown();
+        executorService.shutdown();
+    }
+
+    private record Pending<I, O>(I input, CompletableFuture<O> result) {
+    }
+}
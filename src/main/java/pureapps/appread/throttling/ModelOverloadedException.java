@@ -0,0 +1,31 @@
+package pureapps.appread.throttling;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Thrown when the model provider signals that it is overloaded (HTTP 429 or 5xx).
+ * Carries the provider's Retry-After hint, if any, so callers can back off accordingly.
+ */
+@Getter
+public class ModelOverloadedException extends RuntimeException {
+
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    public ModelOverloadedException(int statusCode, Duration retryAfter, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public Optional<Duration> getRetryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
+
+    public boolean isRateLimited() {
+        return statusCode == 429;
+    }
+}
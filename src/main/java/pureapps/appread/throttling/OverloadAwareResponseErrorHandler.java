@@ -0,0 +1,87 @@
+package pureapps.appread.throttling;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.ai.retry.autoconfigure.SpringAiRetryProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResponseErrorHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Replaces Spring AI's default error handler for model HTTP calls.
+ * Overload responses (429 and 5xx) are surfaced as {@link ModelOverloadedException} together with
+ * the Retry-After hint, so that the adaptive limiter - not Spring AI's fixed retry template - decides
+ * how to back off. All other errors keep Spring AI's transient/non-transient semantics.
+ */
+@RequiredArgsConstructor
+class OverloadAwareResponseErrorHandler implements ResponseErrorHandler {
+
+    private final SpringAiRetryProperties retryProperties;
+
+    @Override
+    public boolean hasError(ClientHttpResponse response) throws IOException {
+        return response.getStatusCode().isError();
+    }
+
+    @Override
+    public void handleError(URI url, HttpMethod method, ClientHttpResponse response) throws IOException {
+        HttpStatusCode status = response.getStatusCode();
+        if (!status.isError()) {
+            return;
+        }
+
+        String body = StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8);
+        String message = String.format("HTTP %s - %s", status.value(), body.isEmpty() ? "No response body available" : body);
+
+        if (status.value() == 429 || status.is5xxServerError()) {
+            throw new ModelOverloadedException(status.value(), parseRetryAfter(response.getHeaders()), message);
+        }
+
+        if (retryProperties.getOnHttpCodes().contains(status.value())) {
+            throw new TransientAiException(message);
+        }
+        if (!retryProperties.isOnClientErrors() && status.is4xxClientError()) {
+            throw new NonTransientAiException(message);
+        }
+        if (!CollectionUtils.isEmpty(retryProperties.getExcludeOnHttpCodes())
+                && retryProperties.getExcludeOnHttpCodes().contains(status.value())) {
+            throw new NonTransientAiException(message);
+        }
+        throw new TransientAiException(message);
+    }
+
+    /**
+     * Parses a Retry-After header given either as delay-seconds or as an HTTP-date.
+     */
+    static Duration parseRetryAfter(HttpHeaders headers) {
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Instant retryAt = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                Duration delay = Duration.between(Instant.now(), retryAt);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
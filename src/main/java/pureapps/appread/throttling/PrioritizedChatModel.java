@@ -0,0 +1,100 @@
+package pureapps.appread.throttling;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chat model decorator that admits blocking calls through the chat limiter, in the lane given by
+ * {@link RequestPriority#current()}.
+ * <p>
+ * Overload responses (429/5xx) are not retried by Spring AI's retry template, as the overload-aware error handler
+ * reports them as {@link ModelOverloadedException}; they are retried here instead, up to {@code maxRetries} times.
+ * The permit is given back while waiting: with a Retry-After hint the limiter holds the next attempt back for that
+ * long, otherwise it waits for a jittered exponential backoff first.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class PrioritizedChatModel implements ChatModel {
+
+    public record Retry(int maxRetries, Duration initialBackoff, Duration maxBackoff) {
+    }
+
+    private final ChatModel delegate;
+    private final AdaptiveConcurrencyLimiter chatConcurrencyLimiter;
+    private final Retry retry;
+
+    public PrioritizedChatModel(ChatModel delegate, AdaptiveConcurrencyLimiter chatConcurrencyLimiter) {
+        this(delegate, chatConcurrencyLimiter, new Retry(3, Duration.ofSeconds(1), Duration.ofSeconds(30)));
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        AdaptiveConcurrencyLimiter.Priority priority = RequestPriority.current();
+        int attempt = 0;
+        while (true) {
+            try {
+                return callOnce(prompt, priority);
+            } catch (ModelOverloadedException e) {
+                if (++attempt > retry.maxRetries()) {
+                    throw e;
+                }
+                log.warn("Chat call overloaded ({}), retrying (attempt {}/{})", e.getMessage(), attempt, retry.maxRetries());
+                if (e.getRetryAfter().isEmpty()) {
+                    sleep(backoff(attempt));
+                }
+            }
+        }
+    }
+
+    private ChatResponse callOnce(Prompt prompt, AdaptiveConcurrencyLimiter.Priority priority) {
+        try (AdaptiveConcurrencyLimiter.Permit ignored = chatConcurrencyLimiter.acquire(priority)) {
+            long start = System.nanoTime();
+            try {
+                ChatResponse response = delegate.call(prompt);
+                chatConcurrencyLimiter.onSuccess(Duration.ofNanos(System.nanoTime() - start), 1);
+                return response;
+            } catch (ModelOverloadedException e) {
+                chatConcurrencyLimiter.onOverload(e.getRetryAfter().orElse(null));
+                throw e;
+            } catch (RuntimeException e) {
+                chatConcurrencyLimiter.onError();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Full-jitter exponential backoff, as for embedding calls.
+     */
+    Duration backoff(int attempt) {
+        long ceiling = Math.min(retry.maxBackoff().toMillis(), retry.initialBackoff().toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(prompt);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
@@ -0,0 +1,33 @@
+package pureapps.appread.throttling;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.function.Supplier;
+
+/**
+ * Carries the priority lane of model calls made on the current thread. Calls made outside of
+ * {@link #bulk(Supplier)} are treated as interactive, since they originate from user requests.
+ */
+@UtilityClass
+public class RequestPriority {
+
+    private static final ThreadLocal<AdaptiveConcurrencyLimiter.Priority> CURRENT =
+            ThreadLocal.withInitial(() -> AdaptiveConcurrencyLimiter.Priority.INTERACTIVE);
+
+    public static AdaptiveConcurrencyLimiter.Priority current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs background work (ingestion, documentation generation) in the bulk lane.
+     */
+    public static <T> T bulk(Supplier<T> work) {
+        AdaptiveConcurrencyLimiter.Priority previous = CURRENT.get();
+        CURRENT.set(AdaptiveConcurrencyLimiter.Priority.BULK);
+        try {
+            return work.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+}
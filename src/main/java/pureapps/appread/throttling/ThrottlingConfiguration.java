@@ -0,0 +1,61 @@
+package pureapps.appread.throttling;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.retry.autoconfigure.SpringAiRetryProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.ResponseErrorHandler;
+
+import java.time.Duration;
+
+@Configuration
+class ThrottlingConfiguration {
+
+    @Bean
+    ResponseErrorHandler overloadAwareResponseErrorHandler(SpringAiRetryProperties retryProperties) {
+        return new OverloadAwareResponseErrorHandler(retryProperties);
+    }
+
+    @Bean
+    AdaptiveConcurrencyLimiter embeddingConcurrencyLimiter(
+            @Value("${app.embedding.concurrency.initial-limit:4}") int initialLimit,
+            @Value("${app.embedding.concurrency.min-limit:1}") int minLimit,
+            @Value("${app.embedding.concurrency.max-limit:32}") int maxLimit,
+            @Value("${app.embedding.concurrency.initial-batch-size:16}") int initialBatchSize,
+            @Value("${app.embedding.concurrency.min-batch-size:1}") int minBatchSize,
+            @Value("${app.embedding.concurrency.max-batch-size:256}") int maxBatchSize,
+            @Value("${app.embedding.concurrency.batch-size-step:8}") int batchSizeStep,
+            @Value("${app.embedding.concurrency.target-latency:2s}") Duration targetLatency,
+            @Value("${app.embedding.concurrency.backoff-ratio:0.5}") double backoffRatio,
+            @Value("${app.embedding.concurrency.max-error-rate:0.05}") double maxErrorRate,
+            @Value("${app.embedding.concurrency.interactive-reserve:0.25}") double interactiveReserve,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("embedding", new AdaptiveConcurrencyLimiter.Settings(
+                initialLimit, minLimit, maxLimit,
+                initialBatchSize, minBatchSize, maxBatchSize, batchSizeStep,
+                targetLatency, backoffRatio, maxErrorRate, interactiveReserve));
+        meterRegistry.ifAvailable(limiter::bindTo);
+        return limiter;
+    }
+
+    @Bean
+    AdaptiveConcurrencyLimiter chatConcurrencyLimiter(
+            @Value("${app.chat.concurrency.initial-limit:4}") int initialLimit,
+            @Value("${app.chat.concurrency.min-limit:1}") int minLimit,
+            @Value("${app.chat.concurrency.max-limit:16}") int maxLimit,
+            @Value("${app.chat.concurrency.target-latency:20s}") Duration targetLatency,
+            @Value("${app.chat.concurrency.backoff-ratio:0.5}") double backoffRatio,
+            @Value("${app.chat.concurrency.max-error-rate:0.05}") double maxErrorRate,
+            @Value("${app.chat.concurrency.interactive-reserve:0.5}") double interactiveReserve,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        // Chat calls carry a single prompt, so the batch size is fixed at one
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("chat", new AdaptiveConcurrencyLimiter.Settings(
+                initialLimit, minLimit, maxLimit,
+                1, 1, 1, 0,
+                targetLatency, backoffRatio, maxErrorRate, interactiveReserve));
+        meterRegistry.ifAvailable(limiter::bindTo);
+        return limiter;
+    }
+}
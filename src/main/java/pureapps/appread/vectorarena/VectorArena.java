@@ -0,0 +1,129 @@
+package pureapps.appread.vectorarena;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of off-heap slots holding one embedding each, so that in-flight vectors do not occupy the Java heap.
+ * <p>
+ * Memory is allocated in blocks of {@code slotsPerBlock} slots, each block in its own shared {@link Arena}.
+ * A released slot goes back on a free list and is handed out again before the arena grows; freed slots are
+ * reused most-recently-released first, while their memory is still in cache. Blocks are kept until the
+ * arena is closed, so off-heap memory stays at the high-water mark of concurrently held vectors.
+ */
+@Slf4j
+public class VectorArena implements AutoCloseable {
+
+    private final int dimensions;
+    private final int slotsPerBlock;
+    private final long slotBytes;
+    private final List<Arena> blocks = new ArrayList<>();
+    private final ConcurrentLinkedDeque<VectorSlot> freeSlots = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger slotsInUse = new AtomicInteger();
+    private volatile int capacity;
+    private volatile boolean closed;
+
+    public VectorArena(int dimensions, int slotsPerBlock) {
+        if (dimensions <= 0 || slotsPerBlock <= 0) {
+            throw new IllegalArgumentException("Dimensions and slots per block must be positive");
+        }
+        this.dimensions = dimensions;
+        this.slotsPerBlock = slotsPerBlock;
+        this.slotBytes = (long) dimensions * Float.BYTES;
+    }
+
+    /**
+     * Publishes slot usage under {@code appread.embedding.arena.*}.
+     */
+    public VectorArena bindTo(MeterRegistry registry) {
+        Gauge.builder("appread.embedding.arena.slots.in-use", this, VectorArena::getSlotsInUse)
+                .description("Off-heap embedding slots currently holding a vector").register(registry);
+        Gauge.builder("appread.embedding.arena.slots.capacity", this, VectorArena::getCapacity)
+                .description("Off-heap embedding slots allocated").register(registry);
+        Gauge.builder("appread.embedding.arena.bytes", this, arena -> (double) arena.getCapacity() * arena.slotBytes)
+                .baseUnit("bytes").description("Off-heap memory held by the embedding arena").register(registry);
+        return this;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getSlotsInUse() {
+        return slotsInUse.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Copies the vector into a free slot. The caller owns the slot until it closes it.
+     */
+    public VectorSlot store(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Vector has " + vector.length + " dimensions, arena holds " + dimensions);
+        }
+        VectorSlot slot = allocate();
+        MemorySegment.copy(vector, 0, slot.segment(), ValueLayout.JAVA_FLOAT, 0, dimensions);
+        return slot;
+    }
+
+    private VectorSlot allocate() {
+        if (closed) {
+            throw new IllegalStateException("Vector arena is closed");
+        }
+        VectorSlot slot = freeSlots.pollFirst();
+        if (slot == null) {
+            slot = grow();
+        }
+        slot.lease();
+        slotsInUse.incrementAndGet();
+        return slot;
+    }
+
+    private synchronized VectorSlot grow() {
+        // Another thread may have grown the arena while this one waited for the lock
+        VectorSlot slot = freeSlots.pollFirst();
+        if (slot != null) {
+            return slot;
+        }
+        Arena block = Arena.ofShared();
+        MemorySegment memory = block.allocate(slotBytes * slotsPerBlock, ValueLayout.JAVA_FLOAT.byteAlignment());
+        blocks.add(block);
+        for (int i = 1; i < slotsPerBlock; i++) {
+            freeSlots.addLast(new VectorSlot(this, memory.asSlice(i * slotBytes, slotBytes), dimensions));
+        }
+        capacity += slotsPerBlock;
+        log.debug("Grew embedding arena to {} slots ({} MB off-heap)", capacity, capacity * slotBytes / (1024 * 1024));
+        return new VectorSlot(this, memory.asSlice(0, slotBytes), dimensions);
+    }
+
+    void release(VectorSlot slot) {
+        slotsInUse.decrementAndGet();
+        if (!closed) {
+            freeSlots.addFirst(slot);
+        }
+    }
+
+    /**
+     * Frees all off-heap memory. Slots still held become unusable.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        freeSlots.clear();
+        blocks.forEach(Arena::close);
+        blocks.clear();
+        capacity = 0;
+    }
+}
@@ -0,0 +1,22 @@
+package pureapps.appread.vectorarena;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+class VectorArenaConfiguration {
+
+    @Bean(destroyMethod = "close")
+    VectorArena embeddingArena(
+            @Value("${app.embedding.dimensions:1536}") int dimensions,
+            @Value("${app.embedding.arena.slots-per-block:1024}") int slotsPerBlock,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        // No memory is allocated until the first vector is stored
+        VectorArena arena = new VectorArena(dimensions, slotsPerBlock);
+        meterRegistry.ifAvailable(arena::bindTo);
+        return arena;
+    }
+}
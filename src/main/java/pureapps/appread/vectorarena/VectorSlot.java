@@ -0,0 +1,80 @@
+package pureapps.appread.vectorarena;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One embedding held off-heap in a {@link VectorArena}. Closing the slot (once) returns it to the arena;
+ * its contents must not be read afterwards.
+ */
+public final class VectorSlot implements AutoCloseable {
+
+    /**
+     * pgvector's binary format: int16 dimensions, int16 unused, then each component as a big-endian float4.
+     */
+    private static final int PGVECTOR_HEADER_BYTES = 2 * Short.BYTES;
+    private static final ValueLayout.OfFloat BIG_ENDIAN_FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final VectorArena arena;
+    private final MemorySegment segment;
+    private final int dimensions;
+    private final AtomicBoolean leased = new AtomicBoolean();
+
+    VectorSlot(VectorArena arena, MemorySegment segment, int dimensions) {
+        this.arena = arena;
+        this.segment = segment;
+        this.dimensions = dimensions;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Copies the vector onto the heap.
+     */
+    public float[] toArray() {
+        return segment().toArray(ValueLayout.JAVA_FLOAT);
+    }
+
+    public int pgvectorBinaryLength() {
+        return PGVECTOR_HEADER_BYTES + dimensions * Float.BYTES;
+    }
+
+    /**
+     * Writes the vector in pgvector's binary wire format straight from off-heap memory, without an
+     * intermediate {@code float[]}.
+     */
+    public void writePgvectorBinary(ByteBuffer target) {
+        MemorySegment source = segment();
+        target.putShort((short) dimensions).putShort((short) 0);
+        MemorySegment destination = MemorySegment.ofBuffer(target).asSlice(0, (long) dimensions * Float.BYTES);
+        MemorySegment.copy(source, ValueLayout.JAVA_FLOAT, 0, destination, BIG_ENDIAN_FLOAT, 0, dimensions);
+        target.position(target.position() + dimensions * Float.BYTES);
+    }
+
+    MemorySegment segment() {
+        if (!leased.get()) {
+            throw new IllegalStateException("Vector slot was already released");
+        }
+        return segment;
+    }
+
+    void lease() {
+        leased.set(true);
+    }
+
+    /**
+     * Returns the slot to the arena. Only the first of concurrent or repeated closes releases it, so a slot is never
+     * handed out twice.
+     */
+    @Override
+    public void close() {
+        if (leased.compareAndSet(true, false)) {
+            arena.release(this);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+-- Chunks whose embedding failed permanently, kept for later replay
+CREATE TABLE IF NOT EXISTS embedding_dead_letters (
+    uuid UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    project_id VARCHAR(255) NOT NULL,
+    file_path VARCHAR(1024) NOT NULL,
+    start_line INTEGER NOT NULL,
+    end_line INTEGER NOT NULL,
+    content TEXT NOT NULL,
+    file_checksum VARCHAR(64),
+    error_message TEXT,
+    attempts INTEGER NOT NULL DEFAULT 1,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    last_attempt_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS embedding_dead_letters_project_id_idx ON embedding_dead_letters (project_id);
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
@@ -0,0 +1,18 @@
+-- Quantized ANN indexes used when app.vector.storage.mode is halfvec or binary.
+-- Both are expression indexes over the existing embedding column, so building them backfills every
+-- existing row and new rows are covered on insert; the full-precision column is kept for re-ranking.
+-- halfvec and binary_quantize need pgvector 0.7 or later.
+ALTER EXTENSION vector UPDATE;
+
+-- halfvec: half the size of the float32 index
+CREATE INDEX IF NOT EXISTS document_chunks_embedding_halfvec_idx
+    ON document_chunks
+        USING hnsw ((embedding::halfvec(1536)) halfvec_cosine_ops);
+
+-- binary: one bit per dimension, 32x smaller than the float32 index
+CREATE INDEX IF NOT EXISTS document_chunks_embedding_binary_idx
+    ON document_chunks
+        USING hnsw ((binary_quantize(embedding)::bit(1536)) bit_hamming_ops);
+
+-- Only the index of the configured mode is used; drop the other one (and, once searches run on a
+-- quantized mode, document_chunks_embedding_idx) to reclaim the space.
@@ -0,0 +1,14 @@
+-- Make the embedding dimensionality a setting (app.embedding.dimensions) instead of part of the schema.
+-- The column becomes dimensionless so vectors of several sizes can coexist; every dimensionality gets
+-- partial expression indexes (WHERE vector_dims(embedding) = N), created by the application on startup.
+DROP INDEX IF EXISTS document_chunks_embedding_idx;
+DROP INDEX IF EXISTS document_chunks_embedding_halfvec_idx;
+DROP INDEX IF EXISTS document_chunks_embedding_binary_idx;
+
+ALTER TABLE document_chunks ALTER COLUMN embedding TYPE vector;
+
+-- Indexes for the default 1536 dimensions, matching what the application would create
+CREATE INDEX IF NOT EXISTS document_chunks_embedding_full_1536_idx
+    ON document_chunks
+        USING ivfflat ((embedding::vector(1536)) vector_cosine_ops) WITH (lists = 100)
+    WHERE vector_dims(embedding) = 1536;
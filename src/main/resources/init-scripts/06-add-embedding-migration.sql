@@ -0,0 +1,35 @@
+-- Embedding model whose vectors a project currently searches with. Projects without a row were embedded
+-- with app.embedding.migration.source-model (the model in use before this table existed).
+CREATE TABLE IF NOT EXISTS project_embedding_models (
+    project_id VARCHAR(255) PRIMARY KEY,
+    model VARCHAR(255) NOT NULL,
+    dimensions INTEGER NOT NULL,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Vectors computed with the migration target model, copied over document_chunks.embedding when the project flips
+CREATE TABLE IF NOT EXISTS document_chunk_embeddings_shadow (
+    chunk_uuid UUID PRIMARY KEY REFERENCES document_chunks (uuid) ON DELETE CASCADE,
+    project_id VARCHAR(255) NOT NULL,
+    model VARCHAR(255) NOT NULL,
+    embedding vector NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS document_chunk_embeddings_shadow_project_id_idx ON document_chunk_embeddings_shadow (project_id);
+
+-- Per-project progress of a re-embedding migration, so it resumes where it stopped
+CREATE TABLE IF NOT EXISTS embedding_migrations (
+    uuid UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    project_id VARCHAR(255) NOT NULL,
+    target_model VARCHAR(255) NOT NULL,
+    last_chunk_uuid UUID,
+    migrated_chunks INTEGER NOT NULL DEFAULT 0,
+    status VARCHAR(32) NOT NULL,
+    started_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT embedding_migrations_project_model_unique UNIQUE (project_id, target_model)
+);
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
@@ -0,0 +1,14 @@
+-- Vector indexes are selectable per deployment between ivfflat and hnsw (app.vector.index.type), so their
+-- names now include the index type: document_chunks_embedding_<mode>_<type>_<dimensions>_idx.
+ALTER INDEX IF EXISTS document_chunks_embedding_full_1536_idx RENAME TO document_chunks_embedding_full_ivfflat_1536_idx;
+ALTER INDEX IF EXISTS document_chunks_embedding_halfvec_1536_idx RENAME TO document_chunks_embedding_halfvec_hnsw_1536_idx;
+ALTER INDEX IF EXISTS document_chunks_embedding_binary_1536_idx RENAME TO document_chunks_embedding_binary_hnsw_1536_idx;
+
+-- HNSW alternative to the ivfflat index above. Unlike ivfflat it needs no training data, so it keeps its
+-- recall as projects grow; m and ef_construction trade build time and size for recall. The application
+-- creates it on startup when app.vector.index.type=hnsw, with the configured m and ef_construction:
+--
+-- CREATE INDEX IF NOT EXISTS document_chunks_embedding_full_hnsw_1536_idx
+--     ON document_chunks
+--         USING hnsw ((embedding::vector(1536)) vector_cosine_ops) WITH (m = 16, ef_construction = 64)
+--     WHERE vector_dims(embedding) = 1536;
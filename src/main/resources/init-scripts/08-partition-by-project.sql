@@ -0,0 +1,95 @@
+-- document_chunks and document_files are list-partitioned by project_id, one partition per project, so project
+-- scoped lookups only read that project's rows, and deleting a project drops its partitions.
+-- Partitions are named <table>_p_<first 16 hex digits of md5(project_id)>; the application creates them before
+-- a project's first write. Rows of projects without a partition land in the default partition.
+-- The partitions hold no vector index: since 10-deduplicate-chunk-storage.sql vectors are stored once per content
+-- in the shared chunk_embeddings table, so vector searches walk one index over all projects' contents, and their
+-- cost grows with the total stored, not with the searched project.
+ALTER TABLE document_chunk_embeddings_shadow DROP CONSTRAINT IF EXISTS document_chunk_embeddings_shadow_chunk_uuid_fkey;
+
+-- document_chunks
+ALTER TABLE document_chunks RENAME TO document_chunks_unpartitioned;
+ALTER INDEX IF EXISTS document_chunks_pkey RENAME TO document_chunks_unpartitioned_pkey;
+ALTER INDEX IF EXISTS document_chunks_project_id_idx RENAME TO document_chunks_unpartitioned_project_id_idx;
+ALTER INDEX IF EXISTS document_chunks_file_path_idx RENAME TO document_chunks_unpartitioned_file_path_idx;
+ALTER INDEX IF EXISTS document_chunks_file_checksum_idx RENAME TO document_chunks_unpartitioned_file_checksum_idx;
+
+CREATE TABLE document_chunks (
+    uuid UUID NOT NULL DEFAULT gen_random_uuid(),
+    project_id VARCHAR(255) NOT NULL,
+    file_path VARCHAR(1024) NOT NULL,
+    start_line INTEGER NOT NULL,
+    end_line INTEGER NOT NULL,
+    content TEXT NOT NULL,
+    embedding vector NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    file_checksum VARCHAR(64),
+    CONSTRAINT document_chunks_pkey PRIMARY KEY (uuid, project_id)
+) PARTITION BY LIST (project_id);
+
+CREATE TABLE document_chunks_default PARTITION OF document_chunks DEFAULT;
+
+CREATE INDEX IF NOT EXISTS document_chunks_file_path_idx ON document_chunks (file_path);
+CREATE INDEX IF NOT EXISTS document_chunks_file_checksum_idx ON document_chunks (file_checksum);
+
+-- document_files
+ALTER TABLE document_files RENAME TO document_files_unpartitioned;
+ALTER INDEX IF EXISTS document_files_pkey RENAME TO document_files_unpartitioned_pkey;
+ALTER TABLE document_files_unpartitioned RENAME CONSTRAINT document_files_project_file_unique TO document_files_unpartitioned_project_file_unique;
+ALTER INDEX IF EXISTS document_files_project_id_idx RENAME TO document_files_unpartitioned_project_id_idx;
+ALTER INDEX IF EXISTS document_files_file_path_idx RENAME TO document_files_unpartitioned_file_path_idx;
+ALTER INDEX IF EXISTS document_files_checksum_idx RENAME TO document_files_unpartitioned_checksum_idx;
+
+CREATE TABLE document_files (
+    uuid UUID NOT NULL DEFAULT gen_random_uuid(),
+    project_id VARCHAR(255) NOT NULL,
+    file_path VARCHAR(1024) NOT NULL,
+    checksum VARCHAR(64) NOT NULL,
+    file_size BIGINT NOT NULL,
+    last_modified TIMESTAMP WITH TIME ZONE NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT document_files_pkey PRIMARY KEY (uuid, project_id),
+    CONSTRAINT document_files_project_file_unique UNIQUE (project_id, file_path)
+) PARTITION BY LIST (project_id);
+
+CREATE TABLE document_files_default PARTITION OF document_files DEFAULT;
+
+CREATE INDEX IF NOT EXISTS document_files_file_path_idx ON document_files (file_path);
+CREATE INDEX IF NOT EXISTS document_files_checksum_idx ON document_files (checksum);
+
+-- One partition per existing project, then the rows are moved over
+DO $$
+DECLARE
+    project VARCHAR(255);
+BEGIN
+    FOR project IN
+        SELECT project_id FROM document_chunks_unpartitioned
+        UNION
+        SELECT project_id FROM document_files_unpartitioned
+    LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF document_chunks FOR VALUES IN (%L)',
+                       'document_chunks_p_' || left(md5(project), 16), project);
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF document_files FOR VALUES IN (%L)',
+                       'document_files_p_' || left(md5(project), 16), project);
+    END LOOP;
+END $$;
+
+INSERT INTO document_chunks (uuid, project_id, file_path, start_line, end_line, content, embedding, created_at, file_checksum)
+SELECT uuid, project_id, file_path, start_line, end_line, content, embedding, created_at, file_checksum
+FROM document_chunks_unpartitioned;
+
+INSERT INTO document_files (uuid, project_id, file_path, checksum, file_size, last_modified, created_at, updated_at)
+SELECT uuid, project_id, file_path, checksum, file_size, last_modified, created_at, updated_at
+FROM document_files_unpartitioned;
+
+-- Also drops the global vector indexes; the application builds a local one per partition on startup
+DROP TABLE document_chunks_unpartitioned;
+DROP TABLE document_files_unpartitioned;
+
+ALTER TABLE document_chunk_embeddings_shadow
+    ADD CONSTRAINT document_chunk_embeddings_shadow_chunk_fkey
+        FOREIGN KEY (chunk_uuid, project_id) REFERENCES document_chunks (uuid, project_id) ON DELETE CASCADE;
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
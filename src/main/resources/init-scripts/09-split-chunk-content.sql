@@ -0,0 +1,76 @@
+-- document_chunks is narrowed to what a similarity search reads: its rows hold the embedding, line range and
+-- an integer file path id, and no longer drag TOASTed chunk text through shared buffers during index scans and
+-- re-checks. The text moves to document_chunk_contents (lz4-compressed, partitioned like document_chunks) and is
+-- only read for the final top-k; file paths are stored once per project in document_file_paths.
+
+-- File path dictionary
+CREATE TABLE IF NOT EXISTS document_file_paths (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    project_id VARCHAR(255) NOT NULL,
+    file_path VARCHAR(1024) NOT NULL,
+    CONSTRAINT document_file_paths_project_path_unique UNIQUE (project_id, file_path)
+);
+
+INSERT INTO document_file_paths (project_id, file_path)
+SELECT DISTINCT project_id, file_path FROM document_chunks
+ON CONFLICT DO NOTHING;
+
+-- Cold chunk content
+CREATE TABLE IF NOT EXISTS document_chunk_contents (
+    chunk_uuid UUID NOT NULL,
+    project_id VARCHAR(255) NOT NULL,
+    content TEXT COMPRESSION lz4 NOT NULL,
+    file_checksum VARCHAR(64),
+    CONSTRAINT document_chunk_contents_pkey PRIMARY KEY (chunk_uuid, project_id),
+    CONSTRAINT document_chunk_contents_chunk_fkey
+        FOREIGN KEY (chunk_uuid, project_id) REFERENCES document_chunks (uuid, project_id) ON DELETE CASCADE
+) PARTITION BY LIST (project_id);
+
+CREATE TABLE IF NOT EXISTS document_chunk_contents_default PARTITION OF document_chunk_contents DEFAULT;
+
+CREATE INDEX IF NOT EXISTS document_chunk_contents_file_checksum_idx ON document_chunk_contents (file_checksum);
+
+-- One content partition per project that has a chunk partition
+DO $$
+DECLARE
+    project VARCHAR(255);
+BEGIN
+    FOR project IN SELECT DISTINCT project_id FROM document_chunks LOOP
+        IF to_regclass('document_chunks_p_' || left(md5(project), 16)) IS NOT NULL THEN
+            EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF document_chunk_contents FOR VALUES IN (%L)',
+                           'document_chunk_contents_p_' || left(md5(project), 16), project);
+        END IF;
+    END LOOP;
+END $$;
+
+INSERT INTO document_chunk_contents (chunk_uuid, project_id, content, file_checksum)
+SELECT uuid, project_id, content, file_checksum FROM document_chunks;
+
+-- Narrow vector table
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS file_path_id BIGINT;
+
+UPDATE document_chunks c SET file_path_id = p.id
+FROM document_file_paths p
+WHERE p.project_id = c.project_id AND p.file_path = c.file_path;
+
+ALTER TABLE document_chunks ALTER COLUMN file_path_id SET NOT NULL;
+ALTER TABLE document_chunks DROP COLUMN content, DROP COLUMN file_path, DROP COLUMN file_checksum;
+
+CREATE INDEX IF NOT EXISTS document_chunks_file_path_id_idx ON document_chunks (file_path_id);
+
+-- Keep embeddings in the heap row where they fit, rather than in TOAST, so reading one costs no extra lookup
+ALTER TABLE document_chunks ALTER COLUMN embedding SET STORAGE MAIN;
+
+-- Reclaim the space of the dropped columns and of the rows rewritten by the UPDATE
+VACUUM FULL ANALYZE document_chunks;
+
+-- Chunks as the application reads them, with their path and content
+CREATE OR REPLACE VIEW document_chunk_details AS
+SELECT c.uuid, c.project_id, p.file_path, c.start_line, c.end_line, t.content, t.file_checksum, c.embedding, c.created_at
+FROM document_chunks c
+JOIN document_file_paths p ON p.id = c.file_path_id
+JOIN document_chunk_contents t ON t.chunk_uuid = c.uuid AND t.project_id = c.project_id;
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
+GRANT ALL PRIVILEGES ON ALL SEQUENCES IN SCHEMA appread TO postgres;
@@ -0,0 +1,85 @@
+-- Chunk text and vectors are content-addressed: identical text is stored once in chunk_contents, and embedded
+-- once per model in chunk_embeddings, however many projects (forks, branches, re-ingestions) contain it.
+-- document_chunks becomes the per-project membership table: where a project contains which content.
+-- The content hash is sha256(convert_to(content, 'UTF8')).
+
+CREATE TABLE IF NOT EXISTS chunk_contents (
+    content_hash BYTEA PRIMARY KEY,
+    content TEXT COMPRESSION lz4 NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS chunk_embeddings (
+    content_hash BYTEA NOT NULL,
+    model VARCHAR(255) NOT NULL,
+    embedding vector NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT chunk_embeddings_pkey PRIMARY KEY (content_hash, model)
+);
+
+-- Keep embeddings in the heap row where they fit, rather than in TOAST, so reading one costs no extra lookup
+ALTER TABLE chunk_embeddings ALTER COLUMN embedding SET STORAGE MAIN;
+
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS content_hash BYTEA;
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS file_checksum VARCHAR(64);
+
+UPDATE document_chunks c
+SET content_hash = sha256(convert_to(t.content, 'UTF8')), file_checksum = t.file_checksum
+FROM document_chunk_contents t
+WHERE t.chunk_uuid = c.uuid AND t.project_id = c.project_id;
+
+INSERT INTO chunk_contents (content_hash, content)
+SELECT DISTINCT ON (c.content_hash) c.content_hash, t.content
+FROM document_chunks c
+JOIN document_chunk_contents t ON t.chunk_uuid = c.uuid AND t.project_id = c.project_id
+ON CONFLICT DO NOTHING;
+
+-- Projects without a project_embedding_models row were embedded with app.embedding.migration.source-model. The
+-- script does not guess it: set it before running, e.g. ALTER DATABASE appread SET appread.embedding_source_model = '...'
+DO $$
+BEGIN
+    IF NULLIF(current_setting('appread.embedding_source_model', true), '') IS NULL AND EXISTS (
+            SELECT 1 FROM document_chunks c
+            WHERE NOT EXISTS (SELECT 1 FROM project_embedding_models m WHERE m.project_id = c.project_id)) THEN
+        RAISE EXCEPTION 'Set appread.embedding_source_model to the model of projects without a recorded embedding model';
+    END IF;
+END $$;
+
+INSERT INTO chunk_embeddings (content_hash, model, embedding)
+SELECT DISTINCT ON (c.content_hash, COALESCE(m.model, current_setting('appread.embedding_source_model', true)))
+       c.content_hash, COALESCE(m.model, current_setting('appread.embedding_source_model', true)), c.embedding
+FROM document_chunks c
+LEFT JOIN project_embedding_models m ON m.project_id = c.project_id
+ON CONFLICT DO NOTHING;
+
+-- Vectors of unfinished re-embedding migrations are kept; they are simply the content's vectors for the target model
+INSERT INTO chunk_embeddings (content_hash, model, embedding)
+SELECT DISTINCT ON (c.content_hash, s.model) c.content_hash, s.model, s.embedding
+FROM document_chunk_embeddings_shadow s
+JOIN document_chunks c ON c.uuid = s.chunk_uuid AND c.project_id = s.project_id
+ON CONFLICT DO NOTHING;
+
+DROP TABLE document_chunk_embeddings_shadow;
+DROP VIEW IF EXISTS document_chunk_details;
+DROP TABLE document_chunk_contents;
+
+ALTER TABLE document_chunks ALTER COLUMN content_hash SET NOT NULL;
+-- Also drops the per-partition vector indexes; the application builds one index on chunk_embeddings on startup.
+-- Content is shared across projects, so no vector belongs to a single project and there can be no project-local
+-- index: a project-scoped search walks the shared index and filters by project, which reads many rows of other
+-- projects for a small project among large ones. Storing and embedding each content once is worth that trade-off.
+ALTER TABLE document_chunks DROP COLUMN embedding;
+
+CREATE INDEX IF NOT EXISTS document_chunks_content_hash_idx ON document_chunks (content_hash);
+CREATE INDEX IF NOT EXISTS document_chunks_file_checksum_idx ON document_chunks (file_checksum);
+
+VACUUM FULL ANALYZE document_chunks;
+
+-- Chunks as the application reads them, with their path and content
+CREATE OR REPLACE VIEW document_chunk_details AS
+SELECT c.uuid, c.project_id, p.file_path, c.start_line, c.end_line, t.content, c.content_hash, c.file_checksum, c.created_at
+FROM document_chunks c
+JOIN document_file_paths p ON p.id = c.file_path_id
+JOIN chunk_contents t ON t.content_hash = c.content_hash;
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
@@ -0,0 +1,21 @@
+-- A project's chunks are versioned: a re-ingestion writes a new version next to the live one, and searches only
+-- see the version project_index_versions points to. Flipping the pointer swaps the whole project at once; rows
+-- of older versions are then deleted in the background. Versions above live_version are still being built.
+CREATE TABLE IF NOT EXISTS project_index_versions (
+    project_id VARCHAR(255) PRIMARY KEY,
+    live_version INTEGER NOT NULL,
+    next_version INTEGER NOT NULL,
+    swapped_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+-- A constant default: existing rows become version 1 without rewriting the table
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS index_version INTEGER NOT NULL DEFAULT 1;
+
+INSERT INTO project_index_versions (project_id, live_version, next_version)
+SELECT DISTINCT project_id, 1, 1 FROM document_chunks
+ON CONFLICT DO NOTHING;
+
+CREATE INDEX IF NOT EXISTS document_chunks_project_version_idx ON document_chunks (project_id, index_version);
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
@@ -0,0 +1,21 @@
+-- Every project has a row here from its first ingestion. last_accessed_at is advanced by ingestions and searches
+-- (recorded in batches, so it may lag by a minute); projects not accessed within app.projects.retention are purged.
+-- A project being purged is PURGING until its last rows are gone, and a purge interrupted by a restart resumes.
+CREATE TABLE IF NOT EXISTS projects (
+    project_id VARCHAR(255) PRIMARY KEY,
+    status VARCHAR(16) NOT NULL DEFAULT 'ACTIVE',
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    last_accessed_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS projects_last_accessed_at_idx ON projects (last_accessed_at) WHERE status = 'ACTIVE';
+
+-- Existing projects start their retention period now
+INSERT INTO projects (project_id)
+SELECT project_id FROM project_index_versions
+UNION
+SELECT DISTINCT project_id FROM document_files
+ON CONFLICT DO NOTHING;
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
@@ -0,0 +1,14 @@
+-- Each maintained index's size, and the rows inserted and deleted in its table so far (pg_stat_user_tables
+-- n_tup_ins + n_tup_del), as of its last build. The maintenance scheduler reindexes an index that has grown well
+-- beyond its built size, and retrains an ivfflat index once enough of its table has changed since it was trained.
+-- A row whose index_oid no longer matches was built outside the scheduler and is taken as the new baseline.
+CREATE TABLE IF NOT EXISTS index_maintenance_baselines (
+    index_name VARCHAR(255) PRIMARY KEY,
+    index_oid BIGINT NOT NULL,
+    size_bytes BIGINT NOT NULL,
+    churn BIGINT NOT NULL,
+    built_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Grant privileges
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA appread TO postgres;
@@ -0,0 +1,135 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.postgresql.copy.CopyIn;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.vectorarena.VectorArena;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+class BinaryCopyEncoderTest {
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private CopyIn copyIn;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        copyIn = Mockito.mock(CopyIn.class);
+        doAnswer(invocation -> {
+            written.write(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+        when(copyIn.endCopy()).thenReturn(2L);
+    }
+
+    @Test
+    void shouldEncodeStagedContentInBinaryCopyFormat() throws Exception {
+        DocumentChunkWithEmbedding heapChunk = chunk("int a;", new float[]{1.0f, 2.0f});
+        VectorArena arena = new VectorArena(2, 4);
+        DocumentChunkWithEmbedding offHeapChunk = new DocumentChunkWithEmbedding(documentChunk("int b;"),
+                arena.store(new float[]{3.0f, 4.0f}));
+
+        BinaryCopyEncoder encoder = new BinaryCopyEncoder(copyIn, 64);
+        DocumentChunkWriter.encodeStaged(encoder, ContentHash.of("int a;"), heapChunk);
+        DocumentChunkWriter.encodeStaged(encoder, ContentHash.of("int b;"), offHeapChunk);
+        assertEquals(2L, encoder.finish());
+
+        ByteBuffer data = ByteBuffer.wrap(written.toByteArray());
+        byte[] signature = new byte[11];
+        data.get(signature);
+        assertArrayEquals("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1), signature);
+        assertEquals(0, data.getInt());
+        assertEquals(0, data.getInt());
+
+        assertStagedRow(data, "int a;", 1.0f, 2.0f);
+        assertStagedRow(data, "int b;", 3.0f, 4.0f);
+        assertEquals(-1, data.getShort());
+        assertFalse(data.hasRemaining());
+        arena.close();
+    }
+
+    @Test
+    void shouldEncodeChunksByContentHash() throws Exception {
+        BinaryCopyEncoder encoder = new BinaryCopyEncoder(copyIn, 64);
+        DocumentChunkWriter.encodeChunk(encoder, "project", 3, 42L, ContentHash.of("int a;"), chunk("int a;", null));
+        encoder.finish();
+
+        ByteBuffer data = ByteBuffer.wrap(written.toByteArray());
+        data.position(19);
+        assertEquals(7, data.getShort());
+        assertEquals("project", readText(data));
+        assertEquals(8, data.getInt());
+        assertEquals(42L, data.getLong());
+        assertEquals(4, data.getInt());
+        assertEquals(1, data.getInt());
+        assertEquals(4, data.getInt());
+        assertEquals(2, data.getInt());
+        assertArrayEquals(ContentHash.of("int a;"), readBytes(data));
+        assertEquals(-1, data.getInt());
+        assertEquals(4, data.getInt());
+        assertEquals(3, data.getInt());
+        assertEquals(-1, data.getShort());
+    }
+
+    @Test
+    void shouldStreamValuesLargerThanTheBuffer() throws Exception {
+        char[] content = new char[1000];
+        Arrays.fill(content, 'x');
+
+        BinaryCopyEncoder encoder = new BinaryCopyEncoder(copyIn, 64);
+        encoder.startRow(1);
+        encoder.text(new String(content));
+        encoder.finish();
+
+        ByteBuffer data = ByteBuffer.wrap(written.toByteArray());
+        data.position(19);
+        assertEquals(1, data.getShort());
+        assertEquals(1000, data.getInt());
+        data.position(data.position() + 1000);
+        assertEquals(-1, data.getShort());
+    }
+
+    private static DocumentChunkWithEmbedding chunk(String content, float[] embedding) {
+        return new DocumentChunkWithEmbedding(documentChunk(content), embedding);
+    }
+
+    private static DocumentChunk documentChunk(String content) {
+        return new DocumentChunk(content, "src/A.java", 1, 2, null);
+    }
+
+    private static void assertStagedRow(ByteBuffer data, String content, float... vector) {
+        assertEquals(3, data.getShort());
+        assertArrayEquals(ContentHash.of(content), readBytes(data));
+        assertEquals(content, readText(data));
+        assertEquals(4 + vector.length * 4, data.getInt());
+        assertEquals(vector.length, data.getShort());
+        assertEquals(0, data.getShort());
+        for (float component : vector) {
+            assertEquals(component, data.getFloat());
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return bytes;
+    }
+
+    private static String readText(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
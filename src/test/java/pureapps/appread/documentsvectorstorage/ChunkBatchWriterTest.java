@@ -0,0 +1,120 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChunkBatchWriterTest {
+
+    private static final String MODEL = "text-embedding-3-small";
+
+    private PersistenceService persistenceService;
+    private PlatformTransactionManager transactionManager;
+    private ChunkBatchWriter chunkBatchWriter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        persistenceService = mock(PersistenceService.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        chunkBatchWriter = new ChunkBatchWriter(persistenceService, transactionManager);
+        // A long window: groups in these tests are flushed by size
+        setField("window", Duration.ofSeconds(10));
+        setField("maxRows", 4);
+        chunkBatchWriter.startGroupCommit();
+    }
+
+    @AfterEach
+    void tearDown() {
+        chunkBatchWriter.stopGroupCommit();
+    }
+
+    @Test
+    void concurrentWritesShareOneCommit() throws Exception {
+        List<DocumentChunkWithEmbedding> first = chunks(2);
+        List<DocumentChunkWithEmbedding> second = chunks(2);
+
+        CompletableFuture<Void> firstWrite = chunkBatchWriter.submit("project-a", 1, MODEL, first);
+        CompletableFuture<Void> secondWrite = chunkBatchWriter.submit("project-b", 1, MODEL, second);
+        CompletableFuture.allOf(firstWrite, secondWrite).get(5, TimeUnit.SECONDS);
+
+        verify(persistenceService).saveChunks("project-a", 1, MODEL, first);
+        verify(persistenceService).saveChunks("project-b", 1, MODEL, second);
+        verify(transactionManager, times(1)).getTransaction(any());
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    void groupWritesProjectsInProjectOrder() throws Exception {
+        List<DocumentChunkWithEmbedding> first = chunks(2);
+        List<DocumentChunkWithEmbedding> second = chunks(2);
+
+        CompletableFuture<Void> firstWrite = chunkBatchWriter.submit("project-b", 1, MODEL, first);
+        CompletableFuture<Void> secondWrite = chunkBatchWriter.submit("project-a", 1, MODEL, second);
+        CompletableFuture.allOf(firstWrite, secondWrite).get(5, TimeUnit.SECONDS);
+
+        InOrder inOrder = inOrder(persistenceService);
+        inOrder.verify(persistenceService).saveChunks("project-a", 1, MODEL, second);
+        inOrder.verify(persistenceService).saveChunks("project-b", 1, MODEL, first);
+    }
+
+    @Test
+    void failedGroupOnlyFailsTheWriteThatBrokeIt() throws Exception {
+        List<DocumentChunkWithEmbedding> good = chunks(2);
+        List<DocumentChunkWithEmbedding> bad = chunks(2);
+        doThrow(new RuntimeException("Failed to save chunks to database")).when(persistenceService).saveChunks("project-b", 1, MODEL, bad);
+
+        CompletableFuture<Void> goodWrite = chunkBatchWriter.submit("project-a", 1, MODEL, good);
+        CompletableFuture<Void> badWrite = chunkBatchWriter.submit("project-b", 1, MODEL, bad);
+
+        assertNull(goodWrite.get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> badWrite.get(5, TimeUnit.SECONDS));
+        assertEquals("Failed to save chunks to database", failure.getCause().getMessage());
+        verify(transactionManager).rollback(any());
+        // Once in the rolled back group, once on its own
+        verify(persistenceService, times(2)).saveChunks("project-a", 1, MODEL, good);
+    }
+
+    @Test
+    void writeWaitsForTheWindowAndRethrowsTheFailure() throws Exception {
+        setField("window", Duration.ofMillis(20));
+        chunkBatchWriter.stopGroupCommit();
+        chunkBatchWriter.startGroupCommit();
+        List<DocumentChunkWithEmbedding> chunks = chunks(1);
+        doThrow(new IllegalArgumentException("Embedding has 3 dimensions, expected 1536"))
+                .when(persistenceService).saveChunks("project", 1, MODEL, chunks);
+
+        assertThrows(IllegalArgumentException.class, () -> chunkBatchWriter.write("project", 1, MODEL, chunks));
+        // A group of one is written in the transaction of saveChunks itself
+        verify(transactionManager, never()).getTransaction(any());
+    }
+
+    private static List<DocumentChunkWithEmbedding> chunks(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new DocumentChunkWithEmbedding(new DocumentChunk("chunk " + i, "File.java", i, i, null)))
+                .toList();
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = ChunkBatchWriter.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(chunkBatchWriter, value);
+    }
+}
@@ -0,0 +1,128 @@
+package pureapps.appread.documentsvectorstorage;
+
+import com.pgvector.PGvector;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks with EXPLAIN that the similarity search SQL is answered by the ANN index of either type rather than an
+ * exact scan.
+ */
+@Testcontainers
+class DocumentChunkSearchPlanIntegrationTest {
+
+    private static final int DIMENSIONS = 8;
+    private static final String MODEL = "text-embedding-3-small";
+
+    @Container
+    static PostgreSQLContainer<?> postgreSQLContainer =
+            new PostgreSQLContainer<>(DockerImageName.parse("pgvector/pgvector:pg16"))
+                    .withDatabaseName("testdb")
+                    .withUsername("postgres")
+                    .withPassword("test");
+
+    private static SingleConnectionDataSource dataSource;
+
+    @BeforeAll
+    static void createSchema() {
+        dataSource = new SingleConnectionDataSource(postgreSQLContainer.getJdbcUrl(),
+                postgreSQLContainer.getUsername(), postgreSQLContainer.getPassword(), true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+        jdbcTemplate.execute("CREATE TABLE document_file_paths (id BIGINT PRIMARY KEY, project_id VARCHAR(255), file_path VARCHAR(1024))");
+        jdbcTemplate.execute("CREATE TABLE chunk_contents (content_hash BYTEA PRIMARY KEY, content TEXT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE chunk_embeddings (content_hash BYTEA NOT NULL, model VARCHAR(255) NOT NULL, " +
+                             "embedding vector NOT NULL, PRIMARY KEY (content_hash, model))");
+        jdbcTemplate.execute("CREATE TABLE document_chunks (uuid UUID NOT NULL DEFAULT gen_random_uuid(), " +
+                             "project_id VARCHAR(255) NOT NULL, file_path_id BIGINT NOT NULL, start_line INTEGER NOT NULL, " +
+                             "end_line INTEGER NOT NULL, content_hash BYTEA NOT NULL, file_checksum VARCHAR(64), " +
+                             "index_version INTEGER NOT NULL DEFAULT 1, " +
+                             "created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (uuid, project_id)) " +
+                             "PARTITION BY LIST (project_id)");
+        jdbcTemplate.execute("CREATE TABLE document_chunks_large PARTITION OF document_chunks FOR VALUES IN ('large')");
+        jdbcTemplate.execute("CREATE TABLE document_chunks_default PARTITION OF document_chunks DEFAULT");
+        jdbcTemplate.execute("CREATE INDEX ON document_chunks (content_hash)");
+        jdbcTemplate.execute("CREATE INDEX ON document_chunks (project_id, index_version)");
+        jdbcTemplate.execute("CREATE TABLE project_index_versions (project_id VARCHAR(255) PRIMARY KEY, " +
+                             "live_version INTEGER NOT NULL, next_version INTEGER NOT NULL, swapped_at TIMESTAMP WITH TIME ZONE)");
+        jdbcTemplate.execute("INSERT INTO project_index_versions VALUES ('large', 1, 1, now()), ('small', 1, 1, now())");
+
+        // 20000 contents, each embedded with two models; 9 in 10 chunks belong to the large project
+        jdbcTemplate.execute("INSERT INTO document_file_paths VALUES (1, 'large', 'A.java'), (2, 'small', 'B.java')");
+        jdbcTemplate.execute("INSERT INTO chunk_contents SELECT sha256(i::text::bytea), 'chunk ' || i FROM generate_series(1, 20000) i");
+        jdbcTemplate.execute("INSERT INTO chunk_embeddings SELECT sha256(i::text::bytea), m, " +
+                             "ARRAY(SELECT random()::real FROM generate_series(1, " + DIMENSIONS + ") WHERE i > 0)::vector " +
+                             "FROM generate_series(1, 20000) i, unnest(ARRAY['" + MODEL + "', 'text-embedding-ada-002']) m");
+        jdbcTemplate.execute("INSERT INTO document_chunks (project_id, file_path_id, start_line, end_line, content_hash) " +
+                             "SELECT CASE WHEN i % 10 = 0 THEN 'small' ELSE 'large' END, CASE WHEN i % 10 = 0 THEN 2 ELSE 1 END, " +
+                             "i, i, sha256(i::text::bytea) FROM generate_series(1, 20000) i");
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    /**
+     * Builds the index of the given type with {@link VectorIndexManager}'s own statements, which also drop the
+     * index of the other type.
+     */
+    private static void useIndex(VectorIndexType indexType) throws Exception {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        VectorIndexSettings settings = new VectorIndexSettings();
+        Field type = VectorIndexSettings.class.getDeclaredField("type");
+        type.setAccessible(true);
+        type.set(settings, indexType.name());
+        new VectorIndexManager(jdbcTemplate, settings, new MaintenanceLock(jdbcTemplate))
+                .maintainIndex(jdbcTemplate, VectorStorageMode.FULL, DIMENSIONS);
+        jdbcTemplate.execute("ANALYZE chunk_embeddings");
+        jdbcTemplate.execute("SET " + indexType.iterativeScanParameter() + " = relaxed_order");
+    }
+
+    @ParameterizedTest
+    @EnumSource(VectorIndexType.class)
+    void projectScopedSearchUsesTheIndex(VectorIndexType indexType) throws Exception {
+        useIndex(indexType);
+
+        String plan = explain(DocumentChunkSearchRepository.searchSql(VectorStorageMode.FULL, DIMENSIONS, true), "large");
+
+        assertTrue(plan.contains("Index Scan using " + VectorStorageMode.FULL.indexName(DIMENSIONS, indexType)), plan);
+        // Partition pruning: only the project's partition is joined
+        assertTrue(plan.contains("document_chunks_large"), plan);
+        assertFalse(plan.contains("document_chunks_default"), plan);
+    }
+
+    @ParameterizedTest
+    @EnumSource(VectorIndexType.class)
+    void searchAcrossProjectsUsesTheIndex(VectorIndexType indexType) throws Exception {
+        useIndex(indexType);
+
+        String plan = explain(DocumentChunkSearchRepository.searchSql(VectorStorageMode.FULL, DIMENSIONS, false), null);
+
+        assertTrue(plan.contains("Index Scan using " + VectorStorageMode.FULL.indexName(DIMENSIONS, indexType)), plan);
+        assertFalse(plan.contains("Seq Scan on chunk_embeddings"), plan);
+    }
+
+    private static String explain(String sql, String projectId) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("queryEmbedding", new PGvector(new float[]{0.1f, 0.2f, 0.3f, 0.4f, 0.5f, 0.6f, 0.7f, 0.8f}))
+                .addValue("similarityThreshold", 0.7f)
+                .addValue("limit", 10)
+                .addValue("model", MODEL);
+        if (projectId != null) {
+            parameters.addValue("projectId", projectId);
+        }
+        List<String> plan = new NamedParameterJdbcTemplate(dataSource).queryForList("EXPLAIN " + sql, parameters, String.class);
+        return String.join("\n", plan);
+    }
+}
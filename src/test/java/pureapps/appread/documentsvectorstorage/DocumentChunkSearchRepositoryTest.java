@@ -0,0 +1,161 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class DocumentChunkSearchRepositoryTest {
+
+    @Test
+    void fullModeOrdersByExactDistance() {
+        String sql = DocumentChunkSearchRepository.searchSql(VectorStorageMode.FULL, 1536, true);
+
+        assertTrue(sql.contains("ORDER BY (embedding::vector(1536)) <=> CAST(:queryEmbedding AS vector(1536)) LIMIT :limit) hits"));
+        assertFalse(sql.contains(":candidates"));
+    }
+
+    @Test
+    void thresholdIsOnlyAppliedToTheNearestRows() {
+        for (VectorStorageMode mode : VectorStorageMode.values()) {
+            for (boolean projectScoped : new boolean[]{true, false}) {
+                String sql = DocumentChunkSearchRepository.searchSql(mode, 1536, projectScoped);
+
+                // A distance predicate inside the ordered scan would keep the planner from using the index
+                assertEquals(1, sql.split(":similarityThreshold", -1).length - 1, mode.name());
+                assertTrue(sql.contains("WHERE hits.distance <= :similarityThreshold ORDER BY hits.distance"), mode.name());
+            }
+        }
+    }
+
+    @Test
+    void searchIsRestrictedToConfiguredDimensions() {
+        for (VectorStorageMode mode : VectorStorageMode.values()) {
+            String sql = DocumentChunkSearchRepository.searchSql(mode, 512, true);
+
+            // Literal predicate, so the planner can match the partial index of that dimensionality
+            assertTrue(sql.contains("WHERE vector_dims(embedding) = 512"), mode.name());
+            assertTrue(mode.indexDefinition(512, mode.defaultIndexType(), "m = 16").endsWith("WHERE vector_dims(embedding) = 512"), mode.name());
+        }
+    }
+
+    @Test
+    void searchesOnlyReadLiveIndexVersions() {
+        for (VectorStorageMode mode : VectorStorageMode.values()) {
+            assertTrue(DocumentChunkSearchRepository.searchSql(mode, 1536, true)
+                    .contains("AND c.index_version = (SELECT live_version FROM project_index_versions WHERE project_id = :projectId)"), mode.name());
+            assertTrue(DocumentChunkSearchRepository.searchSql(mode, 1536, false)
+                    .contains("v.live_version = d.index_version"), mode.name());
+        }
+    }
+
+    @Test
+    void projectScopedSearchComparesProjectIdByEquality() {
+        for (VectorStorageMode mode : VectorStorageMode.values()) {
+            // Plain equality lets the planner prune the search to the project's partition
+            assertTrue(DocumentChunkSearchRepository.searchSql(mode, 1536, true).contains("AND c.project_id = :projectId "), mode.name());
+            assertFalse(DocumentChunkSearchRepository.searchSql(mode, 1536, false).contains(":projectId"), mode.name());
+        }
+    }
+
+    @Test
+    void halfvecModeUsesIndexExpressionForCandidatesAndReranks() {
+        String sql = DocumentChunkSearchRepository.searchSql(VectorStorageMode.HALFVEC, 1536, true);
+
+        // Must match the expression of chunk_embeddings_halfvec_hnsw_1536_idx
+        assertTrue(sql.contains("ORDER BY (embedding::halfvec(1536)) <=> CAST(:queryEmbedding AS halfvec(1536)) LIMIT :candidates"));
+        assertTrue(sql.contains("ORDER BY embedding <=> CAST(:queryEmbedding AS vector) LIMIT :limit) hits"));
+    }
+
+    @Test
+    void contentIsOnlyJoinedToTheFinalHits() {
+        for (VectorStorageMode mode : VectorStorageMode.values()) {
+            String sql = DocumentChunkSearchRepository.searchSql(mode, 1536, true);
+
+            assertEquals(1, sql.split("chunk_contents", -1).length - 1, mode.name());
+            assertTrue(sql.endsWith("LIMIT :limit) hits JOIN document_file_paths p ON p.id = hits.file_path_id " +
+                                    "JOIN chunk_contents t ON t.content_hash = hits.content_hash " +
+                                    "WHERE hits.distance <= :similarityThreshold ORDER BY hits.distance"), mode.name());
+        }
+    }
+
+    @Test
+    void indexDefinitionUsesConfiguredTypeAndParameters() {
+        assertEquals("ON chunk_embeddings USING hnsw ((embedding::vector(1536)) vector_cosine_ops) " +
+                     "WITH (m = 16, ef_construction = 64) WHERE vector_dims(embedding) = 1536",
+                VectorStorageMode.FULL.indexDefinition(1536, VectorIndexType.HNSW, "m = 16, ef_construction = 64"));
+        assertEquals("chunk_embeddings_halfvec_ivfflat_768_idx", VectorStorageMode.HALFVEC.indexName(768, VectorIndexType.IVFFLAT));
+    }
+
+    @Test
+    void efSearchCoversTheRowsASearchNeeds() {
+        VectorIndexSettings settings = new VectorIndexSettings();
+
+        assertEquals(40, settings.searchValue(VectorIndexType.HNSW, 10));
+        assertEquals(200, settings.searchValue(VectorIndexType.HNSW, 200));
+        assertEquals(10, settings.searchValue(VectorIndexType.IVFFLAT, 200));
+        assertEquals(VectorIndexType.IVFFLAT, settings.typeFor(VectorStorageMode.FULL));
+        assertEquals(VectorIndexType.HNSW, settings.typeFor(VectorStorageMode.BINARY));
+        assertEquals("relaxed_order", settings.iterativeScan(VectorIndexType.HNSW));
+        assertEquals("relaxed_order", settings.iterativeScan(VectorIndexType.IVFFLAT));
+    }
+
+    @Test
+    void ivfflatListsFollowTheDataSize() {
+        VectorIndexSettings settings = new VectorIndexSettings();
+
+        assertEquals(1, settings.lists(0));
+        assertEquals(250, settings.lists(250_000));
+        assertEquals(2000, settings.lists(4_000_000));
+        assertEquals("lists = 250", settings.storageParameters(VectorIndexType.IVFFLAT, 250_000));
+    }
+
+    @Test
+    void binaryModeUsesHammingDistanceForCandidates() {
+        String sql = DocumentChunkSearchRepository.searchSql(VectorStorageMode.BINARY, 1536, true);
+
+        assertTrue(sql.contains("ORDER BY (binary_quantize(embedding)::bit(1536)) <~> binary_quantize(CAST(:queryEmbedding AS vector(1536))) LIMIT :candidates"));
+    }
+
+    @Test
+    void iterativeScansNeedPgvector08() {
+        assertFalse(DocumentChunkSearchRepository.supportsIterativeScan("0.7.4"));
+        assertTrue(DocumentChunkSearchRepository.supportsIterativeScan("0.8.0"));
+        assertTrue(DocumentChunkSearchRepository.supportsIterativeScan("0.10.1"));
+        assertTrue(DocumentChunkSearchRepository.supportsIterativeScan("1.0"));
+    }
+
+    @Test
+    void searchesRunWithoutIterativeScansOnAnOlderPgvector() {
+        NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT extversion"), any(SqlParameterSource.class), eq(String.class))).thenReturn("0.7.4");
+        DocumentChunkSearchRepository repository = new DocumentChunkSearchRepository(jdbcTemplate, new VectorIndexSettings());
+
+        repository.findSimilarChunks(new float[]{0.1f, 0.2f}, 0.7f, 10, "my-project", "model");
+        repository.findSimilarChunks(new float[]{0.1f, 0.2f}, 0.7f, 10, "my-project", "model");
+
+        ArgumentCaptor<SqlParameterSource> settings = ArgumentCaptor.forClass(SqlParameterSource.class);
+        verify(jdbcTemplate, times(2)).queryForObject(startsWith("SELECT set_config"), settings.capture(), eq(String.class));
+        assertTrue(settings.getAllValues().stream().allMatch(setting -> "ivfflat.probes".equals(setting.getValue("name"))));
+        verify(jdbcTemplate, times(1)).queryForObject(startsWith("SELECT extversion"), any(SqlParameterSource.class), eq(String.class));
+    }
+
+    @Test
+    void searchesUseIterativeScansOnPgvector08() {
+        NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT extversion"), any(SqlParameterSource.class), eq(String.class))).thenReturn("0.8.0");
+        DocumentChunkSearchRepository repository = new DocumentChunkSearchRepository(jdbcTemplate, new VectorIndexSettings());
+
+        repository.findSimilarChunks(new float[]{0.1f, 0.2f}, 0.7f, 10, "my-project", "model");
+
+        verify(jdbcTemplate).queryForObject(startsWith("SELECT set_config"),
+                argThat((SqlParameterSource setting) -> "ivfflat.iterative_scan".equals(setting.getValue("name"))), eq(String.class));
+    }
+}
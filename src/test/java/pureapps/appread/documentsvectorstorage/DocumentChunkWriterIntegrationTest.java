@@ -0,0 +1,168 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads chunks with the binary COPY path into the real schema. All statements run on one session, as a group
+ * commit of {@link ChunkBatchWriter} does, so the temporary staging table outlives each transaction.
+ */
+@Testcontainers
+class DocumentChunkWriterIntegrationTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgreSQLContainer =
+            new PostgreSQLContainer<>(DockerImageName.parse("pgvector/pgvector:pg16"))
+                    .withDatabaseName("testdb")
+                    .withUsername("postgres")
+                    .withPassword("test");
+
+    private static SingleConnectionDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static TransactionTemplate transaction;
+    private static DocumentChunkWriter writer;
+
+    @BeforeAll
+    static void createSchema() {
+        dataSource = new SingleConnectionDataSource(postgreSQLContainer.getJdbcUrl(),
+                postgreSQLContainer.getUsername(), postgreSQLContainer.getPassword(), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        writer = new DocumentChunkWriter(jdbcTemplate);
+
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+        jdbcTemplate.execute("CREATE TABLE document_file_paths (id BIGSERIAL PRIMARY KEY, project_id VARCHAR(255) NOT NULL, " +
+                             "file_path VARCHAR(1024) NOT NULL, UNIQUE (project_id, file_path))");
+        jdbcTemplate.execute("CREATE TABLE chunk_contents (content_hash BYTEA PRIMARY KEY, content TEXT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE chunk_embeddings (content_hash BYTEA NOT NULL, model VARCHAR(255) NOT NULL, " +
+                             "embedding vector NOT NULL, PRIMARY KEY (content_hash, model))");
+        jdbcTemplate.execute("CREATE TABLE document_chunks (uuid UUID NOT NULL DEFAULT gen_random_uuid(), " +
+                             "project_id VARCHAR(255) NOT NULL, file_path_id BIGINT NOT NULL, start_line INTEGER NOT NULL, " +
+                             "end_line INTEGER NOT NULL, content_hash BYTEA NOT NULL, file_checksum VARCHAR(64), " +
+                             "index_version INTEGER NOT NULL, " +
+                             "created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (uuid, project_id)) " +
+                             "PARTITION BY LIST (project_id)");
+        jdbcTemplate.execute("CREATE TABLE document_chunks_a PARTITION OF document_chunks FOR VALUES IN ('project-a')");
+        jdbcTemplate.execute("CREATE TABLE document_chunks_default PARTITION OF document_chunks DEFAULT");
+    }
+
+    @AfterAll
+    static void closeDataSource() {
+        dataSource.destroy();
+    }
+
+    @BeforeEach
+    void clearTables() {
+        jdbcTemplate.execute("TRUNCATE document_chunks, document_file_paths, chunk_contents, chunk_embeddings");
+    }
+
+    @Test
+    void twoProjectsLoadedInOneTransactionShareTheirContent() {
+        transaction.executeWithoutResult(status -> {
+            assertEquals(2, writer.write("project-a", 1, "model-a", List.of(
+                    chunk("A.java", "shared", 1f), chunk("A.java", "only in a", 2f))));
+            assertEquals(2, writer.write("project-b", 1, "model-a", List.of(
+                    chunk("B.java", "shared", 1f), chunk("B.java", "only in b", 3f))));
+        });
+
+        assertEquals(2, count("SELECT count(*) FROM document_chunks_a"));
+        assertEquals(2, count("SELECT count(*) FROM document_chunks_default"));
+        assertEquals(3, count("SELECT count(*) FROM chunk_contents"));
+        assertEquals(3, count("SELECT count(*) FROM chunk_embeddings WHERE model = 'model-a'"));
+        assertEquals(2, count("SELECT count(*) FROM document_file_paths"));
+        assertEquals(2, count("SELECT count(*) FROM document_chunks c " +
+                "JOIN chunk_contents t ON t.content_hash = c.content_hash WHERE t.content = 'shared'"));
+    }
+
+    @Test
+    void eachLoadOfATransactionStagesOnlyItsOwnContent() {
+        transaction.executeWithoutResult(status -> {
+            writer.write("project-a", 1, "model-a", List.of(chunk("A.java", "first load", 1f)));
+            writer.write("project-b", 1, "model-b", List.of(chunk("B.java", "second load", 2f)));
+        });
+
+        // Without the truncate, the second load would also store the first load's content under its model
+        assertEquals(1, count("SELECT count(*) FROM chunk_embeddings WHERE model = 'model-a'"));
+        assertEquals(1, count("SELECT count(*) FROM chunk_embeddings WHERE model = 'model-b'"));
+    }
+
+    @Test
+    void stagedRowsAreDeletedOnCommit() {
+        transaction.executeWithoutResult(status -> writer.write("project-a", 1, "model-a", List.of(chunk("A.java", "staged", 1f))));
+
+        assertEquals(0, count("SELECT count(*) FROM chunk_staging"));
+    }
+
+    @Test
+    void chunksWithoutAnEmbeddingReuseStoredContent() {
+        transaction.executeWithoutResult(status -> writer.write("project-a", 1, "model-a", List.of(chunk("A.java", "stored", 1f))));
+
+        DocumentChunkWithEmbedding reused = new DocumentChunkWithEmbedding(chunk("B.java", "stored", 0f).getChunk());
+        transaction.executeWithoutResult(status -> assertEquals(1, writer.write("project-b", 1, "model-a", List.of(reused))));
+
+        assertEquals(2, count("SELECT count(*) FROM document_chunks"));
+        assertEquals(1, count("SELECT count(*) FROM chunk_contents"));
+    }
+
+    @Test
+    void chunksWithoutAnEmbeddingFailWithoutStoredContent() {
+        DocumentChunkWithEmbedding chunk =
+                new DocumentChunkWithEmbedding(chunk("A.java", "never stored", 0f).getChunk());
+
+        assertThrows(IllegalStateException.class,
+                () -> transaction.executeWithoutResult(status -> writer.write("project-a", 1, "model-a", List.of(chunk))));
+        assertEquals(0, count("SELECT count(*) FROM document_chunks"));
+    }
+
+    @Test
+    void unusedFilePathsAreDeleted() {
+        transaction.executeWithoutResult(status -> writer.write("project-a", 1, "model-a", List.of(
+                chunk("A.java", "a", 1f), chunk("Gone.java", "gone", 2f))));
+        jdbcTemplate.update("DELETE FROM document_chunks c USING document_file_paths p " +
+                            "WHERE p.id = c.file_path_id AND p.file_path = 'Gone.java'");
+
+        assertEquals(Integer.valueOf(1), transaction.execute(status -> writer.deleteUnusedFilePaths("project-a")));
+
+        assertEquals(List.of("A.java"), jdbcTemplate.queryForList("SELECT file_path FROM document_file_paths", String.class));
+    }
+
+    @Test
+    void unusedContentIsDeletedAndSharedContentKept() {
+        transaction.executeWithoutResult(status -> {
+            writer.write("project-a", 1, "model-a", List.of(chunk("A.java", "shared", 1f), chunk("A.java", "gone", 2f)));
+            writer.write("project-b", 1, "model-a", List.of(chunk("B.java", "shared", 1f)));
+        });
+        List<String> hashes = jdbcTemplate.queryForList("SELECT encode(content_hash, 'hex') FROM chunk_contents", String.class);
+        jdbcTemplate.update("DELETE FROM document_chunks WHERE project_id = 'project-a'");
+
+        transaction.executeWithoutResult(status -> writer.deleteUnusedContent(hashes));
+
+        assertEquals(List.of("shared"), jdbcTemplate.queryForList("SELECT content FROM chunk_contents", String.class));
+        assertEquals(1, count("SELECT count(*) FROM chunk_embeddings"));
+    }
+
+    private static DocumentChunkWithEmbedding chunk(String filePath, String content, float value) {
+        return new DocumentChunkWithEmbedding(new DocumentChunk(content, filePath, 0, 0, "checksum-" + filePath),
+                new float[]{value, value, value});
+    }
+
+    private static long count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+}
@@ -0,0 +1,195 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.and;
+import static org.mockito.AdditionalMatchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class DocumentChunkWriterTest {
+
+    private final JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+    private final DocumentChunkWriter writer = new DocumentChunkWriter(jdbcTemplate);
+
+    @Test
+    void writeLocksTheFilePathsItRefersTo() {
+        returnFilePaths(List.of("a.java"));
+
+        writer.write("my-project", 1, "model", List.of(chunk("a.java")));
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO document_file_paths"), eq("my-project"), any(String[].class));
+        verify(jdbcTemplate).query(endsWith("FOR KEY SHARE"), any(RowCallbackHandler.class), eq("my-project"), any(String[].class));
+    }
+
+    @Test
+    void writeInsertsAgainAPathThatWasDeletedMeanwhile() {
+        // The first lock finds b.java deleted by a concurrent collection
+        returnFilePaths(List.of("a.java"), List.of("b.java"));
+
+        writer.write("my-project", 1, "model", List.of(chunk("a.java"), chunk("b.java")));
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO document_file_paths"), eq("my-project"), eq(new String[]{"a.java", "b.java"}));
+        verify(jdbcTemplate).update(startsWith("INSERT INTO document_file_paths"), eq("my-project"), eq(new String[]{"b.java"}));
+    }
+
+    @Test
+    void writeFailsIfAPathKeepsBeingDeleted() {
+        returnFilePaths(List.of());
+
+        assertThrows(IllegalStateException.class, () -> writer.write("my-project", 1, "model", List.of(chunk("a.java"))));
+    }
+
+    @Test
+    void writeRestoresStagedContentCollectedBeforeItWasLocked() throws Exception {
+        returnFilePaths(List.of("a.java"));
+        DocumentChunkWithEmbedding chunk = new DocumentChunkWithEmbedding(chunk("a.java").getChunk(), new float[]{1, 2});
+        String hash = HexFormat.of().formatHex(ContentHash.of(chunk.getContent()));
+        Connection connection = connection(List.of(), List.of(hash));
+
+        assertEquals(1, writer.write("my-project", 1, "model", List.of(chunk)));
+
+        verify(connection.createStatement(), times(2)).executeUpdate(startsWith("INSERT INTO chunk_contents"));
+        verify(connection, times(2)).prepareStatement(startsWith("SELECT encode(t.content_hash, 'hex')"));
+    }
+
+    @Test
+    void writeFailsIfReusedContentWasCollected() throws Exception {
+        returnFilePaths(List.of("a.java"));
+        Connection connection = connection(List.of());
+
+        assertThrows(IllegalStateException.class, () -> writer.write("my-project", 1, "model", List.of(chunk("a.java"))));
+
+        // Without an embedding of its own the content cannot be inserted again
+        verify(connection, never()).createStatement();
+        verify(connection, times(1)).prepareStatement(startsWith("SELECT encode(t.content_hash, 'hex')"));
+    }
+
+    @Test
+    void deleteUnusedFilePathsChecksTheLockedCandidatesAgain() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq("my-project"))).thenReturn(List.of(3L, 5L));
+        when(jdbcTemplate.update(startsWith("DELETE FROM document_file_paths"), any(Object[].class))).thenReturn(1);
+
+        assertEquals(1, writer.deleteUnusedFilePaths("my-project"));
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).queryForList(endsWith("AND p.project_id = ? FOR UPDATE SKIP LOCKED"), eq(Long.class), eq("my-project"));
+        ArgumentCaptor<Object[]> ids = ArgumentCaptor.forClass(Object[].class);
+        inOrder.verify(jdbcTemplate).update(contains("NOT EXISTS"), ids.capture());
+        assertArrayEquals(new Object[]{new Long[]{3L, 5L}}, ids.getValue());
+    }
+
+    @Test
+    void deleteUnusedFilePathsOfAllProjects() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class))).thenReturn(List.of());
+
+        assertEquals(0, writer.deleteUnusedFilePaths(null));
+
+        verify(jdbcTemplate).queryForList(and(not(contains("p.project_id = ?")), endsWith("FOR UPDATE SKIP LOCKED")), eq(Long.class));
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void deleteUnusedContentDeletesOnlyTheLockedCandidates() {
+        when(jdbcTemplate.queryForList(startsWith("SELECT encode(t.content_hash, 'hex') FROM chunk_contents"), eq(String.class), any(Object[].class)))
+                .thenReturn(List.of("aa"));
+
+        writer.deleteUnusedContent(List.of("aa", "bb"));
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).queryForList(endsWith("FOR UPDATE SKIP LOCKED"), eq(String.class), any(Object[].class));
+        ArgumentCaptor<Object[]> embeddings = ArgumentCaptor.forClass(Object[].class);
+        inOrder.verify(jdbcTemplate).update(and(startsWith("DELETE FROM chunk_embeddings"), contains("NOT EXISTS")), embeddings.capture());
+        ArgumentCaptor<Object[]> contents = ArgumentCaptor.forClass(Object[].class);
+        inOrder.verify(jdbcTemplate).update(and(startsWith("DELETE FROM chunk_contents"), contains("NOT EXISTS")), contents.capture());
+        assertArrayEquals(new Object[]{new String[]{"aa"}}, embeddings.getValue());
+        assertArrayEquals(new Object[]{new String[]{"aa"}}, contents.getValue());
+    }
+
+    @Test
+    void deleteUnusedContentSkipsTheDeletesWithoutCandidates() {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(Object[].class))).thenReturn(List.of());
+
+        writer.deleteUnusedContent(List.of("aa"));
+
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    /**
+     * Answers the successive path lookups with the given paths, the last ones repeatedly.
+     */
+    @SafeVarargs
+    private void returnFilePaths(List<String>... lookups) {
+        int[] calls = {0};
+        doAnswer(invocation -> {
+            List<String> found = lookups[Math.min(calls[0]++, lookups.length - 1)];
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int i = 0; i < found.size(); i++) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getString(1)).thenReturn(found.get(i));
+                when(rs.getLong(2)).thenReturn((long) i + 1);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT file_path, id"), any(RowCallbackHandler.class), any(), any());
+    }
+
+    /**
+     * A connection the write runs on, whose successive content locks return the given hex content hashes.
+     */
+    @SafeVarargs
+    private Connection connection(List<String>... locks) throws Exception {
+        Connection connection = mock(Connection.class);
+        PGConnection pgConnection = mock(PGConnection.class);
+        CopyManager copyManager = mock(CopyManager.class);
+        CopyIn copyIn = mock(CopyIn.class);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn(anyString())).thenReturn(copyIn);
+        when(copyIn.endCopy()).thenReturn(1L);
+        Statement statement = mock(Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        PreparedStatement insert = mock(PreparedStatement.class);
+        when(connection.prepareStatement(startsWith("INSERT"))).thenReturn(insert);
+        int[] calls = {0};
+        when(connection.prepareStatement(startsWith("SELECT"))).thenAnswer(invocation -> {
+            List<String> locked = locks[Math.min(calls[0]++, locks.length - 1)];
+            PreparedStatement lock = mock(PreparedStatement.class);
+            ResultSet rs = mock(ResultSet.class);
+            when(lock.executeQuery()).thenReturn(rs);
+            int[] row = {-1};
+            when(rs.next()).thenAnswer(next -> ++row[0] < locked.size());
+            when(rs.getString(1)).thenAnswer(get -> locked.get(row[0]));
+            return lock;
+        });
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenAnswer(invocation ->
+                invocation.<ConnectionCallback<?>>getArgument(0).doInConnection(connection));
+        return connection;
+    }
+
+    private static DocumentChunkWithEmbedding chunk(String filePath) {
+        return new DocumentChunkWithEmbedding(new DocumentChunk("content of " + filePath, filePath, 0, 0, "checksum"));
+    }
+}
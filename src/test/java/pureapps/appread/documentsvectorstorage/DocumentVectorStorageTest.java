@@ -2,14 +2,19 @@ package pureapps.appread.documentsvectorstorage;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.documentsvectorstorage.dto.ScoredDocumentChunk;
+import pureapps.appread.vectorarena.VectorArena;
 
 import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -17,9 +22,16 @@ import static org.mockito.Mockito.*;
 
 class DocumentVectorStorageTest {
 
+    private static final String MODEL = "text-embedding-3-small";
+
     private DocumentProcessingService documentProcessingService;
     private EmbeddingService embeddingService;
     private PersistenceService persistenceService;
+    private FileChecksumService fileChecksumService;
+    private VectorIndexManager vectorIndexManager;
+    private ProjectPartitionManager partitionManager;
+    private IndexVersionCollector indexVersionCollector;
+    private ProjectLifecycleService projectLifecycleService;
     private DocumentVectorStorage documentVectorStorage;
     private float similarityThreshold = 0.7f;
 
@@ -29,9 +41,17 @@ class DocumentVectorStorageTest {
         documentProcessingService = Mockito.mock(DocumentProcessingService.class);
         embeddingService = Mockito.mock(EmbeddingService.class);
         persistenceService = Mockito.mock(PersistenceService.class);
+        fileChecksumService = Mockito.mock(FileChecksumService.class);
+        vectorIndexManager = Mockito.mock(VectorIndexManager.class);
+        partitionManager = Mockito.mock(ProjectPartitionManager.class);
+        indexVersionCollector = Mockito.mock(IndexVersionCollector.class);
+        projectLifecycleService = Mockito.mock(ProjectLifecycleService.class);
+        when(persistenceService.resolveEmbeddingModel(anyString())).thenReturn(MODEL);
 
         // Create instance of DocumentVectorStorage with mocked dependencies
-        documentVectorStorage = new DocumentVectorStorage(persistenceService, documentProcessingService, embeddingService);
+        // Group commit is not started, so chunks are saved on the caller's thread
+        ChunkBatchWriter chunkBatchWriter = new ChunkBatchWriter(persistenceService, Mockito.mock(PlatformTransactionManager.class));
+        documentVectorStorage = new DocumentVectorStorage(persistenceService, chunkBatchWriter, documentProcessingService, embeddingService, fileChecksumService, vectorIndexManager, partitionManager, indexVersionCollector, projectLifecycleService);
 
         // Set the similarityThreshold field using reflection
         Field thresholdField = DocumentVectorStorage.class.getDeclaredField("similarityThreshold");
@@ -45,44 +65,27 @@ class DocumentVectorStorageTest {
         Path projectPath = Path.of("test-project");
 
         // Create test document chunks
-        DocumentChunk chunk1 = new DocumentChunk();
-        chunk1.setContent("Test content 1");
-        chunk1.setFilePath("test/path1.java");
-        chunk1.setStartLine(1);
-        chunk1.setEndLine(10);
-
-        DocumentChunk chunk2 = new DocumentChunk();
-        chunk2.setContent("Test content 2");
-        chunk2.setFilePath("test/path2.java");
-        chunk2.setStartLine(11);
-        chunk2.setEndLine(20);
+        DocumentChunk chunk1 = new DocumentChunk("Test content 1", "test/path1.java", 1, 10, null);
+
+        DocumentChunk chunk2 = new DocumentChunk("Test content 2", "test/path2.java", 11, 20, null);
 
         List<DocumentChunk> chunks = Arrays.asList(chunk1, chunk2);
 
         // Create test document chunks with embeddings
-        DocumentChunkWithEmbedding chunkWithEmbedding1 = new DocumentChunkWithEmbedding();
-        chunkWithEmbedding1.setContent("Test content 1");
-        chunkWithEmbedding1.setFilePath("test/path1.java");
-        chunkWithEmbedding1.setStartLine(1);
-        chunkWithEmbedding1.setEndLine(10);
-        chunkWithEmbedding1.setEmbedding(new float[1536]);
-
-        DocumentChunkWithEmbedding chunkWithEmbedding2 = new DocumentChunkWithEmbedding();
-        chunkWithEmbedding2.setContent("Test content 2");
-        chunkWithEmbedding2.setFilePath("test/path2.java");
-        chunkWithEmbedding2.setStartLine(11);
-        chunkWithEmbedding2.setEndLine(20);
-        chunkWithEmbedding2.setEmbedding(new float[1536]);
+        DocumentChunkWithEmbedding chunkWithEmbedding1 = new DocumentChunkWithEmbedding(chunk1, new float[1536]);
+
+        DocumentChunkWithEmbedding chunkWithEmbedding2 = new DocumentChunkWithEmbedding(chunk2, new float[1536]);
 
         List<DocumentChunkWithEmbedding> chunksWithEmbeddings = Arrays.asList(chunkWithEmbedding1, chunkWithEmbedding2);
 
         // Mock the behavior of dependencies
         when(documentProcessingService.processProjectToChunks(projectPath)).thenReturn(chunks);
-        when(embeddingService.generateEmbeddings(chunks)).thenReturn(chunksWithEmbeddings);
-        doNothing().when(persistenceService).saveChunks(anyString(), eq(chunksWithEmbeddings));
+        when(embeddingService.generateEmbeddings(chunks, MODEL)).thenReturn(new EmbeddingResult(chunksWithEmbeddings, List.of()));
+        doNothing().when(persistenceService).saveChunks(anyString(), anyInt(), eq(MODEL), eq(chunksWithEmbeddings));
+        String projectId = "test-project-id";
+        when(persistenceService.startIndexVersion(projectId)).thenReturn(2);
 
         // Call the method under test
-        String projectId = "test-project-id";
         List<DocumentChunkWithEmbedding> result = documentVectorStorage.generateEmbeddingsAndPersist(projectPath, projectId);
 
         // Verify the result
@@ -96,8 +99,98 @@ class DocumentVectorStorageTest {
 
         // Verify that the dependencies were called with the expected arguments
         verify(documentProcessingService).processProjectToChunks(projectPath);
-        verify(embeddingService).generateEmbeddings(chunks);
-        verify(persistenceService).saveChunks(eq(projectId), eq(chunksWithEmbeddings));
+        verify(embeddingService).generateEmbeddings(chunks, MODEL);
+        verify(persistenceService).saveChunks(eq(projectId), eq(2), eq(MODEL), eq(chunksWithEmbeddings));
+        // A full rebuild carries nothing over from the version it replaces
+        verify(persistenceService).swapIndexVersion(projectId, 2, null);
+        verify(indexVersionCollector).collectLater(projectId);
+        verify(projectLifecycleService).registerProject(projectId);
+        verify(partitionManager).ensurePartitions(projectId);
+        verify(vectorIndexManager).beforeBulkLoad(2);
+        verify(vectorIndexManager).afterBulkLoad(false);
+    }
+
+    @Test
+    void testGenerateEmbeddingsAndPersistReusesStoredEmbeddings() throws Exception {
+        Path projectPath = Path.of("forked-project");
+        String projectId = "forked-project-id";
+
+        DocumentChunk known = new DocumentChunk("Shared content", "test/shared.java", 0, 0, null);
+        DocumentChunk fresh = new DocumentChunk("New content", "test/new.java", 0, 0, null);
+
+        DocumentChunkWithEmbedding freshWithEmbedding = new DocumentChunkWithEmbedding(fresh, new float[1536]);
+
+        when(documentProcessingService.processProjectToChunks(projectPath)).thenReturn(List.of(known, fresh));
+        when(persistenceService.findEmbeddedContent(MODEL, List.of(known, fresh))).thenReturn(Set.of(ContentHash.hex("Shared content")));
+        when(embeddingService.generateEmbeddings(List.of(fresh), MODEL)).thenReturn(new EmbeddingResult(List.of(freshWithEmbedding), List.of()));
+
+        List<DocumentChunkWithEmbedding> result = documentVectorStorage.generateEmbeddingsAndPersist(projectPath, projectId);
+
+        // Only the new content is sent to the model; the shared chunk is stored without a vector of its own
+        verify(embeddingService).generateEmbeddings(List.of(fresh), MODEL);
+        assertEquals(2, result.size());
+        assertFalse(result.get(0).hasEmbedding());
+        assertEquals("Shared content", result.get(0).getContent());
+        assertSame(freshWithEmbedding, result.get(1));
+        verify(persistenceService).saveChunks(projectId, 0, MODEL, result);
+        verify(vectorIndexManager).beforeBulkLoad(1);
+    }
+
+    @Test
+    void testGenerateEmbeddingsAndPersistReturnsOffHeapEmbeddingsOnTheHeap() throws Exception {
+        Path projectPath = Path.of("test-project");
+        String projectId = "test-project-id";
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 0, 0, null);
+
+        try (VectorArena arena = new VectorArena(3, 4)) {
+            DocumentChunkWithEmbedding chunkWithEmbedding = new DocumentChunkWithEmbedding(chunk, arena.store(new float[]{1, 2, 3}));
+            when(documentProcessingService.processProjectToChunks(projectPath)).thenReturn(List.of(chunk));
+            when(embeddingService.generateEmbeddings(List.of(chunk), MODEL)).thenReturn(new EmbeddingResult(List.of(chunkWithEmbedding), List.of()));
+
+            List<DocumentChunkWithEmbedding> result = documentVectorStorage.generateEmbeddingsAndPersist(projectPath, projectId);
+
+            assertSame(chunk, result.getFirst().getChunk());
+            assertArrayEquals(new float[]{1, 2, 3}, result.getFirst().getEmbedding());
+            assertTrue(result.getFirst().getEmbeddingSlot().isEmpty());
+            assertEquals(0, arena.getSlotsInUse());
+        }
+    }
+
+    @Test
+    void testOffHeapEmbeddingsAreReleasedWhenTheWriteCannotStart() throws Exception {
+        Path projectPath = Path.of("test-project");
+        String projectId = "test-project-id";
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 0, 0, null);
+
+        try (VectorArena arena = new VectorArena(3, 4)) {
+            DocumentChunkWithEmbedding chunkWithEmbedding = new DocumentChunkWithEmbedding(chunk, arena.store(new float[]{1, 2, 3}));
+            ProcessingResult processingResult = new ProcessingResult(List.of(chunk), List.of("test/path.java"), List.of(), List.of());
+            when(documentProcessingService.processProjectToChunksWithChecksumCheck(projectPath, projectId)).thenReturn(processingResult);
+            when(embeddingService.generateEmbeddings(List.of(chunk), MODEL)).thenReturn(new EmbeddingResult(List.of(chunkWithEmbedding), List.of()));
+            doThrow(new RuntimeException("Failed to create partitions")).when(partitionManager).ensurePartitions(projectId);
+
+            assertThrows(RuntimeException.class, () -> documentVectorStorage.generateEmbeddingsAndPersistWithChecksumCheck(projectPath, projectId));
+
+            assertEquals(0, arena.getSlotsInUse());
+            verify(persistenceService, never()).saveChunks(anyString(), anyInt(), anyString(), anyList());
+        }
+    }
+
+    @Test
+    void testFailedWriteHasThePartitionsCheckedAgain() throws Exception {
+        Path projectPath = Path.of("test-project");
+        String projectId = "test-project-id";
+        DocumentChunk chunk = new DocumentChunk("Test content", null, 0, 0, null);
+        DocumentChunkWithEmbedding chunkWithEmbedding = new DocumentChunkWithEmbedding(chunk, new float[1536]);
+        when(documentProcessingService.processProjectToChunks(projectPath)).thenReturn(List.of(chunk));
+        when(embeddingService.generateEmbeddings(List.of(chunk), MODEL)).thenReturn(new EmbeddingResult(List.of(chunkWithEmbedding), List.of()));
+        doThrow(new RuntimeException("Failed to save chunks to database"))
+                .when(persistenceService).saveChunks(anyString(), anyInt(), anyString(), anyList());
+
+        assertThrows(RuntimeException.class, () -> documentVectorStorage.generateEmbeddingsAndPersist(projectPath, projectId));
+
+        verify(partitionManager).forgetPartitions(projectId);
+        verify(persistenceService, never()).swapIndexVersion(anyString(), anyInt(), any());
     }
 
     @Test
@@ -118,8 +211,122 @@ class DocumentVectorStorageTest {
 
         // Verify that the dependencies were called with the expected arguments
         verify(documentProcessingService).processProjectToChunks(projectPath);
-        verify(embeddingService, never()).generateEmbeddings(anyList());
-        verify(persistenceService, never()).saveChunks(anyString(), anyList());
+        verify(embeddingService, never()).generateEmbeddings(anyList(), anyString());
+        verify(persistenceService, never()).saveChunks(anyString(), anyInt(), anyString(), anyList());
+        verify(persistenceService, never()).startIndexVersion(anyString());
+    }
+
+    @Test
+    void testGenerateEmbeddingsAndPersistKeepsSuccessfulChunksOnPartialFailure() throws Exception {
+        Path projectPath = Path.of("test-project");
+        String projectId = "test-project-id";
+
+        DocumentChunk chunk1 = new DocumentChunk("Test content 1", "test/path1.java", 0, 0, null);
+        DocumentChunk chunk2 = new DocumentChunk("Test content 2", "test/path2.java", 0, 0, null);
+        List<DocumentChunk> chunks = Arrays.asList(chunk1, chunk2);
+
+        DocumentChunkWithEmbedding chunkWithEmbedding1 = new DocumentChunkWithEmbedding(chunk1, new float[1536]);
+
+        List<EmbeddingResult.FailedChunk> failedChunks = List.of(new EmbeddingResult.FailedChunk(chunk2, "HTTP 400"));
+
+        when(documentProcessingService.processProjectToChunks(projectPath)).thenReturn(chunks);
+        when(embeddingService.generateEmbeddings(chunks, MODEL)).thenReturn(new EmbeddingResult(List.of(chunkWithEmbedding1), failedChunks));
+
+        List<DocumentChunkWithEmbedding> result = documentVectorStorage.generateEmbeddingsAndPersist(projectPath, projectId);
+
+        assertEquals(1, result.size());
+        verify(persistenceService).saveChunks(projectId, 0, MODEL, List.of(chunkWithEmbedding1));
+        verify(persistenceService).saveDeadLetters(projectId, failedChunks);
+    }
+
+    @Test
+    void testReplayDeadLetters() {
+        String projectId = "test-project-id";
+        EmbeddingDeadLetterEntity recovered = new EmbeddingDeadLetterEntity(projectId, "test/path1.java", 1, 10, "Test content 1", "checksum1", "HTTP 503");
+        EmbeddingDeadLetterEntity stillFailing = new EmbeddingDeadLetterEntity(projectId, "test/path2.java", 11, 20, "Test content 2", "checksum2", "HTTP 400");
+
+        when(persistenceService.findDeadLetters(projectId)).thenReturn(List.of(recovered, stillFailing));
+        when(persistenceService.findLiveIndexVersion(projectId)).thenReturn(3);
+        when(embeddingService.generateEmbeddings(anyList(), eq(MODEL))).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = invocation.getArgument(0);
+            DocumentChunk ok = chunks.stream().filter(c -> c.getFilePath().equals("test/path1.java")).findFirst().orElseThrow();
+            DocumentChunk bad = chunks.stream().filter(c -> c.getFilePath().equals("test/path2.java")).findFirst().orElseThrow();
+            DocumentChunkWithEmbedding embedded = new DocumentChunkWithEmbedding(ok, new float[1536]);
+            return new EmbeddingResult(List.of(embedded), List.of(new EmbeddingResult.FailedChunk(bad, "HTTP 400 again")));
+        });
+
+        int replayed = documentVectorStorage.replayDeadLetters(projectId);
+
+        assertEquals(1, replayed);
+        assertEquals(2, stillFailing.getAttempts());
+        assertEquals("HTTP 400 again", stillFailing.getErrorMessage());
+        // Replayed chunks are added to the live version, under its pointer lock
+        verify(persistenceService).saveChunksToLiveVersion(eq(projectId), eq(MODEL), anyList());
+        verify(persistenceService, never()).saveChunks(anyString(), anyInt(), anyString(), anyList());
+        verify(persistenceService, never()).startIndexVersion(anyString());
+        verify(persistenceService).saveDeadLetterAttempts(List.of(stillFailing));
+        verify(persistenceService).deleteDeadLetters(List.of(recovered));
+    }
+
+    @Test
+    void testReplayWaitsForALiveIndexVersion() {
+        String projectId = "test-project-id";
+        when(persistenceService.findDeadLetters(projectId)).thenReturn(List.of(
+                new EmbeddingDeadLetterEntity(projectId, "test/path1.java", 1, 10, "Test content 1", "checksum1", "HTTP 503")));
+        when(persistenceService.findLiveIndexVersion(projectId)).thenReturn(0);
+
+        assertEquals(0, documentVectorStorage.replayDeadLetters(projectId));
+
+        verifyNoInteractions(embeddingService);
+        verify(persistenceService, never()).deleteDeadLetters(anyList());
+    }
+
+    @Test
+    void testChecksumCheckBuildsANewIndexVersion() throws Exception {
+        Path projectPath = Path.of("test-project");
+        String projectId = "test-project-id";
+
+        DocumentChunk changed = new DocumentChunk("Changed content", "test/modified.java", 0, 0, null);
+        DocumentChunkWithEmbedding changedWithEmbedding = new DocumentChunkWithEmbedding(changed, new float[1536]);
+
+        ProcessingResult processingResult = new ProcessingResult(List.of(changed), List.of("test/new.java"),
+                List.of("test/modified.java"), List.of("test/unchanged.java"));
+        when(documentProcessingService.processProjectToChunksWithChecksumCheck(projectPath, projectId)).thenReturn(processingResult);
+        when(persistenceService.startIndexVersion(projectId)).thenReturn(4);
+        when(embeddingService.generateEmbeddings(List.of(changed), MODEL)).thenReturn(new EmbeddingResult(List.of(changedWithEmbedding), List.of()));
+
+        documentVectorStorage.generateEmbeddingsAndPersistWithChecksumCheck(projectPath, projectId);
+
+        // The live version keeps the modified file's old chunks until the new version, which carries over the
+        // unchanged files' chunks, is swapped in
+        InOrder inOrder = inOrder(persistenceService, indexVersionCollector);
+        inOrder.verify(persistenceService).saveChunks(projectId, 4, MODEL, List.of(changedWithEmbedding));
+        inOrder.verify(persistenceService).swapIndexVersion(projectId, 4, List.of("test/new.java", "test/modified.java"));
+        inOrder.verify(indexVersionCollector).collectLater(projectId);
+        verify(persistenceService).deleteDeadLettersForFiles(projectId, List.of("test/new.java", "test/modified.java"));
+    }
+
+    @Test
+    void testChecksumCheckOnlyRecordsFilesWhoseChunksWereAllPersisted() throws Exception {
+        Path projectPath = Path.of("test-project");
+        String projectId = "test-project-id";
+
+        DocumentChunk complete = new DocumentChunk("Complete content", "test/complete.java", 0, 0, null);
+        DocumentChunk failing = new DocumentChunk("Failing content", "test/partial.java", 0, 0, null);
+        DocumentChunkWithEmbedding completeWithEmbedding = new DocumentChunkWithEmbedding(complete, new float[1536]);
+
+        ProcessingResult processingResult = new ProcessingResult(List.of(complete, failing), List.of("test/complete.java"),
+                List.of("test/partial.java"), List.of());
+        when(documentProcessingService.processProjectToChunksWithChecksumCheck(projectPath, projectId)).thenReturn(processingResult);
+        when(persistenceService.startIndexVersion(projectId)).thenReturn(2);
+        when(embeddingService.generateEmbeddings(List.of(complete, failing), MODEL)).thenReturn(new EmbeddingResult(
+                List.of(completeWithEmbedding), List.of(new EmbeddingResult.FailedChunk(failing, "HTTP 400"))));
+
+        documentVectorStorage.generateEmbeddingsAndPersistWithChecksumCheck(projectPath, projectId);
+
+        verify(fileChecksumService).saveFileMetadata(projectId, "test/complete.java", projectPath.resolve("test/complete.java"));
+        // Still modified on the next ingestion, so it is rebuilt rather than skipped as unchanged
+        verify(fileChecksumService, never()).saveFileMetadata(eq(projectId), eq("test/partial.java"), any());
     }
 
     @Test
@@ -129,30 +336,16 @@ class DocumentVectorStorageTest {
         float[] queryEmbedding = new float[1536];
         int limit = 10;
 
-        // Create test document chunk entities
-        DocumentChunkEntity entity1 = new DocumentChunkEntity(
-                projectId,
-                "test/path1.java",
-                1,
-                10,
-                "Test content 1",
-                new float[1536]
-        );
-
-        DocumentChunkEntity entity2 = new DocumentChunkEntity(
-                projectId,
-                "test/path2.java",
-                11,
-                20,
-                "Test content 2",
-                new float[1536]
-        );
-
-        // Now we only return entities from the specified project
-        List<DocumentChunkEntity> similarEntities = Arrays.asList(entity1, entity2);
+        // Create test search results
+        ScoredDocumentChunk hit1 = new ScoredDocumentChunk(projectId, "test/path1.java", 1, 10, "Test content 1", "checksum1", 0.1);
+
+        ScoredDocumentChunk hit2 = new ScoredDocumentChunk(projectId, "test/path2.java", 11, 20, "Test content 2", "checksum2", 0.2);
+
+        // Now we only return chunks from the specified project
+        List<ScoredDocumentChunk> similarChunks = Arrays.asList(hit1, hit2);
 
         // Mock the behavior of dependencies
-        when(persistenceService.findSimilarChunkEntities(queryEmbedding, similarityThreshold, limit, projectId)).thenReturn(similarEntities);
+        when(persistenceService.findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId)).thenReturn(similarChunks);
 
         // Call the method under test
         List<DocumentChunk> result = documentVectorStorage.getDocumentChunksFromProject(projectId, queryEmbedding, limit);
@@ -166,7 +359,8 @@ class DocumentVectorStorageTest {
         assertEquals(10, result.get(0).getEndLine());
 
         // Verify that the dependencies were called with the expected arguments
-        verify(persistenceService).findSimilarChunkEntities(queryEmbedding, similarityThreshold, limit, projectId);
+        verify(persistenceService).findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId);
+        verify(projectLifecycleService).recordAccess(projectId);
     }
 
     @Test
@@ -177,7 +371,7 @@ class DocumentVectorStorageTest {
         int limit = 10;
 
         // Mock the behavior of dependencies
-        when(persistenceService.findSimilarChunkEntities(queryEmbedding, similarityThreshold, limit, projectId)).thenReturn(List.of());
+        when(persistenceService.findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId)).thenReturn(List.of());
 
         // Call the method under test
         List<DocumentChunk> result = documentVectorStorage.getDocumentChunksFromProject(projectId, queryEmbedding, limit);
@@ -187,7 +381,7 @@ class DocumentVectorStorageTest {
         assertTrue(result.isEmpty());
 
         // Verify that the dependencies were called with the expected arguments
-        verify(persistenceService).findSimilarChunkEntities(queryEmbedding, similarityThreshold, limit, projectId);
+        verify(persistenceService).findSimilarChunks(queryEmbedding, similarityThreshold, limit, projectId);
     }
 
     @Test
@@ -198,31 +392,17 @@ class DocumentVectorStorageTest {
         float[] generatedEmbedding = new float[1536];
         int limit = 10;
 
-        // Create test document chunk entities
-        DocumentChunkEntity entity1 = new DocumentChunkEntity(
-                projectId,
-                "test/path1.java",
-                1,
-                10,
-                "Test content 1",
-                new float[1536]
-        );
-
-        DocumentChunkEntity entity2 = new DocumentChunkEntity(
-                projectId,
-                "test/path2.java",
-                11,
-                20,
-                "Test content 2",
-                new float[1536]
-        );
-
-        // Now we only return entities from the specified project
-        List<DocumentChunkEntity> similarEntities = Arrays.asList(entity1, entity2);
+        // Create test search results
+        ScoredDocumentChunk hit1 = new ScoredDocumentChunk(projectId, "test/path1.java", 1, 10, "Test content 1", "checksum1", 0.1);
+
+        ScoredDocumentChunk hit2 = new ScoredDocumentChunk(projectId, "test/path2.java", 11, 20, "Test content 2", "checksum2", 0.2);
+
+        // Now we only return chunks from the specified project
+        List<ScoredDocumentChunk> similarChunks = Arrays.asList(hit1, hit2);
 
         // Mock the behavior of dependencies
         when(embeddingService.generateEmbedding(messageQuery)).thenReturn(generatedEmbedding);
-        when(persistenceService.findSimilarChunkEntities(generatedEmbedding, similarityThreshold, limit, projectId)).thenReturn(similarEntities);
+        when(persistenceService.findSimilarChunks(generatedEmbedding, similarityThreshold, limit, projectId)).thenReturn(similarChunks);
 
         // Call the method under test
         List<DocumentChunk> result = documentVectorStorage.getDocumentChunksFromProject(projectId, messageQuery, limit);
@@ -237,7 +417,7 @@ class DocumentVectorStorageTest {
 
         // Verify that the dependencies were called with the expected arguments
         verify(embeddingService).generateEmbedding(messageQuery);
-        verify(persistenceService).findSimilarChunkEntities(generatedEmbedding, similarityThreshold, limit, projectId);
+        verify(persistenceService).findSimilarChunks(generatedEmbedding, similarityThreshold, limit, projectId);
     }
 
     @Test
@@ -250,7 +430,7 @@ class DocumentVectorStorageTest {
 
         // Mock the behavior of dependencies
         when(embeddingService.generateEmbedding(messageQuery)).thenReturn(generatedEmbedding);
-        when(persistenceService.findSimilarChunkEntities(generatedEmbedding, similarityThreshold, limit, projectId)).thenReturn(List.of());
+        when(persistenceService.findSimilarChunks(generatedEmbedding, similarityThreshold, limit, projectId)).thenReturn(List.of());
 
         // Call the method under test
         List<DocumentChunk> result = documentVectorStorage.getDocumentChunksFromProject(projectId, messageQuery, limit);
@@ -261,6 +441,19 @@ class DocumentVectorStorageTest {
 
         // Verify that the dependencies were called with the expected arguments
         verify(embeddingService).generateEmbedding(messageQuery);
-        verify(persistenceService).findSimilarChunkEntities(generatedEmbedding, similarityThreshold, limit, projectId);
+        verify(persistenceService).findSimilarChunks(generatedEmbedding, similarityThreshold, limit, projectId);
+    }
+
+    @Test
+    void testSearchDocumentChunksKeepsTheDistance() {
+        String projectId = "test-project";
+        float[] queryEmbedding = new float[1536];
+        ScoredDocumentChunk hit = new ScoredDocumentChunk(projectId, "test/path1.java", 1, 10, "Test content 1", "checksum1", 0.25);
+        when(persistenceService.findSimilarChunks(queryEmbedding, similarityThreshold, 5, projectId)).thenReturn(List.of(hit));
+
+        List<ScoredDocumentChunk> result = documentVectorStorage.searchDocumentChunks(projectId, queryEmbedding, 5);
+
+        assertEquals(List.of(hit), result);
+        assertEquals(0.75, result.getFirst().similarity(), 1e-9);
     }
 }
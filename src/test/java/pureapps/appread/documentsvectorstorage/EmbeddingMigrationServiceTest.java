@@ -0,0 +1,94 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmbeddingMigrationServiceTest {
+
+    private PersistenceService persistenceService;
+    private EmbeddingService embeddingService;
+    private EmbeddingMigrationService migrationService;
+    private EmbeddingMigrationEntity migration;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        persistenceService = Mockito.mock(PersistenceService.class);
+        embeddingService = Mockito.mock(EmbeddingService.class);
+        migrationService = new EmbeddingMigrationService(persistenceService, embeddingService);
+        setField("targetModel", "text-embedding-3-small");
+        setField("dimensions", 4);
+
+        migration = new EmbeddingMigrationEntity("project", "text-embedding-3-small");
+        when(persistenceService.startMigration("project", "text-embedding-3-small")).thenReturn(migration);
+        when(persistenceService.saveMigrationBatch(any(), anyList(), anyList(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void testMigrateProjectFlipsAfterAllChunksAreReEmbedded() {
+        DocumentChunkEntity first = chunk("first");
+        DocumentChunkEntity second = chunk("second");
+        when(persistenceService.findChunksToMigrate(eq(migration), any(), anyInt()))
+                .thenReturn(List.of(first, second))
+                .thenReturn(List.of())
+                .thenReturn(List.of());
+        when(embeddingService.generateEmbeddings(anyList())).thenAnswer(invocation -> embedAll(invocation.getArgument(0)));
+
+        assertTrue(migrationService.migrateProject("project"));
+
+        verify(persistenceService).saveMigrationBatch(eq(migration),
+                argThat(hashes -> hashes.size() == 2
+                                  && Arrays.equals(hashes.get(0), ContentHash.of("first"))
+                                  && Arrays.equals(hashes.get(1), ContentHash.of("second"))),
+                anyList(), eq(second.getUuid()));
+        verify(persistenceService).completeMigration(migration, 4);
+    }
+
+    @Test
+    void testMigrateProjectKeepsCurrentModelWhileChunksKeepFailing() {
+        DocumentChunkEntity failing = chunk("failing");
+        when(persistenceService.findChunksToMigrate(eq(migration), any(), anyInt()))
+                .thenReturn(List.of(failing))
+                .thenReturn(List.of())
+                .thenReturn(List.of(failing))
+                .thenReturn(List.of());
+        when(embeddingService.generateEmbeddings(anyList())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = invocation.getArgument(0);
+            return new EmbeddingResult(List.of(), List.of(new EmbeddingResult.FailedChunk(chunks.getFirst(), "HTTP 400")));
+        });
+
+        assertFalse(migrationService.migrateProject("project"));
+
+        assertEquals(EmbeddingMigrationEntity.Status.INCOMPLETE, migration.getStatus());
+        verify(persistenceService, never()).completeMigration(any(), anyInt());
+    }
+
+    private static EmbeddingResult embedAll(List<DocumentChunk> chunks) {
+        return new EmbeddingResult(chunks.stream()
+                .map(chunk -> new DocumentChunkWithEmbedding(chunk, new float[4]))
+                .toList(), List.of());
+    }
+
+    private static DocumentChunkEntity chunk(String content) {
+        DocumentChunkEntity entity = new DocumentChunkEntity("project", "test/path.java", 1, 10, content, "checksum");
+        entity.setUuid(UUID.randomUUID());
+        return entity;
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = EmbeddingMigrationService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(migrationService, value);
+    }
+}
@@ -3,20 +3,39 @@ package pureapps.appread.documentsvectorstorage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.ai.embedding.Embedding;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.hedging.HedgedCallExecutor;
+import pureapps.appread.throttling.AdaptiveConcurrencyLimiter;
+import pureapps.appread.throttling.ModelOverloadedException;
+import pureapps.appread.vectorarena.VectorArena;
 
+import java.lang.reflect.Field;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class EmbeddingServiceTest {
 
     private EmbeddingModel embeddingModel;
+    private AdaptiveConcurrencyLimiter limiter;
     private EmbeddingService embeddingService;
 
     @BeforeEach
@@ -25,25 +44,26 @@ class EmbeddingServiceTest {
 
         float[] mockEmbedding = new float[1536];
         Arrays.fill(mockEmbedding, 0.1f);
-        when(embeddingModel.embed(anyString())).thenReturn(mockEmbedding);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+                .map(input -> mockEmbedding)
+                .toList());
 
-        embeddingService = new EmbeddingService(embeddingModel);
+        limiter = new AdaptiveConcurrencyLimiter("embedding", new AdaptiveConcurrencyLimiter.Settings(
+                2, 1, 4, 1, 1, 8, 1, Duration.ofSeconds(2), 0.5, 0.05, 0));
+        embeddingService = new EmbeddingService(embeddingModel, limiter, HedgedCallExecutor.disabled("embedding"), new VectorArena(1536, 16));
     }
 
     @Test
     void testGenerateEmbedding() {
         // Create a test document chunk
-        DocumentChunk chunk = new DocumentChunk();
-        chunk.setContent("Test content");
-        chunk.setFilePath("test/path.java");
-        chunk.setStartLine(1);
-        chunk.setEndLine(10);
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 1, 10, null);
 
         // Generate embedding
         DocumentChunkWithEmbedding result = embeddingService.generateEmbedding(chunk);
 
         // Verify the result
         assertNotNull(result);
+        assertSame(chunk, result.getChunk());
         assertEquals("Test content", result.getContent());
         assertEquals("test/path.java", result.getFilePath());
         assertEquals(1, result.getStartLine());
@@ -55,21 +75,13 @@ class EmbeddingServiceTest {
     @Test
     void testGenerateEmbeddings() {
         // Create test document chunks
-        DocumentChunk chunk1 = new DocumentChunk();
-        chunk1.setContent("Test content 1");
-        chunk1.setFilePath("test/path1.java");
-        chunk1.setStartLine(1);
-        chunk1.setEndLine(10);
-
-        DocumentChunk chunk2 = new DocumentChunk();
-        chunk2.setContent("Test content 2");
-        chunk2.setFilePath("test/path2.java");
-        chunk2.setStartLine(11);
-        chunk2.setEndLine(20);
+        DocumentChunk chunk1 = new DocumentChunk("Test content 1", "test/path1.java", 1, 10, null);
+
+        DocumentChunk chunk2 = new DocumentChunk("Test content 2", "test/path2.java", 11, 20, null);
 
         List<DocumentChunk> chunks = Arrays.asList(chunk1, chunk2);
 
-        List<DocumentChunkWithEmbedding> results = embeddingService.generateEmbeddings(chunks);
+        List<DocumentChunkWithEmbedding> results = embeddingService.generateEmbeddings(chunks).getEmbeddedChunks();
 
         assertNotNull(results);
         assertEquals(2, results.size());
@@ -88,4 +100,127 @@ class EmbeddingServiceTest {
         assertNotNull(results.get(1).getEmbedding());
         assertEquals(1536, results.get(1).getEmbedding().length);
     }
+
+    @Test
+    void testGenerateEmbeddingsWithAProjectsPreviousModel() {
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 0, 0, null);
+        when(embeddingModel.call(argThat(request -> "text-embedding-ada-002".equals(request.getOptions().getModel()))))
+                .thenReturn(new EmbeddingResponse(List.of(new Embedding(new float[1536], 0))));
+
+        List<DocumentChunkWithEmbedding> results = embeddingService.generateEmbeddings(List.of(chunk), "text-embedding-ada-002").getEmbeddedChunks();
+
+        assertEquals(1, results.size());
+        verify(embeddingModel).call(any(EmbeddingRequest.class));
+        verify(embeddingModel, never()).embed(anyList());
+    }
+
+    @Test
+    void testGenerateEmbeddingsHoldsVectorsOffHeapWhenArenaEnabled() throws Exception {
+        VectorArena arena = new VectorArena(1536, 16);
+        embeddingService = new EmbeddingService(embeddingModel, limiter, HedgedCallExecutor.disabled("embedding"), arena);
+        Field arenaField = EmbeddingService.class.getDeclaredField("useArena");
+        arenaField.setAccessible(true);
+        arenaField.set(embeddingService, true);
+
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 0, 0, null);
+
+        DocumentChunkWithEmbedding result = embeddingService.generateEmbeddings(List.of(chunk)).getEmbeddedChunks().getFirst();
+
+        assertTrue(result.getEmbeddingSlot().isPresent());
+        assertEquals(1, arena.getSlotsInUse());
+        assertEquals(0.1f, result.getEmbedding()[1535]);
+
+        result.releaseEmbedding();
+        assertEquals(0, arena.getSlotsInUse());
+        assertNull(result.getEmbedding());
+    }
+
+    @Test
+    void testGenerateEmbeddingsRetriesAfterOverload() throws Exception {
+        Field retriesField = EmbeddingService.class.getDeclaredField("maxRetries");
+        retriesField.setAccessible(true);
+        retriesField.set(embeddingService, 2);
+
+        float[] mockEmbedding = new float[1536];
+        when(embeddingModel.embed(anyList()))
+                .thenThrow(new ModelOverloadedException(429, Duration.ofMillis(10), "HTTP 429 - rate limited"))
+                .thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+                        .map(input -> mockEmbedding)
+                        .toList());
+
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 0, 0, null);
+
+        List<DocumentChunkWithEmbedding> results = embeddingService.generateEmbeddings(List.of(chunk)).getEmbeddedChunks();
+
+        assertEquals(1, results.size());
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        verify(embeddingModel, times(2)).embed(anyList());
+    }
+
+    @Test
+    void testGenerateEmbeddingsIsolatesRejectedChunk() {
+        float[] mockEmbedding = new float[1536];
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            List<?> inputs = invocation.getArgument(0);
+            if (inputs.contains("oversized")) {
+                throw new NonTransientAiException("HTTP 400 - maximum context length exceeded");
+            }
+            return inputs.stream().map(input -> mockEmbedding).toList();
+        });
+
+        List<DocumentChunk> chunks = List.of(chunk("first"), chunk("oversized"), chunk("third"), chunk("fourth"));
+
+        // Force all chunks into a single batch
+        limiter = new AdaptiveConcurrencyLimiter("embedding", new AdaptiveConcurrencyLimiter.Settings(
+                2, 1, 4, 4, 1, 8, 1, Duration.ofSeconds(2), 0.5, 0.05, 0));
+        embeddingService = new EmbeddingService(embeddingModel, limiter, HedgedCallExecutor.disabled("embedding"), new VectorArena(1536, 16));
+
+        EmbeddingResult result = embeddingService.generateEmbeddings(chunks);
+
+        assertEquals(3, result.getEmbeddedChunks().size());
+        assertEquals(1, result.getFailedChunks().size());
+        assertEquals("oversized", result.getFailedChunks().getFirst().chunk().getContent());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testBackoffIsJitteredAndCapped() {
+        for (int attempt = 1; attempt <= 30; attempt++) {
+            Duration backoff = embeddingService.backoff(attempt);
+            assertTrue(backoff.compareTo(Duration.ZERO) >= 0);
+            assertTrue(backoff.compareTo(Duration.ofSeconds(30)) <= 0);
+        }
+    }
+
+    @Test
+    void testConcurrentQueryEmbeddingsShareOneCall() throws Exception {
+        // A window far longer than the test, so the batch is flushed by size once all four queries are in
+        Field window = EmbeddingService.class.getDeclaredField("queryBatchWindow");
+        window.setAccessible(true);
+        window.set(embeddingService, Duration.ofSeconds(30));
+        Field maxBatchSize = EmbeddingService.class.getDeclaredField("queryMaxBatchSize");
+        maxBatchSize.setAccessible(true);
+        maxBatchSize.set(embeddingService, 4);
+        embeddingService.startQueryBatching();
+
+        try {
+            List<CompletableFuture<float[]>> queries = Stream.of("find a", "find b", "find a", "find c")
+                    .map(query -> CompletableFuture.supplyAsync(() -> embeddingService.generateEmbedding(query)))
+                    .toList();
+
+            for (CompletableFuture<float[]> query : queries) {
+                assertEquals(1536, query.get(5, TimeUnit.SECONDS).length);
+            }
+            // Duplicate queries in the same window are embedded once
+            verify(embeddingModel, times(1)).embed(argThat((List<String> inputs) -> inputs.size() == 3));
+        } finally {
+            embeddingService.stopQueryBatching();
+        }
+    }
+
+    private static DocumentChunk chunk(String content) {
+        DocumentChunk chunk = new DocumentChunk(content, "test/path.java", 0, 0, null);
+        return chunk;
+    }
 }
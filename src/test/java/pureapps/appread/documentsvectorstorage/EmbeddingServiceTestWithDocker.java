@@ -14,12 +14,16 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
 import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+import pureapps.appread.hedging.HedgedCallExecutor;
+import pureapps.appread.throttling.AdaptiveConcurrencyLimiter;
+import pureapps.appread.vectorarena.VectorArena;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.when;
 
 /**
@@ -58,19 +62,19 @@ class EmbeddingServiceTestWithDocker {
         // Mock the embedding model to return a fixed embedding vector
         float[] mockEmbedding = new float[1536]; // Using 1536 as the dimension from the SQL script
         Arrays.fill(mockEmbedding, 0.1f);
-        when(embeddingModel.embed(anyString())).thenReturn(mockEmbedding);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+                .map(input -> mockEmbedding)
+                .toList());
         
-        embeddingService = new EmbeddingService(embeddingModel);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("embedding", new AdaptiveConcurrencyLimiter.Settings(
+                2, 1, 4, 1, 1, 8, 1, Duration.ofSeconds(2), 0.5, 0.05, 0));
+        embeddingService = new EmbeddingService(embeddingModel, limiter, HedgedCallExecutor.disabled("embedding"), new VectorArena(1536, 16));
     }
 
     @Test
     void testGenerateEmbedding() {
         // Create a test document chunk
-        DocumentChunk chunk = new DocumentChunk();
-        chunk.setContent("Test content");
-        chunk.setFilePath("test/path.java");
-        chunk.setStartLine(1);
-        chunk.setEndLine(10);
+        DocumentChunk chunk = new DocumentChunk("Test content", "test/path.java", 1, 10, null);
 
         // Generate embedding
         DocumentChunkWithEmbedding result = embeddingService.generateEmbedding(chunk);
@@ -88,22 +92,14 @@ class EmbeddingServiceTestWithDocker {
     @Test
     void testGenerateEmbeddings() {
         // Create test document chunks
-        DocumentChunk chunk1 = new DocumentChunk();
-        chunk1.setContent("Test content 1");
-        chunk1.setFilePath("test/path1.java");
-        chunk1.setStartLine(1);
-        chunk1.setEndLine(10);
-
-        DocumentChunk chunk2 = new DocumentChunk();
-        chunk2.setContent("Test content 2");
-        chunk2.setFilePath("test/path2.java");
-        chunk2.setStartLine(11);
-        chunk2.setEndLine(20);
+        DocumentChunk chunk1 = new DocumentChunk("Test content 1", "test/path1.java", 1, 10, null);
+
+        DocumentChunk chunk2 = new DocumentChunk("Test content 2", "test/path2.java", 11, 20, null);
 
         List<DocumentChunk> chunks = Arrays.asList(chunk1, chunk2);
 
         // Generate embeddings
-        List<DocumentChunkWithEmbedding> results = embeddingService.generateEmbeddings(chunks);
+        List<DocumentChunkWithEmbedding> results = embeddingService.generateEmbeddings(chunks).getEmbeddedChunks();
 
         // Verify the results
         assertNotNull(results);
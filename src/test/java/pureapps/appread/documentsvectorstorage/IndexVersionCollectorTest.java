@@ -0,0 +1,56 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+
+import static org.mockito.Mockito.*;
+
+class IndexVersionCollectorTest {
+
+    private PersistenceService persistenceService;
+    private IndexVersionCollector collector;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        persistenceService = mock(PersistenceService.class);
+        collector = new IndexVersionCollector(persistenceService);
+        setField("batchSize", 100);
+        setField("batchPause", Duration.ZERO);
+    }
+
+    @Test
+    void deletesInBatchesUntilOneIsNotFull() {
+        when(persistenceService.deleteSupersededIndexVersions("project", 100)).thenReturn(100, 100, 40);
+
+        collector.collect("project");
+
+        verify(persistenceService, times(3)).deleteSupersededIndexVersions("project", 100);
+    }
+
+    @Test
+    void collectsAllProjectsWithoutAProject() {
+        when(persistenceService.deleteSupersededIndexVersions(null, 100)).thenReturn(0);
+
+        collector.collect(null);
+
+        verify(persistenceService, times(1)).deleteSupersededIndexVersions(null, 100);
+    }
+
+    @Test
+    void failedBatchEndsTheRun() {
+        when(persistenceService.deleteSupersededIndexVersions("project", 100)).thenReturn(100).thenThrow(new RuntimeException("Deadlock"));
+
+        collector.collect("project");
+
+        verify(persistenceService, times(2)).deleteSupersededIndexVersions("project", 100);
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = IndexVersionCollector.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(collector, value);
+    }
+}
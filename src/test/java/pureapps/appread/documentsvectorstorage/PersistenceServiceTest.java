@@ -0,0 +1,96 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunk;
+import pureapps.appread.documentsvectorstorage.dto.DocumentChunkWithEmbedding;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PersistenceServiceTest {
+
+    private DocumentChunkWriter chunkWriter;
+    private ProjectIndexVersionRepository indexVersionRepository;
+    private ProjectLifecycleRepository lifecycleRepository;
+    private PersistenceService persistenceService;
+
+    @BeforeEach
+    void setUp() {
+        chunkWriter = mock(DocumentChunkWriter.class);
+        indexVersionRepository = mock(ProjectIndexVersionRepository.class);
+        lifecycleRepository = mock(ProjectLifecycleRepository.class);
+        persistenceService = new PersistenceService(mock(DocumentChunkRepository.class), chunkWriter,
+                mock(DocumentChunkSearchRepository.class), mock(EmbeddingDeadLetterRepository.class),
+                mock(ProjectEmbeddingModelRepository.class), mock(EmbeddingMigrationRepository.class),
+                mock(ProjectPartitionManager.class), indexVersionRepository, lifecycleRepository);
+    }
+
+    @Test
+    void projectBeingPurgedIsNotRegistered() {
+        when(lifecycleRepository.register("project")).thenReturn(false);
+
+        assertThrows(IllegalStateException.class, () -> persistenceService.registerProject("project"));
+    }
+
+    @Test
+    void purgeLocksThePointerRowBeforeMarkingTheProject() {
+        persistenceService.startPurge("project");
+
+        InOrder inOrder = inOrder(indexVersionRepository, lifecycleRepository);
+        inOrder.verify(indexVersionRepository).lockLive("project");
+        inOrder.verify(lifecycleRepository).markPurging("project");
+        inOrder.verify(indexVersionRepository).hide("project");
+    }
+
+    @Test
+    void versionOfAProjectBeingPurgedIsNotSwappedIn() {
+        when(indexVersionRepository.lockLive("project")).thenReturn(1);
+        when(lifecycleRepository.isPurging("project")).thenReturn(true);
+
+        assertFalse(persistenceService.swapIndexVersion("project", 2, null));
+
+        InOrder inOrder = inOrder(indexVersionRepository, lifecycleRepository);
+        inOrder.verify(indexVersionRepository).lockLive("project");
+        inOrder.verify(lifecycleRepository).isPurging("project");
+        verify(indexVersionRepository, never()).swap(anyString(), anyInt());
+    }
+
+    @Test
+    void noVersionIsStartedForAProjectBeingPurged() {
+        when(indexVersionRepository.allocate("project")).thenReturn(2);
+        when(lifecycleRepository.isPurging("project")).thenReturn(true);
+
+        assertThrows(IllegalStateException.class, () -> persistenceService.startIndexVersion("project"));
+    }
+
+    @Test
+    void chunksOfAProjectBeingPurgedAreNotWritten() {
+        when(lifecycleRepository.lockActive("project")).thenReturn(false);
+
+        assertThrows(IllegalStateException.class,
+                () -> persistenceService.saveChunks("project", 1, "model", List.of(chunk())));
+
+        verifyNoInteractions(chunkWriter);
+    }
+
+    @Test
+    void chunksAreWrittenUnderTheProjectRowLock() {
+        when(lifecycleRepository.lockActive("project")).thenReturn(true);
+        List<DocumentChunkWithEmbedding> chunks = List.of(chunk());
+
+        persistenceService.saveChunks("project", 1, "model", chunks);
+
+        InOrder inOrder = inOrder(lifecycleRepository, chunkWriter);
+        inOrder.verify(lifecycleRepository).lockActive("project");
+        inOrder.verify(chunkWriter).write("project", 1, "model", chunks);
+    }
+
+    private static DocumentChunkWithEmbedding chunk() {
+        return new DocumentChunkWithEmbedding(new DocumentChunk("content", "A.java", 1, 1, "checksum"));
+    }
+}
@@ -0,0 +1,113 @@
+package pureapps.appread.documentsvectorstorage;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PgVectorBinaryTransferTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withBean(PgVectorBinaryTransfer.class);
+
+    @Test
+    void poolKeepsItsTypeAndIsClosedWithTheContext() {
+        contextRunner
+                .withBean(HikariDataSource.class, () -> {
+                    HikariDataSource pool = new HikariDataSource();
+                    pool.setJdbcUrl("jdbc:postgresql://localhost:1/appread");
+                    return pool;
+                })
+                .run(context -> {
+                    HikariDataSource pool = context.getBean(HikariDataSource.class);
+                    assertTrue(AopUtils.isAopProxy(pool));
+                    assertFalse(pool.isClosed());
+
+                    context.close();
+
+                    assertTrue(pool.isClosed());
+                });
+    }
+
+    @Test
+    void explicitlyNamedDestroyMethodIsStillFound() {
+        contextRunner
+                .withUserConfiguration(ClosableDataSourceConfiguration.class)
+                .run(context -> {
+                    assertNull(context.getStartupFailure());
+                    ClosableDataSource dataSource = context.getBean(ClosableDataSource.class);
+
+                    context.close();
+
+                    assertTrue(dataSource.isClosed());
+                });
+    }
+
+    @Test
+    void registersEveryConnectionHandedOut() throws Exception {
+        Connection connection = mock(Connection.class);
+        DataSource dataSource = (DataSource) new PgVectorBinaryTransfer()
+                .postProcessAfterInitialization(new ClosableDataSource(connection), "dataSource");
+
+        assertSame(connection, dataSource.getConnection());
+        assertSame(connection, dataSource.getConnection("user", "password"));
+
+        verify(connection, times(2)).isWrapperFor(PGConnection.class);
+    }
+
+    @Test
+    void lazyProxiesAreLeftAlone() {
+        LazyConnectionDataSourceProxy lazyProxy = new LazyConnectionDataSourceProxy(new ClosableDataSource(mock(Connection.class)));
+
+        assertSame(lazyProxy, new PgVectorBinaryTransfer().postProcessAfterInitialization(lazyProxy, "dataSource"));
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    static class ClosableDataSourceConfiguration {
+
+        @Bean(destroyMethod = "close")
+        ClosableDataSource closableDataSource() {
+            return new ClosableDataSource(mock(Connection.class));
+        }
+    }
+
+    static class ClosableDataSource extends AbstractDataSource implements AutoCloseable {
+
+        private final Connection connection;
+        private volatile boolean closed;
+
+        ClosableDataSource(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Connection getConnection() {
+            return connection;
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+    }
+}
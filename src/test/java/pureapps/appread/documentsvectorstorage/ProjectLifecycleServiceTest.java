@@ -0,0 +1,89 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProjectLifecycleServiceTest {
+
+    private PersistenceService persistenceService;
+    private ProjectLifecycleService lifecycleService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        persistenceService = mock(PersistenceService.class);
+        lifecycleService = new ProjectLifecycleService(persistenceService);
+        setField("batchSize", 100);
+        setField("batchPause", Duration.ZERO);
+    }
+
+    @Test
+    void purgeHidesTheProjectThenDeletesItInBatches() {
+        when(persistenceService.purgeBatch("project", 100)).thenReturn(100, 100, 40, 0);
+
+        assertTrue(lifecycleService.purge("project"));
+
+        verify(persistenceService, timeout(5000)).finishPurge("project");
+        InOrder inOrder = inOrder(persistenceService);
+        inOrder.verify(persistenceService).startPurge("project");
+        inOrder.verify(persistenceService, times(4)).purgeBatch("project", 100);
+        // Partitions are dropped outside of the transaction that removes the bookkeeping rows
+        inOrder.verify(persistenceService).dropPartitions("project");
+        inOrder.verify(persistenceService).finishPurge("project");
+    }
+
+    @Test
+    void failedPurgeIsLeftForTheNextSweep() {
+        when(persistenceService.purgeBatch("project", 100)).thenReturn(100).thenThrow(new RuntimeException("Failed to purge project: project"));
+
+        lifecycleService.purgeBatches("project");
+
+        verify(persistenceService, never()).dropPartitions("project");
+        verify(persistenceService, never()).finishPurge("project");
+    }
+
+    @Test
+    void sweepPurgesExpiredProjectsAfterFlushingAccesses() throws Exception {
+        setField("retention", Duration.ofDays(30));
+        lifecycleService.recordAccess("in-use");
+        when(persistenceService.findProjectsToPurge(any())).thenReturn(List.of("expired"));
+
+        lifecycleService.collectExpiredProjects();
+
+        InOrder inOrder = inOrder(persistenceService);
+        inOrder.verify(persistenceService).recordProjectAccesses(argThat(accesses -> accesses.containsKey("in-use")));
+        inOrder.verify(persistenceService).findProjectsToPurge(argThat(before ->
+                before.isBefore(Instant.now().minus(Duration.ofDays(29))) && before.isAfter(Instant.now().minus(Duration.ofDays(31)))));
+        inOrder.verify(persistenceService).startPurge("expired");
+        verify(persistenceService, timeout(5000)).finishPurge("expired");
+    }
+
+    @Test
+    void accessesAreKeptIfTheyCannotBeWritten() {
+        lifecycleService.recordAccess("project");
+        doThrow(new RuntimeException("connection refused")).doNothing().when(persistenceService).recordProjectAccesses(anyMap());
+
+        lifecycleService.flushAccesses();
+        lifecycleService.flushAccesses();
+
+        verify(persistenceService, times(2)).recordProjectAccesses(argThat((Map<String, Instant> accesses) -> accesses.containsKey("project")));
+        lifecycleService.flushAccesses();
+        verifyNoMoreInteractions(persistenceService);
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = ProjectLifecycleService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(lifecycleService, value);
+    }
+}
@@ -0,0 +1,115 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class ProjectPartitionManagerTest {
+
+    private final JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+    private final ProjectPartitionManager partitionManager = new ProjectPartitionManager(jdbcTemplate);
+
+    @Test
+    void partitionNamesMatchTheMigrationScript() {
+        // 'document_chunks_p_' || left(md5('my-project'), 16)
+        assertEquals("document_chunks_p_f5014ffa1aac0018", ProjectPartitionManager.partitionName("document_chunks", "my-project"));
+    }
+
+    @Test
+    void ensurePartitionsCreatesEachPartitionOnce() {
+        partitionManager.ensurePartitions("it's-a-project");
+        partitionManager.ensurePartitions("it's-a-project");
+
+        String expected = ProjectPartitionManager.partitionName("document_chunks", "it's-a-project");
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS " + expected
+                                     + " PARTITION OF document_chunks FOR VALUES IN ('it''s-a-project')");
+        verify(jdbcTemplate, times(2)).execute(anyString());
+    }
+
+    @Test
+    void ensurePartitionsFallsBackToTheDefaultPartition() {
+        doThrow(new DataIntegrityViolationException("updated partition constraint for default partition would be violated"))
+                .when(jdbcTemplate).execute(anyString());
+
+        assertDoesNotThrow(() -> partitionManager.ensurePartitions("my-project"));
+        partitionManager.ensurePartitions("my-project");
+
+        // Retried on the next write, as the project may be moved out of the default partition meanwhile
+        verify(jdbcTemplate, times(2)).execute(anyString());
+    }
+
+    @Test
+    void ensurePartitionsChecksAgainOnceForgotten() {
+        partitionManager.ensurePartitions("my-project");
+        partitionManager.forgetPartitions("my-project");
+        partitionManager.ensurePartitions("my-project");
+
+        verify(jdbcTemplate, times(4)).execute(anyString());
+    }
+
+    @Test
+    void dropPartitionDetachesConcurrentlyWithoutADefaultPartition() {
+        String partition = ProjectPartitionManager.partitionName("document_chunks", "my-project");
+        partitionExists(true);
+        hasDefaultPartition(false);
+
+        assertTrue(partitionManager.dropPartition("document_chunks", "my-project"));
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE document_chunks DETACH PARTITION " + partition + " CONCURRENTLY");
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE " + partition);
+    }
+
+    @Test
+    void dropPartitionRetriesADetachThatTimesOutWaitingForItsLock() throws Exception {
+        String partition = ProjectPartitionManager.partitionName("document_chunks", "my-project");
+        partitionExists(true);
+        hasDefaultPartition(true);
+        Statement statement = mock(Statement.class);
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(statement);
+        doThrow(new CannotAcquireLockException("canceling statement due to lock timeout"))
+                .doAnswer(invocation -> invocation.<ConnectionCallback<?>>getArgument(0).doInConnection(connection))
+                .when(jdbcTemplate).execute(any(ConnectionCallback.class));
+
+        assertTrue(partitionManager.dropPartition("document_chunks", "my-project"));
+
+        InOrder inOrder = inOrder(statement, jdbcTemplate);
+        inOrder.verify(statement).execute("SET lock_timeout = 2000");
+        inOrder.verify(statement).execute("ALTER TABLE document_chunks DETACH PARTITION " + partition);
+        inOrder.verify(statement).execute("RESET lock_timeout");
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE " + partition);
+        verify(jdbcTemplate, never()).execute(startsWith("ALTER TABLE"));
+    }
+
+    @Test
+    void dropPartitionOfAProjectWithoutOneDoesNothing() {
+        partitionExists(false);
+
+        assertFalse(partitionManager.dropPartition("document_chunks", "my-project"));
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    private void partitionExists(boolean exists) {
+        when(jdbcTemplate.queryForObject(eq("SELECT to_regclass(?) IS NOT NULL"), eq(Boolean.class), any())).thenReturn(exists);
+    }
+
+    private void hasDefaultPartition(boolean hasDefault) {
+        when(jdbcTemplate.queryForObject(startsWith("SELECT partdefid"), eq(Boolean.class), any())).thenReturn(hasDefault);
+    }
+}
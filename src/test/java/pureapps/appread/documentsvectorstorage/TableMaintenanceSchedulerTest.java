@@ -0,0 +1,239 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import pureapps.appread.documentsvectorstorage.TableMaintenanceScheduler.Baseline;
+import pureapps.appread.documentsvectorstorage.TableMaintenanceScheduler.IndexStats;
+import pureapps.appread.documentsvectorstorage.TableMaintenanceScheduler.MaintenanceWindow;
+import pureapps.appread.documentsvectorstorage.TableMaintenanceScheduler.TableStats;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class TableMaintenanceSchedulerTest {
+
+    private static final String VECTOR_INDEX = "chunk_embeddings_full_ivfflat_1536_idx";
+
+    private JdbcTemplate session;
+    private MaintenanceLock maintenanceLock;
+    private VectorIndexManager vectorIndexManager;
+    private TableMaintenanceScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        session = mock(JdbcTemplate.class);
+        maintenanceLock = mock(MaintenanceLock.class);
+        vectorIndexManager = mock(VectorIndexManager.class);
+        when(vectorIndexManager.managedIndexName()).thenReturn(VECTOR_INDEX);
+        scheduler = new TableMaintenanceScheduler(maintenanceLock, vectorIndexManager, new VectorIndexSettings());
+    }
+
+    @Test
+    void windowsWrapAroundMidnight() {
+        MaintenanceWindow night = MaintenanceWindow.parse("22:00-04:00");
+        assertTrue(night.contains(LocalTime.of(23, 30)));
+        assertTrue(night.contains(LocalTime.of(3, 59)));
+        assertFalse(night.contains(LocalTime.of(4, 0)));
+        assertFalse(night.contains(LocalTime.of(12, 0)));
+
+        MaintenanceWindow morning = MaintenanceWindow.parse(" 01:00 - 05:30 ");
+        assertTrue(morning.contains(LocalTime.of(1, 0)));
+        assertFalse(morning.contains(LocalTime.of(5, 30)));
+        assertThrows(IllegalArgumentException.class, () -> MaintenanceWindow.parse("01:00"));
+    }
+
+    @Test
+    void noRunOutsideTheWindows() throws Exception {
+        setField("windows", List.of("01:00-05:00"));
+        setField("enabled", false);
+        scheduler.start();
+        setField("clock", Clock.fixed(Instant.parse("2024-01-01T12:00:00Z"), ZoneOffset.UTC));
+
+        assertFalse(scheduler.inWindow());
+        scheduler.maintain();
+        verifyNoInteractions(maintenanceLock);
+
+        setField("clock", Clock.fixed(Instant.parse("2024-01-01T02:00:00Z"), ZoneOffset.UTC));
+        assertTrue(scheduler.inWindow());
+        scheduler.maintain();
+        verify(maintenanceLock).runExclusive(any());
+    }
+
+    @Test
+    void vectorIndexBuildsSkippedDuringARunAreRequestedAfterIt() {
+        when(maintenanceLock.runExclusive(any())).thenReturn(true);
+
+        scheduler.maintain();
+
+        verify(vectorIndexManager).requestMaintenance();
+    }
+
+    @Test
+    void nothingIsRequestedIfAnotherInstanceHoldsTheLock() {
+        when(maintenanceLock.runExclusive(any())).thenReturn(false);
+
+        scheduler.maintain();
+
+        verify(vectorIndexManager, never()).requestMaintenance();
+    }
+
+    @Test
+    void indexesWithoutABaselineAreBaselinedFirst() {
+        tables(new TableStats("document_file_paths", 100_000, 0, 0, 500));
+        indexes(new IndexStats("document_file_paths_pkey", "document_file_paths", 7, 25L << 20));
+        builtIndex("document_file_paths_pkey", 7, 25L << 20);
+
+        scheduler.maintain(session);
+
+        verify(session).update(startsWith("INSERT INTO index_maintenance_baselines"),
+                eq("document_file_paths_pkey"), eq(7L), eq(25L << 20), eq(500L));
+        verify(session, never()).execute(startsWith("REINDEX"));
+    }
+
+    @Test
+    void grownIndexesAreReindexedAndBaselinedAgain() {
+        tables(new TableStats("document_file_paths", 100_000, 0, 0, 500));
+        baselines("document_file_paths_pkey", new Baseline(7, 10L << 20, 100));
+        indexes(new IndexStats("document_file_paths_pkey", "document_file_paths", 7, 25L << 20));
+        builtIndex("document_file_paths_pkey", 8, 9L << 20);
+
+        scheduler.maintain(session);
+
+        verify(session).execute("REINDEX INDEX CONCURRENTLY \"document_file_paths_pkey\"");
+        verify(session).update(startsWith("INSERT INTO index_maintenance_baselines"),
+                eq("document_file_paths_pkey"), eq(8L), eq(9L << 20), eq(500L));
+    }
+
+    @Test
+    void indexesRebuiltElsewhereAreBaselinedAgainInsteadOfReindexed() {
+        tables(new TableStats("document_file_paths", 100_000, 0, 0, 500));
+        // Grown past the threshold, but measured against the index that was replaced
+        baselines("document_file_paths_pkey", new Baseline(6, 10L << 20, 100));
+        indexes(new IndexStats("document_file_paths_pkey", "document_file_paths", 7, 25L << 20));
+        builtIndex("document_file_paths_pkey", 7, 25L << 20);
+
+        scheduler.maintain(session);
+
+        verify(session, never()).execute(startsWith("REINDEX"));
+        verify(session).update(startsWith("INSERT INTO index_maintenance_baselines"),
+                eq("document_file_paths_pkey"), eq(7L), eq(25L << 20), eq(500L));
+    }
+
+    @Test
+    void churnedVectorIndexIsRetrainedOnTheRunsSession() {
+        tables(new TableStats("chunk_embeddings", 100_000, 0, 0, 70_000));
+        baselines(VECTOR_INDEX, new Baseline(9, 100L << 20, 10_000));
+        indexes(new IndexStats(VECTOR_INDEX, "chunk_embeddings", 9, 100L << 20));
+        builtIndex(VECTOR_INDEX, 10, 100L << 20);
+        when(vectorIndexManager.rebuildIndex(session)).thenReturn(true);
+
+        scheduler.maintain(session);
+
+        verify(vectorIndexManager).rebuildIndex(session);
+        verify(session).update(startsWith("INSERT INTO index_maintenance_baselines"),
+                eq(VECTOR_INDEX), eq(10L), eq(100L << 20), eq(70_000L));
+    }
+
+    @Test
+    void aRunStopsWhenTheWindowCloses() throws Exception {
+        setField("windows", List.of("01:00-05:00"));
+        setField("enabled", false);
+        scheduler.start();
+        Clock clock = mock(Clock.class);
+        when(clock.getZone()).thenReturn(ZoneOffset.UTC);
+        when(clock.instant()).thenReturn(Instant.parse("2024-01-01T04:59:00Z"), Instant.parse("2024-01-01T05:00:00Z"));
+        setField("clock", clock);
+        tables(new TableStats("chunk_contents", 60_000, 40_000, 0, 0), new TableStats("chunk_embeddings", 60_000, 40_000, 0, 0));
+
+        scheduler.maintain(session);
+
+        verify(session, times(1)).execute(startsWith("VACUUM (ANALYZE)"));
+        // Indexes are left for the next window as well
+        verify(session, never()).update(anyString());
+        verify(session, never()).query(startsWith("SELECT s.indexrelname"), any(RowMapper.class));
+    }
+
+    @Test
+    void tablesAreVacuumedOrAnalyzedPastTheirThresholds() {
+        assertTrue(scheduler.needsVacuum(new TableStats("document_chunks_default", 60_000, 40_000, 0, 0)));
+        // Too few dead tuples to be worth it, whatever the ratio
+        assertFalse(scheduler.needsVacuum(new TableStats("projects", 10, 500, 0, 0)));
+        assertFalse(scheduler.needsVacuum(new TableStats("chunk_contents", 100_000, 5_000, 0, 0)));
+
+        assertTrue(scheduler.needsAnalyze(new TableStats("chunk_embeddings", 100_000, 0, 20_000, 0)));
+        assertFalse(scheduler.needsAnalyze(new TableStats("chunk_embeddings", 100_000, 0, 5_000, 0)));
+    }
+
+    @Test
+    void indexesAreRebuiltOnceGrownOrChurned() {
+        Baseline baseline = new Baseline(42, 10L << 20, 1_000);
+        assertTrue(scheduler.needsReindex(new IndexStats("document_chunks_default_pkey", "document_chunks_default", 42, 25L << 20), baseline));
+        assertFalse(scheduler.needsReindex(new IndexStats("document_chunks_default_pkey", "document_chunks_default", 42, 15L << 20), baseline));
+        // Small indexes are left alone
+        assertFalse(scheduler.needsReindex(new IndexStats("projects_pkey", "projects", 7, 3L << 20), new Baseline(7, 1L << 20, 0)));
+
+        assertTrue(scheduler.needsRetrain(new TableStats("chunk_embeddings", 100_000, 0, 0, 60_000), baseline));
+        assertFalse(scheduler.needsRetrain(new TableStats("chunk_embeddings", 100_000, 0, 0, 20_000), baseline));
+    }
+
+    private void tables(TableStats... tables) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (TableStats table : tables) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getString(1)).thenReturn(table.name());
+                when(rs.getLong(2)).thenReturn(table.liveTuples());
+                when(rs.getLong(3)).thenReturn(table.deadTuples());
+                when(rs.getLong(4)).thenReturn(table.modifiedSinceAnalyze());
+                when(rs.getLong(5)).thenReturn(table.churn());
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(session).query(startsWith("SELECT relname"), any(RowCallbackHandler.class));
+    }
+
+    private void baselines(String indexName, Baseline baseline) {
+        doAnswer(invocation -> {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getString(1)).thenReturn(indexName);
+            when(rs.getLong(2)).thenReturn(baseline.oid());
+            when(rs.getLong(3)).thenReturn(baseline.sizeBytes());
+            when(rs.getLong(4)).thenReturn(baseline.churn());
+            invocation.<RowCallbackHandler>getArgument(1).processRow(rs);
+            return null;
+        }).when(session).query(startsWith("SELECT index_name"), any(RowCallbackHandler.class));
+    }
+
+    private void indexes(IndexStats... indexes) {
+        when(session.query(startsWith("SELECT s.indexrelname"), any(RowMapper.class))).thenReturn(List.of(indexes));
+    }
+
+    /**
+     * The oid and size the index has once maintained, which its new baseline records.
+     */
+    private void builtIndex(String indexName, long oid, long sizeBytes) {
+        when(session.query(startsWith("SELECT c.oid"), any(RowMapper.class), eq(indexName)))
+                .thenReturn(List.of(new long[]{oid, sizeBytes}));
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = TableMaintenanceScheduler.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(scheduler, value);
+    }
+}
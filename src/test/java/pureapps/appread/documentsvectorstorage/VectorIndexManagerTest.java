@@ -0,0 +1,265 @@
+package pureapps.appread.documentsvectorstorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class VectorIndexManagerTest {
+
+    private static final String INDEX = "chunk_embeddings_full_ivfflat_1536_idx";
+
+    private JdbcTemplate jdbcTemplate;
+    private MaintenanceLock maintenanceLock;
+    private MaintenanceLock.SharedHold deferral;
+    private VectorIndexManager indexManager;
+    private final List<Runnable> maintenanceRuns = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        maintenanceLock = mock(MaintenanceLock.class);
+        deferral = mock(MaintenanceLock.SharedHold.class);
+        when(maintenanceLock.tryShared()).thenReturn(deferral);
+        lockFree(true);
+        indexManager = new VectorIndexManager(jdbcTemplate, new VectorIndexSettings(), maintenanceLock);
+        setField("maintenanceExecutor", (Executor) maintenanceRuns::add);
+        indexExists(true);
+        indexedRows(20000);
+        lists(20);
+    }
+
+    @Test
+    void smallLoadsKeepTheIndex() {
+        assertFalse(indexManager.beforeBulkLoad(9999));
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void loadsThatDoubleASmallIndexDeferIt() {
+        assertTrue(indexManager.beforeBulkLoad(20000));
+
+        verify(jdbcTemplate).execute("DROP INDEX CONCURRENTLY IF EXISTS " + INDEX);
+        verify(jdbcTemplate).execute("DROP INDEX CONCURRENTLY IF EXISTS chunk_embeddings_full_hnsw_1536_idx");
+    }
+
+    @Test
+    void loadsThatDoNotDoubleTheIndexKeepIt() {
+        assertFalse(indexManager.beforeBulkLoad(19999));
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void aLargeFleetWideIndexIsNeverDropped() {
+        indexedRows(200_000);
+
+        assertFalse(indexManager.beforeBulkLoad(1_000_000));
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void noLoadDefersTheIndexWhileItIsMaintained() throws Exception {
+        when(maintenanceLock.tryShared()).thenReturn(null);
+
+        assertFalse(indexManager.beforeBulkLoad(20000));
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void theSharedLockIsHeldUntilTheLastDeferredLoad() throws Exception {
+        assertTrue(indexManager.beforeBulkLoad(20000));
+        assertTrue(indexManager.beforeBulkLoad(20000));
+
+        indexManager.afterBulkLoad(true);
+        verify(deferral, never()).close();
+
+        indexManager.afterBulkLoad(true);
+        verify(maintenanceLock, times(1)).tryShared();
+        verify(deferral).close();
+    }
+
+    @Test
+    void theIndexIsRebuiltAfterTheLastDeferredLoad() {
+        assertTrue(indexManager.beforeBulkLoad(20000));
+        // A second load joins the deferral whatever its size relative to the (now missing) index
+        indexedRows(1_000_000);
+        assertTrue(indexManager.beforeBulkLoad(20000));
+        indexExists(false);
+
+        indexManager.afterBulkLoad(true);
+        assertTrue(maintenanceRuns.isEmpty());
+
+        indexManager.afterBulkLoad(true);
+        assertEquals(1, maintenanceRuns.size());
+        maintenanceRuns.getFirst().run();
+
+        verify(jdbcTemplate).execute(startsWith("CREATE INDEX CONCURRENTLY " + INDEX + " ON chunk_embeddings"));
+    }
+
+    @Test
+    void aMissingIndexIsBuiltConcurrentlyWithListsForTheIndexedRows() {
+        indexExists(false);
+
+        indexManager.maintainIndex(VectorStorageMode.FULL, 1536);
+
+        verify(jdbcTemplate).execute("DROP INDEX CONCURRENTLY IF EXISTS " + INDEX);
+        verify(jdbcTemplate).execute("CREATE INDEX CONCURRENTLY " + INDEX + " ON chunk_embeddings USING ivfflat " +
+                "((embedding::vector(1536)) vector_cosine_ops) WITH (lists = 20) WHERE vector_dims(embedding) = 1536");
+        verify(jdbcTemplate).execute("DROP INDEX CONCURRENTLY IF EXISTS chunk_embeddings_full_hnsw_1536_idx");
+    }
+
+    @Test
+    void maintenanceIsSkippedWhileTheLockIsTaken() {
+        // A load deferring the index on another instance holds the lock shared
+        lockFree(false);
+        indexExists(false);
+
+        indexManager.requestMaintenance();
+        maintenanceRuns.getFirst().run();
+
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE INDEX"));
+    }
+
+    @Test
+    void maintenanceRequestsAreCoalesced() {
+        indexManager.requestMaintenance();
+        indexManager.requestMaintenance();
+        indexManager.afterBulkLoad(false);
+
+        assertEquals(1, maintenanceRuns.size());
+        // A request arriving while maintenance runs is served by one more pass of the same run
+        doAnswer(invocation -> {
+            indexManager.requestMaintenance();
+            return List.of("lists=20");
+        }).doReturn(List.of("lists=20"))
+                .when(jdbcTemplate).queryForList(startsWith("SELECT array_to_string"), eq(String.class), any());
+
+        maintenanceRuns.getFirst().run();
+
+        assertEquals(1, maintenanceRuns.size());
+        verify(jdbcTemplate, times(2)).queryForList(startsWith("SELECT array_to_string"), eq(String.class), any());
+    }
+
+    @Test
+    void outgrownIvfflatListsTriggerARebuild() {
+        lists(5);
+
+        indexManager.maintainIndex(VectorStorageMode.FULL, 1536);
+
+        verify(jdbcTemplate).execute(startsWith("CREATE INDEX CONCURRENTLY " + INDEX + "_rebuild ON chunk_embeddings"));
+    }
+
+    @Test
+    void ivfflatListsWithinTheRebuildRatioAreKept() {
+        lists(11);
+
+        indexManager.maintainIndex(VectorStorageMode.FULL, 1536);
+
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE INDEX"));
+    }
+
+    @Test
+    void noIvfflatIndexIsBuiltOverAnEmptyTable() {
+        indexExists(false);
+        indexedRows(-1);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT count(*)"), eq(Long.class))).thenReturn(0L);
+
+        indexManager.maintainIndex(VectorStorageMode.FULL, 1536);
+
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE INDEX"));
+    }
+
+    @Test
+    void aRebuiltIndexIsSwappedInWithinOneTransaction() throws Exception {
+        Connection connection = swapConnection();
+
+        assertTrue(indexManager.rebuildIndex(jdbcTemplate));
+
+        Statement statement = connection.createStatement();
+        InOrder inOrder = inOrder(jdbcTemplate, connection, statement);
+        inOrder.verify(jdbcTemplate).execute(startsWith("CREATE INDEX CONCURRENTLY " + INDEX + "_rebuild ON chunk_embeddings"));
+        inOrder.verify(connection).setAutoCommit(false);
+        inOrder.verify(statement).execute("SET LOCAL lock_timeout = 2000");
+        inOrder.verify(statement).execute("DROP INDEX IF EXISTS " + INDEX);
+        inOrder.verify(statement).execute("ALTER INDEX " + INDEX + "_rebuild RENAME TO " + INDEX);
+        inOrder.verify(connection).commit();
+        inOrder.verify(connection).setAutoCommit(true);
+        // The live index is never dropped outside the swap
+        verify(jdbcTemplate, never()).execute("DROP INDEX CONCURRENTLY IF EXISTS " + INDEX);
+    }
+
+    @Test
+    void aSwapThatTimesOutKeepsTheLiveIndex() throws Exception {
+        Connection connection = swapConnection();
+        Statement statement = connection.createStatement();
+        when(statement.execute("DROP INDEX IF EXISTS " + INDEX)).thenThrow(new SQLException("canceling statement due to lock timeout"));
+
+        assertThrows(RuntimeException.class, () -> indexManager.rebuildIndex(jdbcTemplate));
+
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        // Once before the build, once after the failed swap
+        verify(jdbcTemplate, times(2)).execute("DROP INDEX CONCURRENTLY IF EXISTS " + INDEX + "_rebuild");
+    }
+
+    private void lockFree(boolean free) {
+        doAnswer(invocation -> {
+            if (free) {
+                invocation.<Consumer<JdbcTemplate>>getArgument(0).accept(jdbcTemplate);
+            }
+            return free;
+        }).when(maintenanceLock).runExclusive(any());
+    }
+
+    private Connection swapConnection() throws Exception {
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenAnswer(invocation -> {
+            try {
+                return invocation.<ConnectionCallback<?>>getArgument(0).doInConnection(connection);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        return connection;
+    }
+
+    private void indexExists(boolean exists) {
+        when(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), eq(Boolean.class), any())).thenReturn(exists);
+    }
+
+    private void indexedRows(float rows) {
+        when(jdbcTemplate.queryForList(eq("SELECT reltuples FROM pg_class WHERE relname = ?"), eq(Float.class), any()))
+                .thenReturn(List.of(rows));
+    }
+
+    private void lists(int lists) {
+        when(jdbcTemplate.queryForList(startsWith("SELECT array_to_string"), eq(String.class), any()))
+                .thenReturn(List.of("lists=" + lists));
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = VectorIndexManager.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(indexManager, value);
+    }
+}
@@ -0,0 +1,194 @@
+package pureapps.appread.hedging;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedCallExecutorTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void shouldReturnFasterHedgeWhenPrimaryIsSlow() {
+        HedgedCallExecutor executor = executor(1.0, 10);
+        warmUp(executor);
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = executor.call("op", () -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(2000);
+                return "slow";
+            }
+            return "fast";
+        });
+
+        assertEquals("fast", result);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals(1.0, registry.get("appread.model.hedges").counter().count());
+        assertEquals(1.0, registry.get("appread.model.hedge-wins").counter().count());
+    }
+
+    @Test
+    void shouldNotHedgeWithoutBudget() {
+        HedgedCallExecutor executor = executor(0.0, 10);
+        warmUp(executor);
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.call("op", () -> {
+            calls.incrementAndGet();
+            sleep(200);
+            return "slow";
+        });
+
+        assertEquals("slow", result);
+        assertEquals(1, calls.get());
+        assertEquals(0.0, registry.get("appread.model.hedges").counter().count());
+    }
+
+    @Test
+    void shouldNotHedgeWithoutAFreeSlot() {
+        HedgedCallExecutor executor = executor(1.0, 10);
+        warmUp(executor);
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.call("op", () -> {
+            calls.incrementAndGet();
+            sleep(200);
+            return "slow";
+        }, () -> null);
+
+        assertEquals("slow", result);
+        assertEquals(1, calls.get());
+        assertEquals(0.0, registry.get("appread.model.hedges").counter().count());
+    }
+
+    @Test
+    void shouldHoldTheHedgeSlotUntilTheHedgeCompletes() throws Exception {
+        HedgedCallExecutor executor = executor(1.0, 10);
+        warmUp(executor);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch slotReleased = new CountDownLatch(1);
+        CountDownLatch finishHedge = new CountDownLatch(1);
+
+        String result = executor.call("op", () -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(200);
+                return "primary";
+            }
+            await(finishHedge);
+            return "hedge";
+        }, () -> slotReleased::countDown);
+
+        // The primary won, but the hedge is still in flight and keeps its slot
+        assertEquals("primary", result);
+        assertEquals(1, slotReleased.getCount());
+        finishHedge.countDown();
+        assertTrue(slotReleased.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldNotHedgeBeforeEnoughSamples() {
+        HedgedCallExecutor executor = executor(1.0, 10);
+        AtomicInteger calls = new AtomicInteger();
+
+        executor.call("op", () -> {
+            calls.incrementAndGet();
+            sleep(100);
+            return "ok";
+        });
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void shouldFallBackToHedgeWhenPrimaryFails() {
+        HedgedCallExecutor executor = executor(1.0, 10);
+        warmUp(executor);
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.call("op", () -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(200);
+                throw new IllegalStateException("primary failed");
+            }
+            sleep(300);
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+    }
+
+    @Test
+    void shouldPropagateFailureWhenNotHedged() {
+        HedgedCallExecutor executor = executor(1.0, 10);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> executor.call("op", () -> {
+                    throw new IllegalStateException("boom");
+                }));
+        assertEquals("boom", e.getMessage());
+    }
+
+    private HedgedCallExecutor executor(double budgetRatio, int minSamples) {
+        return new HedgedCallExecutor("test", new HedgedCallExecutor.Settings(
+                true, 0.9, Duration.ofMillis(20), budgetRatio, 5, 100, minSamples)).bindTo(registry);
+    }
+
+    @Test
+    void shouldHoldTheHedgeSlotUntilTheLosingPrimaryCompletes() throws Exception {
+        HedgedCallExecutor executor = executor(1.0, 10);
+        warmUp(executor);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch slotReleased = new CountDownLatch(1);
+        CountDownLatch finishPrimary = new CountDownLatch(1);
+
+        String result = executor.call("op", () -> {
+            if (calls.incrementAndGet() == 1) {
+                await(finishPrimary);
+                return "primary";
+            }
+            return "hedge";
+        }, () -> slotReleased::countDown);
+
+        // The hedge won and the caller gives back its slot, but the primary is still in flight
+        assertEquals("hedge", result);
+        assertEquals(1, slotReleased.getCount());
+        finishPrimary.countDown();
+        assertTrue(slotReleased.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void warmUp(HedgedCallExecutor executor) {
+        for (int i = 0; i < 10; i++) {
+            executor.call("op", () -> "warm");
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package pureapps.appread.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolMetricsTest {
+
+    private HttpServer server;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private SimpleMeterRegistry registry;
+    private RestClient restClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+
+        connectionManager = PoolingHttpClientConnectionManagerBuilder.create().build();
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+        registry = new SimpleMeterRegistry();
+        ConnectionPoolMetrics poolMetrics = new ConnectionPoolMetrics(connectionManager, registry);
+        poolMetrics.bind();
+        restClient = RestClient.builder()
+                .requestFactory(new HttpComponentsClientHttpRequestFactory(httpClient))
+                .requestInterceptor(poolMetrics)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void registersGaugesPerEndpointOnceUsed() {
+        assertNull(registry.find("appread.http.pool.leased").gauge());
+
+        String endpoint = "http://localhost:" + server.getAddress().getPort();
+        assertEquals("ok", restClient.get().uri(endpoint + "/v1/models").retrieve().body(String.class));
+        assertEquals("ok", restClient.get().uri(endpoint + "/v1/models").retrieve().body(String.class));
+
+        // The connection went back to the pool and was reused for the second call
+        assertEquals(0.0, registry.get("appread.http.pool.leased").tag("endpoint", endpoint).gauge().value());
+        assertEquals(1.0, registry.get("appread.http.pool.available").tag("endpoint", endpoint).gauge().value());
+        assertEquals(0.0, registry.get("appread.http.pool.pending").tag("endpoint", endpoint).tag("secure", "false").gauge().value());
+        assertEquals(1, registry.find("appread.http.pool.available").gauges().size());
+    }
+}
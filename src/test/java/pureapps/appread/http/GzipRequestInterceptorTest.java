@@ -0,0 +1,68 @@
+package pureapps.appread.http;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GzipRequestInterceptorTest {
+
+    private final GzipRequestInterceptor interceptor = new GzipRequestInterceptor(64);
+    private final AtomicReference<byte[]> sentBody = new AtomicReference<>();
+    private final ClientHttpRequestExecution execution = (request, body) -> {
+        sentBody.set(body);
+        return new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+    };
+
+    @Test
+    void compressesBodiesFromTheMinimumSize() throws Exception {
+        MockClientHttpRequest request = request();
+        byte[] body = "{\"input\":[\"a chunk\"]}".repeat(10).getBytes(StandardCharsets.UTF_8);
+
+        interceptor.intercept(request, body, execution);
+
+        assertEquals("gzip", request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(sentBody.get().length < body.length);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(sentBody.get()))) {
+            assertArrayEquals(body, gzip.readAllBytes());
+        }
+    }
+
+    @Test
+    void sendsSmallBodiesAsTheyAre() throws Exception {
+        MockClientHttpRequest request = request();
+        byte[] body = "{\"input\":\"query\"}".getBytes(StandardCharsets.UTF_8);
+
+        interceptor.intercept(request, body, execution);
+
+        assertSame(body, sentBody.get());
+        assertFalse(request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    @Test
+    void leavesEncodedBodiesAlone() throws Exception {
+        MockClientHttpRequest request = request();
+        request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "br");
+        byte[] body = new byte[1024];
+
+        interceptor.intercept(request, body, execution);
+
+        assertSame(body, sentBody.get());
+        assertEquals("br", request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    private static MockClientHttpRequest request() {
+        return new MockClientHttpRequest(HttpMethod.POST, URI.create("https://api.example.com/v1/embeddings"));
+    }
+}
@@ -0,0 +1,110 @@
+package pureapps.appread.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelHttpClientConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withInitializer(context -> context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withUserConfiguration(ModelHttpClientConfiguration.class)
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new);
+
+    private HttpServer server;
+    private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            contentEncodings.add(encoding == null ? "identity" : encoding);
+            exchange.getRequestBody().readAllBytes();
+            byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void pooledTransportGzipsLargeRequestsAndPublishesPoolMetrics() {
+        contextRunner
+                .withPropertyValues("app.model.http.gzip-requests.enabled=true", "app.model.http.gzip-requests.min-size=100")
+                .run(context -> {
+                    RestClient restClient = restClient(context.getBean(RestClientCustomizer.class));
+
+                    post(restClient, "x".repeat(10));
+                    post(restClient, "x".repeat(1000));
+
+                    assertEquals(List.of("identity", "gzip"), contentEncodings);
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    assertNotNull(registry.find("appread.http.pool.available").tag("endpoint", endpoint()).gauge());
+                });
+    }
+
+    @Test
+    void http2TransportHasNoPoolMetrics() {
+        contextRunner
+                .withPropertyValues("app.model.http.version=HTTP_2")
+                .run(context -> {
+                    RestClient restClient = restClient(context.getBean(RestClientCustomizer.class));
+
+                    post(restClient, "x".repeat(1000));
+
+                    // Gzip is off by default
+                    assertEquals(List.of("identity"), contentEncodings);
+                    assertNull(context.getBean(MeterRegistry.class).find("appread.http.pool.available").gauge());
+                });
+    }
+
+    @Test
+    void poolIsClosedWithTheContext() {
+        contextRunner.run(context -> {
+            assertEquals(1, context.getBeanNamesForType(PoolingHttpClientConnectionManager.class).length);
+            RestClient restClient = restClient(context.getBean(RestClientCustomizer.class));
+            post(restClient, "{}");
+
+            context.close();
+
+            assertThrows(RuntimeException.class, () -> post(restClient, "{}"));
+        });
+    }
+
+    private RestClient restClient(RestClientCustomizer customizer) {
+        RestClient.Builder builder = RestClient.builder().baseUrl(endpoint());
+        customizer.customize(builder);
+        return builder.build();
+    }
+
+    private static void post(RestClient restClient, String body) {
+        restClient.post().uri("/v1/embeddings").body(body).retrieve().toBodilessEntity();
+    }
+
+    private String endpoint() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+}
@@ -22,7 +22,8 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-@SpringBootTest
+// Keeps embeddings on the heap so the returned chunks still hold them after persisting
+@SpringBootTest(properties = "app.embedding.arena.enabled=false")
 @Testcontainers
 class DocumentVectorStorageIntegrationTest {
 
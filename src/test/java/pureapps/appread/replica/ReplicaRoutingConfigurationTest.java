@@ -0,0 +1,64 @@
+package pureapps.appread.replica;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts the routing data sources with replicas configured, together with the application's post-processor that
+ * proxies data sources, as the application context does. Nothing listens on the configured ports.
+ */
+class ReplicaRoutingConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withInitializer(context -> context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withUserConfiguration(DataSourcePostProcessorConfiguration.class, ReplicaRoutingConfiguration.class)
+            .withPropertyValues(
+                    "spring.datasource.url=jdbc:postgresql://localhost:1/appread",
+                    "spring.datasource.username=postgres",
+                    "app.datasource.replica.urls=jdbc:postgresql://localhost:1/replica-a,jdbc:postgresql://localhost:1/replica-b",
+                    "app.datasource.replica.connection-timeout=250ms");
+
+    @Test
+    void startsWithUnreachableReplicas() {
+        contextRunner.run(context -> {
+            assertNull(context.getStartupFailure());
+            DataSource dataSource = context.getBean(DataSource.class);
+            assertInstanceOf(LazyConnectionDataSourceProxy.class, dataSource);
+            assertTrue(AopUtils.isAopProxy(context.getBean("replicaDataSource")));
+        });
+    }
+
+    @Test
+    void poolsAndRoutingAreClosedWithTheContext() {
+        contextRunner.run(context -> {
+            HikariDataSource primary = context.getBean("primaryDataSource", HikariDataSource.class);
+            ReplicaRoutingDataSource replicas = context.getBean(ReplicaRoutingDataSource.class);
+            assertFalse(replicas.isClosed());
+
+            context.close();
+
+            assertTrue(primary.isClosed());
+            assertTrue(replicas.isClosed());
+        });
+    }
+
+    @Configuration
+    @EnableConfigurationProperties(DataSourceProperties.class)
+    @ComponentScan(basePackages = "pureapps.appread.documentsvectorstorage", useDefaultFilters = false,
+            includeFilters = @ComponentScan.Filter(type = FilterType.REGEX, pattern = ".*\\.PgVectorBinaryTransfer"))
+    static class DataSourcePostProcessorConfiguration {
+    }
+}
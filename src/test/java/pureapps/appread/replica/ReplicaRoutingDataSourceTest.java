@@ -0,0 +1,123 @@
+package pureapps.appread.replica;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final Connection primaryConnection = Mockito.mock(Connection.class);
+    private final DataSource primary = Mockito.mock(DataSource.class);
+
+    @Test
+    void readsGoRoundRobinToReplicasWithinTheLagBound() throws Exception {
+        Connection first = replicaConnection(0.5);
+        Connection second = replicaConnection(2);
+        ReplicaRoutingDataSource dataSource = routing(first, second);
+
+        dataSource.checkLag();
+
+        assertSame(first, dataSource.getConnection());
+        assertSame(second, dataSource.getConnection());
+        assertSame(first, dataSource.getConnection());
+    }
+
+    @Test
+    void laggingReplicasAreSkipped() throws Exception {
+        Connection caughtUp = replicaConnection(1);
+        Connection lagging = replicaConnection(60);
+        ReplicaRoutingDataSource dataSource = routing(caughtUp, lagging);
+
+        dataSource.checkLag();
+
+        assertSame(caughtUp, dataSource.getConnection());
+        assertSame(caughtUp, dataSource.getConnection());
+    }
+
+    @Test
+    void readsFallBackToThePrimaryWithoutUsableReplicas() throws Exception {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        ReplicaRoutingDataSource dataSource = routing(replicaConnection(60));
+
+        // Replicas are only used once a check found them caught up
+        assertSame(primaryConnection, dataSource.getConnection());
+
+        dataSource.checkLag();
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void unreachableReplicaIsSkippedUntilItsNextCheck() throws Exception {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        Connection replicaConnection = replicaConnection(0);
+        DataSource replica = Mockito.mock(DataSource.class);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(primary, Map.of("replica-0", replica), Duration.ofSeconds(10));
+        dataSource.checkLag();
+
+        when(replica.getConnection()).thenThrow(new SQLException("Connection refused"));
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertSame(primaryConnection, dataSource.getConnection());
+        // Once by the check, once for the read that failed
+        verify(replica, times(2)).getConnection();
+
+        doReturn(replicaConnection).when(replica).getConnection();
+        dataSource.checkLag();
+        assertSame(replicaConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void connectionsForOtherCredentialsComeFromThePrimary() throws Exception {
+        when(primary.getConnection("reporting", "secret")).thenReturn(primaryConnection);
+        ReplicaRoutingDataSource dataSource = routing(replicaConnection(0));
+        dataSource.checkLag();
+
+        assertSame(primaryConnection, dataSource.getConnection("reporting", "secret"));
+    }
+
+    @Test
+    void closeClosesTheReplicaPools() throws Exception {
+        DataSource replica = Mockito.mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(primary, Map.of("replica-0", replica), Duration.ofSeconds(10))
+                .start(Duration.ofMinutes(1));
+
+        dataSource.close();
+
+        assertTrue(dataSource.isClosed());
+        verify((AutoCloseable) replica).close();
+        // The primary is a bean of its own, closed by the context
+        verifyNoInteractions(primary);
+    }
+
+    private ReplicaRoutingDataSource routing(Connection... replicaConnections) throws SQLException {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (Connection connection : replicaConnections) {
+            DataSource replica = Mockito.mock(DataSource.class);
+            when(replica.getConnection()).thenReturn(connection);
+            replicas.put("replica-" + replicas.size(), replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, Duration.ofSeconds(10));
+    }
+
+    private static Connection replicaConnection(double lagSeconds) throws SQLException {
+        ResultSet resultSet = Mockito.mock(ResultSet.class);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getDouble(1)).thenReturn(lagSeconds);
+        Statement statement = Mockito.mock(Statement.class);
+        when(statement.executeQuery(ReplicaRoutingDataSource.LAG_SQL)).thenReturn(resultSet);
+        Connection connection = Mockito.mock(Connection.class);
+        when(connection.createStatement()).thenReturn(statement);
+        return connection;
+    }
+}
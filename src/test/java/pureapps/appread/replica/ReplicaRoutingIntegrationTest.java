@@ -0,0 +1,99 @@
+package pureapps.appread.replica;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routes between two independent Postgres containers, each knowing its role, the way the application routes between
+ * a primary and its replica.
+ */
+@Testcontainers
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ReplicaRoutingIntegrationTest {
+
+    @Container
+    static PostgreSQLContainer<?> primaryContainer = postgres();
+
+    @Container
+    static PostgreSQLContainer<?> replicaContainer = postgres();
+
+    private static ReplicaRoutingDataSource replicaDataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static TransactionTemplate readOnlyTransaction;
+    private static TransactionTemplate readWriteTransaction;
+
+    @BeforeAll
+    static void setUp() {
+        DataSource primary = dataSource(primaryContainer, "primary");
+        DataSource replica = dataSource(replicaContainer, "replica");
+        replicaDataSource = new ReplicaRoutingDataSource(primary, Map.of("replica-0", replica), Duration.ofSeconds(10));
+        replicaDataSource.checkLag();
+
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        replicaDataSource.close();
+    }
+
+    @Test
+    @Order(1)
+    void readOnlyTransactionsReadTheReplicaAndOthersThePrimary() {
+        assertEquals("replica", readOnlyTransaction.execute(status -> role()));
+        assertEquals("primary", readWriteTransaction.execute(status -> role()));
+        assertEquals("primary", role());
+    }
+
+    @Test
+    @Order(2)
+    void readsFallBackToThePrimaryWhenTheReplicaIsGone() {
+        replicaContainer.stop();
+        replicaDataSource.checkLag();
+
+        assertEquals("primary", readOnlyTransaction.execute(status -> role()));
+    }
+
+    private static String role() {
+        return jdbcTemplate.queryForObject("SELECT role FROM server_role", String.class);
+    }
+
+    private static DataSource dataSource(PostgreSQLContainer<?> container, String role) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                container.getJdbcUrl(), container.getUsername(), container.getPassword());
+        new JdbcTemplate(dataSource).execute("CREATE TABLE IF NOT EXISTS server_role AS SELECT '" + role + "'::text AS role");
+        return dataSource;
+    }
+
+    private static PostgreSQLContainer<?> postgres() {
+        return new PostgreSQLContainer<>(DockerImageName.parse("pgvector/pgvector:pg16"))
+                .withDatabaseName("testdb")
+                .withUsername("postgres")
+                .withPassword("test");
+    }
+}
@@ -57,7 +57,7 @@ class DocumentationGenerationServiceTest {
                 .thenReturn(mockRepoPath);
 
         when(documentVectorStorage.generateEmbeddingsAndPersist(eq(mockRepoPath), anyString()))
-                .thenReturn(List.of(new DocumentChunkWithEmbedding()));
+                .thenReturn(List.of(new DocumentChunkWithEmbedding(chunk())));
 
         when(gitService.deleteRepository(mockRepoPath))
                 .thenReturn(true);
@@ -86,7 +86,7 @@ class DocumentationGenerationServiceTest {
                 .thenReturn(mockRepoPath);
 
         when(documentVectorStorage.generateEmbeddingsAndPersist(eq(mockRepoPath), anyString()))
-                .thenReturn(List.of(new DocumentChunkWithEmbedding()));
+                .thenReturn(List.of(new DocumentChunkWithEmbedding(chunk())));
 
         when(gitService.deleteRepository(mockRepoPath))
                 .thenReturn(true);
@@ -128,7 +128,7 @@ class DocumentationGenerationServiceTest {
         String projectId = "test-project-id";
         String query = "test query";
         int limit = 10;
-        List<DocumentChunk> expectedChunks = List.of(new DocumentChunk());
+        List<DocumentChunk> expectedChunks = List.of(chunk());
 
         given(documentVectorStorage.getDocumentChunksFromProject(projectId, query, limit))
                 .willReturn(expectedChunks);
@@ -192,9 +192,9 @@ class DocumentationGenerationServiceTest {
         when(gitService.getFileStructure(localRepoPath)).thenReturn(mockFileStructure);
 
         // Mock DocumentVectorStorage
-        List<DocumentChunk> relevantChunks = List.of(new DocumentChunk());
+        List<DocumentChunk> relevantChunks = List.of(chunk());
         when(documentVectorStorage.generateEmbeddingsAndPersist(eq(localRepoPath), anyString()))
-                .thenReturn(List.of(new DocumentChunkWithEmbedding()));
+                .thenReturn(List.of(new DocumentChunkWithEmbedding(chunk())));
         when(documentVectorStorage.getDocumentChunksFromProject(anyString(), anyString(), anyInt()))
                 .thenReturn(relevantChunks);
 
@@ -247,4 +247,8 @@ class DocumentationGenerationServiceTest {
         verify(chatClient, never()).prompt(any(Prompt.class));
         verify(documentVectorStorage, never()).generateEmbeddingsAndPersist(any(), any());
     }
+
+    private static DocumentChunk chunk() {
+        return new DocumentChunk("class Example {}", "src/Example.java", 1, 1, null);
+    }
 }
@@ -0,0 +1,155 @@
+package pureapps.appread.throttling;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pureapps.appread.throttling.AdaptiveConcurrencyLimiter.Priority;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new AdaptiveConcurrencyLimiter("test", new AdaptiveConcurrencyLimiter.Settings(
+                4, 1, 8, 16, 1, 64, 8, Duration.ofMillis(500), 0.5, 0.05, 0.25));
+    }
+
+    @Test
+    void shouldGrowAdditivelyWhileHealthy() {
+        // One full round of successful calls adds roughly one slot
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(Priority.BULK).close();
+            limiter.onSuccess(Duration.ofMillis(100), 16);
+        }
+
+        assertEquals(5, limiter.getLimit());
+        assertTrue(limiter.getBatchSize() > 16);
+    }
+
+    @Test
+    void shouldNotGrowWhenLatencyExceedsTarget() {
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess(Duration.ofSeconds(1), 16);
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(16, limiter.getBatchSize());
+    }
+
+    @Test
+    void shouldBackOffMultiplicativelyOncePerCongestionEvent() {
+        limiter.onOverload(Duration.ZERO);
+        limiter.onOverload(Duration.ZERO);
+
+        assertEquals(2, limiter.getLimit());
+        assertEquals(8, limiter.getBatchSize());
+    }
+
+    @Test
+    void shouldHonorRetryAfter() {
+        limiter.onOverload(Duration.ofMillis(300));
+
+        long start = System.nanoTime();
+        limiter.acquire(Priority.BULK).close();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+
+    @Test
+    void shouldBlockWhenLimitReached() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit[] permits = new AdaptiveConcurrencyLimiter.Permit[4];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.acquire(Priority.INTERACTIVE);
+        }
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiting = CompletableFuture.supplyAsync(() -> limiter.acquire(Priority.INTERACTIVE));
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        permits[0].close();
+        waiting.get(1, TimeUnit.SECONDS).close();
+        assertEquals(3, limiter.getInFlight());
+    }
+
+    @Test
+    void shouldKeepReservedCapacityForInteractiveCalls() throws Exception {
+        // With a limit of 4 and a 25% reserve, bulk calls may hold at most 3 slots
+        AdaptiveConcurrencyLimiter.Permit[] permits = new AdaptiveConcurrencyLimiter.Permit[3];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.acquire(Priority.BULK);
+        }
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> bulk = CompletableFuture.supplyAsync(() -> limiter.acquire(Priority.BULK), executor);
+        Thread.sleep(100);
+        assertFalse(bulk.isDone());
+
+        AdaptiveConcurrencyLimiter.Permit interactive = CompletableFuture.supplyAsync(() -> limiter.acquire(Priority.INTERACTIVE), executor)
+                .get(1, TimeUnit.SECONDS);
+        assertEquals(1, limiter.getInFlight(Priority.INTERACTIVE));
+        assertEquals(3, limiter.getInFlight(Priority.BULK));
+
+        // Freeing the interactive slot does not admit bulk work, freeing a bulk slot does
+        interactive.close();
+        Thread.sleep(50);
+        assertFalse(bulk.isDone());
+        permits[0].close();
+        bulk.get(1, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void shouldServeWaitingInteractiveCallsBeforeBulk() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit[] permits = new AdaptiveConcurrencyLimiter.Permit[4];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.acquire(Priority.INTERACTIVE);
+        }
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> bulk = CompletableFuture.supplyAsync(() -> limiter.acquire(Priority.BULK), executor);
+        Thread.sleep(50);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> interactive = CompletableFuture.supplyAsync(() -> limiter.acquire(Priority.INTERACTIVE), executor);
+        Thread.sleep(50);
+
+        permits[0].close();
+        interactive.get(1, TimeUnit.SECONDS);
+        assertFalse(bulk.isDone());
+    }
+
+    @Test
+    void tryAcquireOnlyTakesFreeSlots() {
+        AdaptiveConcurrencyLimiter.Permit[] permits = new AdaptiveConcurrencyLimiter.Permit[4];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.tryAcquire(Priority.INTERACTIVE);
+            assertNotNull(permits[i]);
+        }
+
+        assertNull(limiter.tryAcquire(Priority.INTERACTIVE));
+        permits[0].close();
+        // Bulk calls may not take the slot reserved for interactive ones
+        assertNull(limiter.tryAcquire(Priority.BULK));
+        assertNotNull(limiter.tryAcquire(Priority.INTERACTIVE));
+
+        for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+            permit.close();
+        }
+        limiter.onOverload(Duration.ofSeconds(5));
+        assertNull(limiter.tryAcquire(Priority.INTERACTIVE));
+    }
+
+    @Test
+    void shouldExposeMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        limiter.bindTo(registry);
+
+        assertEquals(4.0, registry.get("appread.model.concurrency.limit").tag("client", "test").gauge().value());
+        assertEquals(16.0, registry.get("appread.model.batch-size").tag("client", "test").gauge().value());
+    }
+}
@@ -0,0 +1,100 @@
+package pureapps.appread.throttling;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MicroBatcherTest {
+
+    private final List<Runnable> timers = new ArrayList<>();
+    private final List<List<String>> batches = new ArrayList<>();
+    private MicroBatcher<String, Integer> batcher;
+
+    @BeforeEach
+    void setUp() {
+        // Window timers only fire when a test runs them, and batches run on the submitting thread
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        when(scheduler.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.NANOSECONDS))).thenAnswer(invocation -> {
+            timers.add(invocation.getArgument(0));
+            return mock(ScheduledFuture.class);
+        });
+        batcher = new MicroBatcher<>("test", Duration.ofMillis(5), 3, input -> 1, inputs -> {
+            batches.add(inputs);
+            return inputs.stream().map(String::length).toList();
+        }, scheduler, directExecutor());
+    }
+
+    @Test
+    void flushesWhenTheWindowElapses() throws Exception {
+        CompletableFuture<Integer> first = batcher.submit("a");
+        CompletableFuture<Integer> second = batcher.submit("bb");
+        assertTrue(batches.isEmpty());
+
+        timers.getFirst().run();
+
+        assertEquals(List.of(List.of("a", "bb")), batches);
+        assertEquals(1, first.get());
+        assertEquals(2, second.get());
+    }
+
+    @Test
+    void flushesAsSoonAsTheBatchIsFull() {
+        batcher.submit("a");
+        batcher.submit("b");
+        batcher.submit("c");
+
+        assertEquals(List.of(List.of("a", "b", "c")), batches);
+    }
+
+    @Test
+    void lateTimerOfAFlushedBatchDoesNotFlushTheNextOne() {
+        batcher.submit("a");
+        batcher.submit("b");
+        batcher.submit("c");
+        // The next batch starts its own window
+        batcher.submit("d");
+
+        // The first window's timer fired while the batch was being flushed by size
+        timers.getFirst().run();
+        assertEquals(List.of(List.of("a", "b", "c")), batches);
+
+        timers.get(1).run();
+        assertEquals(List.of(List.of("a", "b", "c"), List.of("d")), batches);
+    }
+
+    @Test
+    void failsEveryRequestOfAFailedBatch() {
+        MicroBatcher<String, Integer> failing = new MicroBatcher<>("failing", Duration.ofMillis(5), 2, input -> 1, inputs -> {
+            throw new IllegalStateException("model down");
+        }, mock(ScheduledExecutorService.class), directExecutor());
+
+        CompletableFuture<Integer> first = failing.submit("a");
+        CompletableFuture<Integer> second = failing.submit("b");
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+    }
+
+    private static ExecutorService directExecutor() {
+        ExecutorService executor = mock(ExecutorService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+        return executor;
+    }
+}
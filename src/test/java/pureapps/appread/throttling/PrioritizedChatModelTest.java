@@ -0,0 +1,75 @@
+package pureapps.appread.throttling;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.NonTransientAiException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PrioritizedChatModelTest {
+
+    private ChatModel delegate;
+    private AdaptiveConcurrencyLimiter limiter;
+    private PrioritizedChatModel chatModel;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(ChatModel.class);
+        limiter = new AdaptiveConcurrencyLimiter("chat", new AdaptiveConcurrencyLimiter.Settings(
+                2, 1, 4, 1, 1, 1, 0, Duration.ofMillis(10), 0.5, 0.05, 0));
+        chatModel = new PrioritizedChatModel(delegate, limiter,
+                new PrioritizedChatModel.Retry(2, Duration.ofMillis(1), Duration.ofMillis(5)));
+    }
+
+    @Test
+    void retriesOverloadedCallsAfterRetryAfter() {
+        ChatResponse response = mock(ChatResponse.class);
+        when(delegate.call(any(Prompt.class)))
+                .thenThrow(new ModelOverloadedException(429, Duration.ofMillis(50), "HTTP 429 - rate limited"))
+                .thenReturn(response);
+
+        long start = System.nanoTime();
+        assertSame(response, chatModel.call(new Prompt("hello")));
+
+        // The limiter held the retry back for the Retry-After duration
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 50);
+        verify(delegate, times(2)).call(any(Prompt.class));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        when(delegate.call(any(Prompt.class))).thenThrow(new ModelOverloadedException(503, null, "HTTP 503 - unavailable"));
+
+        ModelOverloadedException e = assertThrows(ModelOverloadedException.class, () -> chatModel.call(new Prompt("hello")));
+
+        assertEquals(503, e.getStatusCode());
+        verify(delegate, times(3)).call(any(Prompt.class));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void doesNotRetryOtherErrors() {
+        when(delegate.call(any(Prompt.class))).thenThrow(new NonTransientAiException("HTTP 400 - bad request"));
+
+        assertThrows(NonTransientAiException.class, () -> chatModel.call(new Prompt("hello")));
+
+        verify(delegate, times(1)).call(any(Prompt.class));
+    }
+
+    @Test
+    void backoffIsJitteredAndCapped() {
+        for (int attempt = 1; attempt <= 30; attempt++) {
+            Duration backoff = chatModel.backoff(attempt);
+            assertFalse(backoff.isNegative());
+            assertTrue(backoff.compareTo(Duration.ofMillis(5)) <= 0);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pureapps.appread.vectorarena;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorArenaTest {
+
+    private final VectorArena arena = new VectorArena(3, 2);
+
+    @AfterEach
+    void tearDown() {
+        arena.close();
+    }
+
+    @Test
+    void shouldStoreVectorsOffHeap() {
+        VectorSlot slot = arena.store(new float[]{1.0f, -2.5f, 3.25f});
+
+        assertArrayEquals(new float[]{1.0f, -2.5f, 3.25f}, slot.toArray());
+        assertEquals(1, arena.getSlotsInUse());
+        assertEquals(2, arena.getCapacity());
+    }
+
+    @Test
+    void shouldRecycleReleasedSlotsBeforeGrowing() {
+        VectorSlot first = arena.store(new float[]{1, 2, 3});
+        arena.store(new float[]{4, 5, 6});
+        first.close();
+        first.close();
+
+        VectorSlot reused = arena.store(new float[]{7, 8, 9});
+
+        assertSame(first, reused);
+        assertEquals(2, arena.getSlotsInUse());
+        assertEquals(2, arena.getCapacity());
+
+        arena.store(new float[]{0, 0, 0});
+        assertEquals(4, arena.getCapacity());
+    }
+
+    @Test
+    void shouldReleaseASlotOnceWhenClosedConcurrently() throws Exception {
+        VectorSlot slot = arena.store(new float[]{1, 2, 3});
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> closers = IntStream.range(0, 8)
+                .mapToObj(i -> Thread.ofVirtual().start(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    slot.close();
+                }))
+                .toList();
+        start.countDown();
+        for (Thread closer : closers) {
+            closer.join();
+        }
+
+        assertEquals(0, arena.getSlotsInUse());
+        VectorSlot first = arena.store(new float[]{4, 5, 6});
+        VectorSlot second = arena.store(new float[]{7, 8, 9});
+        assertNotSame(first, second);
+        assertArrayEquals(new float[]{4, 5, 6}, first.toArray());
+    }
+
+    @Test
+    void shouldRejectAccessAfterRelease() {
+        VectorSlot slot = arena.store(new float[]{1, 2, 3});
+        slot.close();
+
+        assertThrows(IllegalStateException.class, slot::toArray);
+    }
+
+    @Test
+    void shouldRejectVectorsOfOtherSize() {
+        assertThrows(IllegalArgumentException.class, () -> arena.store(new float[]{1, 2}));
+    }
+
+    @Test
+    void shouldWritePgvectorBinaryFormat() {
+        VectorSlot slot = arena.store(new float[]{1.0f, -2.5f, 3.25f});
+        ByteBuffer buffer = ByteBuffer.allocate(slot.pgvectorBinaryLength() + 1);
+        buffer.put((byte) 7);
+
+        slot.writePgvectorBinary(buffer);
+
+        assertEquals(buffer.capacity(), buffer.position());
+        buffer.flip();
+        assertEquals(7, buffer.get());
+        assertEquals(3, buffer.getShort());
+        assertEquals(0, buffer.getShort());
+        assertEquals(1.0f, buffer.getFloat());
+        assertEquals(-2.5f, buffer.getFloat());
+        assertEquals(3.25f, buffer.getFloat());
+    }
+}